@@ -100,6 +100,24 @@ public interface Association {
 	 */
 	public void setAssociationListener(AssociationListener associationListener);
 
+	/**
+	 * The TcpFrameDecoder set for this Association, null if none
+	 * 
+	 * @return
+	 */
+	public TcpFrameDecoder getTcpFrameDecoder();
+
+	/**
+	 * Sets the {@link TcpFrameDecoder} splitting the received data of a TCP
+	 * Association into PDUs. Takes precedence over the one of the Server of a
+	 * SERVER or anonymous Association. Takes effect at the next connection.
+	 * Ignored for SCTP, which keeps message boundaries itself.
+	 * 
+	 * @param tcpFrameDecoder
+	 *            null to pass the data up as read
+	 */
+	public void setTcpFrameDecoder(TcpFrameDecoder tcpFrameDecoder);
+
 	/**
 	 * The host address that underlying socket is bound to
 	 * 
@@ -143,13 +161,57 @@ public interface Association {
 	public String[] getExtraHostAddresses();
 
 	/**
-	 * Send the {@link PayloadData} to the peer
+	 * Send the {@link PayloadData} to the peer. Unless an Exception is thrown
+	 * the stack owns the PayloadData afterwards and releases it once written,
+	 * so a pooled one must not be used again by the caller
 	 * 
 	 * @param payloadData
 	 * @throws Exception
 	 */
 	public void send(PayloadData payloadData) throws Exception;
 
+	/**
+	 * The StreamScheduler set for this Association, null if none
+	 *
+	 * @return
+	 */
+	public StreamScheduler getStreamScheduler();
+
+	/**
+	 * Sets the {@link StreamScheduler} used by
+	 * {@link #selectOutboundStream(long)}
+	 *
+	 * @param streamScheduler
+	 *            null for {@link StreamScheduler#DEFAULT}
+	 */
+	public void setStreamScheduler(StreamScheduler streamScheduler);
+
+	/**
+	 * The outbound stream to send the messages of a key on, such as an SLS
+	 * or a session id, as per the StreamScheduler of this Association. Always
+	 * 0 for TCP
+	 *
+	 * @param key
+	 * @return
+	 */
+	public int selectOutboundStream(long key);
+
+	/**
+	 * Messages sent on an outbound stream and not written to the socket yet,
+	 * 0 for an unknown stream
+	 *
+	 * @param streamNumber
+	 * @return
+	 */
+	public int getOutboundStreamBacklog(int streamNumber);
+
+	/**
+	 * The traffic counters and latency histograms of this Association
+	 *
+	 * @return
+	 */
+	public AssociationMetrics getMetrics();
+
     /**
      * Return ByteBufAllocator if the underlying Channel is netty or null if not
      *
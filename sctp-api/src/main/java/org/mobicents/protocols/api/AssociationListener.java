@@ -81,7 +81,9 @@ public interface AssociationListener {
 	public void onCommunicationRestart(Association association);
 
 	/**
-	 * Invoked when the {@link PayloadData} is received from peer
+	 * Invoked when the {@link PayloadData} is received from peer. The
+	 * listener owns the PayloadData and calls {@link PayloadData#release()}
+	 * once done with it, so its buffer and holder are reused
 	 * 
 	 * @param association
 	 * @param payloadData
@@ -91,7 +93,9 @@ public interface AssociationListener {
 	/**
 	 * <p>
 	 * The stream id set in outgoing {@link PayloadData} is invalid. This packe
-	 * will be dropped after calling the listener.
+	 * will be dropped after calling the listener: the stack releases the
+	 * PayloadData (see {@link PayloadData#release()}) once this returns, so a
+	 * listener which needs the data later must copy it.
 	 * </p>
 	 * <p>
 	 * This callback is on same Thread as {@link SelectorThread}. Do not delay
@@ -0,0 +1,324 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a full listing
+ * of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU General Public License, v. 2.0.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * v. 2.0 along with this distribution; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301, USA.
+ */
+package org.mobicents.protocols.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * Traffic counters of an {@link Association}, kept by the stack and read with
+ * {@link Association#getMetrics()} or by a {@link MetricsExporter}. Counters
+ * run from the creation of the Association, the per stream counters from the
+ * last time it came up with another number of streams.
+ * </p>
+ * <ul>
+ * <li>Rx messages are the ones passed to AssociationListener.onPayload(), Tx
+ * messages the ones written to the socket</li>
+ * <li>Dispatch delay is the time from reading a message off the socket till
+ * the listener is called, send delay the time from Association.send() till
+ * the message is written to the socket. Both in microseconds</li>
+ * <li>Congestion time is the time spent at a congestion level above 0</li>
+ * <li>Both delays are kept per stream as well. A stream histogram is created
+ * by the first message of the stream, so unused streams cost no memory</li>
+ * </ul>
+ * <p>
+ * All methods are lock free except the congestion ones, which are called on
+ * congestion level changes only.
+ * </p>
+ *
+ */
+public class AssociationMetrics {
+
+	private final AtomicLong rxMessages = new AtomicLong();
+	private final AtomicLong rxBytes = new AtomicLong();
+	private final AtomicLong txMessages = new AtomicLong();
+	private final AtomicLong txBytes = new AtomicLong();
+	private final AtomicLong rxDropped = new AtomicLong();
+	private final AtomicLong txDropped = new AtomicLong();
+	private final AtomicLong invalidStreamIds = new AtomicLong();
+
+	private volatile AtomicLongArray rxStreamMessages = new AtomicLongArray(1);
+	private volatile AtomicLongArray txStreamMessages = new AtomicLongArray(1);
+
+	private final LatencyHistogram dispatchDelay = new LatencyHistogram();
+	private final LatencyHistogram sendDelay = new LatencyHistogram();
+	private volatile AtomicReferenceArray<LatencyHistogram> rxStreamDispatchDelay = new AtomicReferenceArray<LatencyHistogram>(1);
+	private volatile AtomicReferenceArray<LatencyHistogram> txStreamSendDelay = new AtomicReferenceArray<LatencyHistogram>(1);
+
+	// Guarded by this
+	private long congestionNanos = 0;
+	// System.nanoTime() when the level went above 0, 0 when at level 0
+	private long congestionStart = 0;
+
+	/**
+	 * Sizes the per stream counters when the Association comes up, they keep
+	 * counting if the numbers of streams did not change
+	 *
+	 * @param inboundStreams
+	 * @param outboundStreams
+	 */
+	public void setStreams(int inboundStreams, int outboundStreams) {
+		inboundStreams = Math.max(inboundStreams, 1);
+		outboundStreams = Math.max(outboundStreams, 1);
+		if (this.rxStreamMessages.length() != inboundStreams) {
+			this.rxStreamMessages = new AtomicLongArray(inboundStreams);
+			this.rxStreamDispatchDelay = new AtomicReferenceArray<LatencyHistogram>(inboundStreams);
+		}
+		if (this.txStreamMessages.length() != outboundStreams) {
+			this.txStreamMessages = new AtomicLongArray(outboundStreams);
+			this.txStreamSendDelay = new AtomicReferenceArray<LatencyHistogram>(outboundStreams);
+		}
+	}
+
+	/**
+	 * A message is read off the socket and goes to the listener. Time stamps
+	 * the PayloadData for the dispatch delay
+	 *
+	 * @param payloadData
+	 */
+	public void onReceived(PayloadData payloadData) {
+		this.rxMessages.incrementAndGet();
+		this.rxBytes.addAndGet(payloadData.getDataLength());
+		add(this.rxStreamMessages, payloadData.getStreamNumber());
+		payloadData.setTimestamp(System.nanoTime());
+	}
+
+	/**
+	 * The listener is about to be called with the PayloadData
+	 *
+	 * @param payloadData
+	 */
+	public void onDispatched(PayloadData payloadData) {
+		long timestamp = payloadData.getTimestamp();
+		if (timestamp == 0)
+			return;
+		long delay = (System.nanoTime() - timestamp) / 1000;
+		this.dispatchDelay.record(delay);
+		record(this.rxStreamDispatchDelay, payloadData.getStreamNumber(), delay);
+	}
+
+	/**
+	 * A message has been written to the socket
+	 *
+	 * @param streamNumber
+	 * @param bytes
+	 * @param sendNanos
+	 *            System.nanoTime() at Association.send(), 0 if unknown
+	 */
+	public void onSent(int streamNumber, int bytes, long sendNanos) {
+		this.txMessages.incrementAndGet();
+		this.txBytes.addAndGet(bytes);
+		add(this.txStreamMessages, streamNumber);
+		if (sendNanos != 0) {
+			long delay = (System.nanoTime() - sendNanos) / 1000;
+			this.sendDelay.record(delay);
+			record(this.txStreamSendDelay, streamNumber, delay);
+		}
+	}
+
+	/**
+	 * A received message could not be passed up
+	 */
+	public void onRxDropped() {
+		this.rxDropped.incrementAndGet();
+	}
+
+	/**
+	 * A message taken by Association.send() will not be written, or send()
+	 * refused it
+	 */
+	public void onTxDropped() {
+		this.txDropped.incrementAndGet();
+	}
+
+	/**
+	 * A message was sent on a stream the Association does not have
+	 */
+	public void onInvalidStreamId() {
+		this.invalidStreamIds.incrementAndGet();
+	}
+
+	/**
+	 * The congestion level of the Association has changed
+	 *
+	 * @param newLevel
+	 */
+	public synchronized void onCongestionLevelChanged(int newLevel) {
+		if (newLevel > 0 && this.congestionStart == 0) {
+			this.congestionStart = System.nanoTime();
+		} else if (newLevel == 0 && this.congestionStart != 0) {
+			this.congestionNanos += System.nanoTime() - this.congestionStart;
+			this.congestionStart = 0;
+		}
+	}
+
+	private static void add(AtomicLongArray counters, int streamNumber) {
+		if (streamNumber >= 0 && streamNumber < counters.length())
+			counters.incrementAndGet(streamNumber);
+	}
+
+	private static void record(AtomicReferenceArray<LatencyHistogram> histograms, int streamNumber, long delay) {
+		if (streamNumber < 0 || streamNumber >= histograms.length())
+			return;
+		LatencyHistogram histogram = histograms.get(streamNumber);
+		if (histogram == null) {
+			histograms.compareAndSet(streamNumber, null, new LatencyHistogram());
+			histogram = histograms.get(streamNumber);
+		}
+		histogram.record(delay);
+	}
+
+	private static LatencyHistogram get(AtomicReferenceArray<LatencyHistogram> histograms, int streamNumber) {
+		if (streamNumber < 0 || streamNumber >= histograms.length())
+			return null;
+		return histograms.get(streamNumber);
+	}
+
+	private static long[] toArray(AtomicLongArray counters) {
+		long[] values = new long[counters.length()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = counters.get(i);
+		}
+		return values;
+	}
+
+	public long getRxMessages() {
+		return this.rxMessages.get();
+	}
+
+	public long getRxBytes() {
+		return this.rxBytes.get();
+	}
+
+	public long getTxMessages() {
+		return this.txMessages.get();
+	}
+
+	public long getTxBytes() {
+		return this.txBytes.get();
+	}
+
+	public long getRxDropped() {
+		return this.rxDropped.get();
+	}
+
+	public long getTxDropped() {
+		return this.txDropped.get();
+	}
+
+	public long getInvalidStreamIds() {
+		return this.invalidStreamIds.get();
+	}
+
+	/**
+	 * @return Rx messages per inbound stream
+	 */
+	public long[] getRxStreamMessages() {
+		return toArray(this.rxStreamMessages);
+	}
+
+	/**
+	 * @return Tx messages per outbound stream
+	 */
+	public long[] getTxStreamMessages() {
+		return toArray(this.txStreamMessages);
+	}
+
+	public int getInboundStreams() {
+		return this.rxStreamMessages.length();
+	}
+
+	public int getOutboundStreams() {
+		return this.txStreamMessages.length();
+	}
+
+	/**
+	 * @return milliseconds spent at a congestion level above 0, the ongoing
+	 *         congestion included
+	 */
+	public synchronized long getCongestionTime() {
+		long nanos = this.congestionNanos;
+		if (this.congestionStart != 0)
+			nanos += System.nanoTime() - this.congestionStart;
+		return nanos / 1000000;
+	}
+
+	public LatencyHistogram getDispatchDelay() {
+		return this.dispatchDelay;
+	}
+
+	public LatencyHistogram getSendDelay() {
+		return this.sendDelay;
+	}
+
+	/**
+	 * @param streamNumber
+	 * @return the dispatch delay of an inbound stream, null if no message of
+	 *         the stream has been dispatched yet
+	 */
+	public LatencyHistogram getStreamDispatchDelay(int streamNumber) {
+		return get(this.rxStreamDispatchDelay, streamNumber);
+	}
+
+	/**
+	 * @param streamNumber
+	 * @return the send delay of an outbound stream, null if no message of the
+	 *         stream has been written yet
+	 */
+	public LatencyHistogram getStreamSendDelay(int streamNumber) {
+		return get(this.txStreamSendDelay, streamNumber);
+	}
+
+	/**
+	 * Sets all the counters and histograms back to 0
+	 */
+	public void reset() {
+		this.rxMessages.set(0);
+		this.rxBytes.set(0);
+		this.txMessages.set(0);
+		this.txBytes.set(0);
+		this.rxDropped.set(0);
+		this.txDropped.set(0);
+		this.invalidStreamIds.set(0);
+		this.rxStreamMessages = new AtomicLongArray(this.rxStreamMessages.length());
+		this.txStreamMessages = new AtomicLongArray(this.txStreamMessages.length());
+		this.rxStreamDispatchDelay = new AtomicReferenceArray<LatencyHistogram>(this.rxStreamDispatchDelay.length());
+		this.txStreamSendDelay = new AtomicReferenceArray<LatencyHistogram>(this.txStreamSendDelay.length());
+		this.dispatchDelay.reset();
+		this.sendDelay.reset();
+		synchronized (this) {
+			this.congestionNanos = 0;
+			if (this.congestionStart != 0)
+				this.congestionStart = System.nanoTime();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("rxMessages=%d rxBytes=%d txMessages=%d txBytes=%d rxDropped=%d txDropped=%d "
+				+ "invalidStreamIds=%d congestionTime=%d dispatchDelay=[%s] sendDelay=[%s]", this.getRxMessages(),
+				this.getRxBytes(), this.getTxMessages(), this.getTxBytes(), this.getRxDropped(), this.getTxDropped(),
+				this.getInvalidStreamIds(), this.getCongestionTime(), this.dispatchDelay, this.sendDelay);
+	}
+}
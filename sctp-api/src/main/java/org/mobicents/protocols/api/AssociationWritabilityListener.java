@@ -19,45 +19,30 @@
  * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
  * MA 02110-1301, USA.
  */
-package org.mobicents.protocols.sctp;
-
-import org.mobicents.protocols.api.AssociationListener;
-import org.mobicents.protocols.api.PayloadData;
+package org.mobicents.protocols.api;
 
 /**
- * @author amit bhayani
+ * <p>
+ * An {@link AssociationListener} which is also told when the {@link Association}
+ * stops or resumes taking more data without delay. An Association is writable
+ * while its congestion level is 0, see
+ * {@link Association#getCongestionLevel()}. The Association checks whether its
+ * AssociationListener implements this interface, so existing listeners are not
+ * affected.
+ * </p>
  * 
  */
-public class Worker implements Runnable {
-
-	private AssociationImpl association;
-	private AssociationListener associationListener = null;
-	private PayloadData payloadData = null;
+public interface AssociationWritabilityListener extends AssociationListener {
 
 	/**
-	 * @param association
-	 * @param associationListener
-	 * @param payloadData
-	 */
-	protected Worker(AssociationImpl association, AssociationListener associationListener, PayloadData payloadData) {
-		super();
-		this.association = association;
-		this.associationListener = associationListener;
-		this.payloadData = payloadData;
-	}
-
-	/*
-	 * (non-Javadoc)
+	 * Invoked when the Association becomes congested (writable is false) or
+	 * gets back to congestion level 0 (writable is true). Sending while not
+	 * writable is allowed, the data is queued as long as the outbound queue
+	 * has room.
 	 * 
-	 * @see java.lang.Runnable#run()
+	 * @param association
+	 * @param writable
 	 */
-	@Override
-	public void run() {
-		try {
-			this.associationListener.onPayload(this.association, this.payloadData);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-	}
+	public void onWritabilityChanged(Association association, boolean writable);
 
 }
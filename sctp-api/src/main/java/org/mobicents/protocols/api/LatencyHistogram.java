@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a full listing
+ * of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU General Public License, v. 2.0.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * v. 2.0 along with this distribution; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301, USA.
+ */
+package org.mobicents.protocols.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Lock free histogram of delays in microseconds, up to about 19 hours. Like
+ * HdrHistogram buckets grow exponentially and each power of 2 is split in 32
+ * linear sub buckets, so a recorded value is known within 1/32 (about 3%).
+ * </p>
+ * <p>
+ * Several threads may record at the same time. Reading while recording gives
+ * a view which may miss the latest records, but never breaks.
+ * </p>
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_VALUE_BITS = 36;
+
+	/**
+	 * Highest value kept, larger values are recorded as this
+	 */
+	public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(bucketIndex(MAX_VALUE) + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value
+	 *            microseconds, negative values are taken as 0
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		else if (value > MAX_VALUE)
+			value = MAX_VALUE;
+
+		this.counts.incrementAndGet(bucketIndex(value));
+		this.count.incrementAndGet();
+		this.total.addAndGet(value);
+
+		long current;
+		while (value > (current = this.max.get())) {
+			if (this.max.compareAndSet(current, value))
+				break;
+		}
+	}
+
+	/**
+	 * Records the microseconds from a System.nanoTime() time stamp till now
+	 *
+	 * @param startNanos
+	 *            0 for an unknown time, then nothing is recorded
+	 */
+	public void recordSince(long startNanos) {
+		if (startNanos != 0)
+			this.record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	public long getCount() {
+		return this.count.get();
+	}
+
+	public long getMax() {
+		return this.max.get();
+	}
+
+	public double getMean() {
+		long n = this.count.get();
+		return n == 0 ? 0 : (double) this.total.get() / n;
+	}
+
+	/**
+	 * @param percentile
+	 *            0 to 100
+	 * @return the highest value of the bucket which holds the percentile, 0
+	 *         if nothing is recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = this.count.get();
+		if (n == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * n);
+		if (rank < 1)
+			rank = 1;
+		long seen = 0;
+		for (int i = 0; i < this.counts.length(); i++) {
+			seen += this.counts.get(i);
+			if (seen >= rank)
+				return Math.min(highestValue(i), this.max.get());
+		}
+		return this.max.get();
+	}
+
+	/**
+	 * Drops all the records
+	 */
+	public void reset() {
+		for (int i = 0; i < this.counts.length(); i++) {
+			this.counts.set(i, 0);
+		}
+		this.count.set(0);
+		this.total.set(0);
+		this.max.set(0);
+	}
+
+	private static int bucketIndex(long value) {
+		if (value < 2 * SUB_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	private static long highestValue(int index) {
+		if (index < 2 * SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return (subBucket << shift) + (1L << shift) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1f p50=%d p99=%d p99.9=%d max=%d", this.getCount(), this.getMean(),
+				this.getValueAtPercentile(50), this.getValueAtPercentile(99), this.getValueAtPercentile(99.9),
+				this.getMax());
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a full listing
+ * of individual contributors.
+ * 
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU General Public License, v. 2.0.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License,
+ * v. 2.0 along with this distribution; if not, write to the Free 
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301, USA.
+ */
+package org.mobicents.protocols.api;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * <p>
+ * {@link TcpFrameDecoder} for protocols whose header carries the PDU length in
+ * a big endian field, such as M3UA (4 bytes at offset 4, header included) and
+ * Diameter (3 bytes at offset 1, header included).
+ * </p>
+ * 
+ */
+public class LengthFieldTcpFrameDecoder implements TcpFrameDecoder {
+
+	private final int lengthFieldOffset;
+	private final int lengthFieldLength;
+	private final int lengthAdjustment;
+	private final int maxFrameLength;
+
+	/**
+	 * @param lengthFieldOffset
+	 *            offset of the length field from the start of the PDU
+	 * @param lengthFieldLength
+	 *            1, 2, 3 or 4 bytes
+	 * @param lengthAdjustment
+	 *            added to the length field value to get the PDU length,
+	 *            header included. 0 if the field counts the whole PDU
+	 * @param maxFrameLength
+	 *            PDUs longer than this are taken as a corrupted stream
+	 */
+	public LengthFieldTcpFrameDecoder(int lengthFieldOffset, int lengthFieldLength, int lengthAdjustment,
+			int maxFrameLength) {
+		if (lengthFieldOffset < 0)
+			throw new IllegalArgumentException("lengthFieldOffset can not be negative");
+		if (lengthFieldLength < 1 || lengthFieldLength > 4)
+			throw new IllegalArgumentException("lengthFieldLength must be 1, 2, 3 or 4");
+		if (maxFrameLength < 1)
+			throw new IllegalArgumentException("maxFrameLength must be positive");
+
+		this.lengthFieldOffset = lengthFieldOffset;
+		this.lengthFieldLength = lengthFieldLength;
+		this.lengthAdjustment = lengthAdjustment;
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	/**
+	 * @return a decoder for M3UA (RFC 4666) PDUs of up to maxFrameLength bytes
+	 */
+	public static LengthFieldTcpFrameDecoder m3ua(int maxFrameLength) {
+		return new LengthFieldTcpFrameDecoder(4, 4, 0, maxFrameLength);
+	}
+
+	/**
+	 * @return a decoder for Diameter (RFC 6733) messages of up to
+	 *         maxFrameLength bytes
+	 */
+	public static LengthFieldTcpFrameDecoder diameter(int maxFrameLength) {
+		return new LengthFieldTcpFrameDecoder(1, 3, 0, maxFrameLength);
+	}
+
+	@Override
+	public int frameLength(ByteBuf buffer) throws Exception {
+		int headerLength = this.lengthFieldOffset + this.lengthFieldLength;
+		if (buffer.readableBytes() < headerLength)
+			return -1;
+
+		int index = buffer.readerIndex() + this.lengthFieldOffset;
+		long length;
+		switch (this.lengthFieldLength) {
+		case 1:
+			length = buffer.getUnsignedByte(index);
+			break;
+		case 2:
+			length = buffer.getUnsignedShort(index);
+			break;
+		case 3:
+			length = buffer.getUnsignedMedium(index);
+			break;
+		default:
+			length = buffer.getUnsignedInt(index);
+			break;
+		}
+		length += this.lengthAdjustment;
+
+		if (length < headerLength || length > this.maxFrameLength) {
+			throw new Exception(String.format("Bad PDU length=%d, must be from %d to %d", length, headerLength,
+					this.maxFrameLength));
+		}
+		return (int) length;
+	}
+
+	public int getLengthFieldOffset() {
+		return lengthFieldOffset;
+	}
+
+	public int getLengthFieldLength() {
+		return lengthFieldLength;
+	}
+
+	public int getLengthAdjustment() {
+		return lengthAdjustment;
+	}
+
+	public int getMaxFrameLength() {
+		return maxFrameLength;
+	}
+
+}
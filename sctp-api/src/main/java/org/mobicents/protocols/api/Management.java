@@ -111,6 +111,21 @@ public interface Management {
      */
     public void removeCongestionListener(CongestionListener listener);
 
+	/**
+	 * Adding MetricsExporter. It is registered with all the Associations
+	 * at once and then told about added and removed ones
+	 *
+	 * @param exporter
+	 */
+	public void addMetricsExporter(MetricsExporter exporter);
+
+	/**
+	 * Removing MetricsExporter. All the Associations are unregistered from it
+	 *
+	 * @param exporter
+	 */
+	public void removeMetricsExporter(MetricsExporter exporter);
+
 	/**
 	 * Start the management. No management operation can be executed unless
 	 * {@link Management} is started. If {@link Server} and {@link Association}
@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a full listing
+ * of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU General Public License, v. 2.0.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * v. 2.0 along with this distribution; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301, USA.
+ */
+package org.mobicents.protocols.api;
+
+/**
+ * <p>
+ * Publishes the {@link AssociationMetrics} of the Associations of a
+ * {@link Management} to a monitoring system, added with
+ * {@link Management#addMetricsExporter(MetricsExporter)}. The exporter is told
+ * which Associations exist and reads their metrics whenever it likes, e.g.
+ * when polled over JMX or from a timer of its own.
+ * </p>
+ * <p>
+ * Anonymous Associations of a Server are not exported. The outbound queue
+ * depth is the sum of {@link Association#getOutboundStreamBacklog(int)} over
+ * {@link AssociationMetrics#getOutboundStreams()}.
+ * </p>
+ *
+ */
+public interface MetricsExporter {
+
+	/**
+	 * The Association has been added to Management or loaded at its start.
+	 * When the exporter is added, called for all the Associations Management
+	 * already has
+	 *
+	 * @param management
+	 * @param association
+	 */
+	public void register(Management management, Association association);
+
+	/**
+	 * The Association has been removed, or Management is stopped or the
+	 * exporter is removed
+	 *
+	 * @param management
+	 * @param association
+	 */
+	public void unregister(Management management, Association association);
+
+}
@@ -22,6 +22,7 @@ package org.mobicents.protocols.api;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.Recycler;
 import io.netty.util.ReferenceCountUtil;
 
 import org.mobicents.commons.HexTools;
@@ -29,16 +30,41 @@ import org.mobicents.commons.HexTools;
 /**
  * The actual pay load data received or to be sent from/to underlying socket
  * 
+ * <p>
+ * Instances are either created with a constructor, or taken from a pool with
+ * {@link #newInstance(int, ByteBuf, boolean, boolean, int, int)}. The stack
+ * hands received data to AssociationListener.onPayload() as pooled
+ * instances. Whoever owns a PayloadData (the listener for received data, the
+ * stack once it has been passed to Association.send()) is done with it by
+ * calling {@link #release()}, which releases the ByteBuf and gives a pooled
+ * instance back to the pool. A PayloadData must not be touched after that.
+ * Instances created with a constructor are never pooled and never change, and
+ * a listener which keeps the PayloadData or only calls
+ * {@link #releaseBuffer()} / {@link #getData()} leaves it to the garbage
+ * collector as before.
+ * </p>
+ * 
  * @author amit bhayani
  * 
  */
 public class PayloadData {
+
+    private static final Recycler<Pooled> RECYCLER = new Recycler<Pooled>() {
+        @Override
+        protected Pooled newObject(Recycler.Handle handle) {
+            return new Pooled(handle);
+        }
+    };
+
 	private final int dataLength;
 	private final ByteBuf byteBuf;
 	private final boolean complete;
 	private final boolean unordered;
 	private final int payloadProtocolId;
 	private final int streamNumber;
+    // System.nanoTime() set by the stack for AssociationMetrics, 0 if not set.
+    // Bookkeeping of the stack, not part of the payload
+    private long timestamp;
 
     /**
      * @param dataLength
@@ -88,6 +114,24 @@ public class PayloadData {
         this.streamNumber = streamNumber;
     }
 
+    /**
+     * Takes a PayloadData from the pool, see the class description for who
+     * gives it back with {@link #release()}. Parameters are the same as for
+     * the constructor.
+     */
+    public static PayloadData newInstance(int dataLength, ByteBuf byteBuf, boolean complete, boolean unordered,
+            int payloadProtocolId, int streamNumber) {
+        Pooled payloadData = RECYCLER.get();
+        payloadData.pooledDataLength = dataLength;
+        payloadData.pooledByteBuf = byteBuf;
+        payloadData.pooledComplete = complete;
+        payloadData.pooledUnordered = unordered;
+        payloadData.pooledPayloadProtocolId = payloadProtocolId;
+        payloadData.pooledStreamNumber = streamNumber;
+        payloadData.setTimestamp(0);
+        return payloadData;
+    }
+
 	/**
 	 * @return the dataLength
 	 */
@@ -106,6 +150,7 @@ public class PayloadData {
      * @return the data
      */
     public byte[] getData() {
+        ByteBuf byteBuf = this.getByteBuf();
         byte[] array = new byte[byteBuf.readableBytes()];
         byteBuf.getBytes(0, array);
         ReferenceCountUtil.release(byteBuf);
@@ -113,7 +158,33 @@ public class PayloadData {
     }
 
     public void releaseBuffer() {
-    	ReferenceCountUtil.release(byteBuf);
+    	ReferenceCountUtil.release(this.getByteBuf());
+    }
+
+    /**
+     * Releases the ByteBuf and, if this instance is pooled, gives it back to
+     * the pool. The PayloadData must not be used afterwards.
+     */
+    public void release() {
+        ReferenceCountUtil.release(this.getByteBuf());
+        this.recycle();
+    }
+
+    /**
+     * Gives a pooled instance back to the pool without releasing the ByteBuf,
+     * for when the ByteBuf has been handed on (for example written to a Netty
+     * channel, which releases it). Does nothing for an instance created with
+     * a constructor. The PayloadData must not be used afterwards.
+     */
+    public void recycle() {
+    }
+
+    /**
+     * @return true if this instance was taken from the pool with
+     *         {@link #newInstance(int, ByteBuf, boolean, boolean, int, int)}
+     */
+    public boolean isPooled() {
+        return false;
     }
     
 	/**
@@ -159,6 +230,18 @@ public class PayloadData {
 		return streamNumber;
 	}
 
+    /**
+     * @return System.nanoTime() when the stack took this PayloadData, from
+     *         the socket or from Association.send(). 0 if unknown
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -166,14 +249,77 @@ public class PayloadData {
 	 */
 	@Override
 	public String toString() {
+        ByteBuf byteBuf = this.getByteBuf();
         byte[] array = new byte[byteBuf.readableBytes()];
         byteBuf.getBytes(0, array);
 
         StringBuffer sb = new StringBuffer();
-        sb.append("PayloadData [dataLength=").append(dataLength).append(", complete=").append(complete).append(", unordered=")
-                .append(unordered).append(", payloadProtocolId=").append(payloadProtocolId).append(", streamNumber=")
-                .append(streamNumber).append(", data=\n").append(HexTools.dump(array, 0)).append("]");
+        sb.append("PayloadData [dataLength=").append(this.getDataLength()).append(", complete=").append(this.isComplete())
+                .append(", unordered=").append(this.isUnordered()).append(", payloadProtocolId=")
+                .append(this.getPayloadProtocolId()).append(", streamNumber=").append(this.getStreamNumber())
+                .append(", data=\n").append(HexTools.dump(array, 0)).append("]");
         return sb.toString();
 	}
 
+    /**
+     * Instance of the pool. Only this class changes its fields, when taken
+     * from the pool
+     */
+    private static final class Pooled extends PayloadData {
+        private final Recycler.Handle handle;
+
+        private int pooledDataLength;
+        private ByteBuf pooledByteBuf;
+        private boolean pooledComplete;
+        private boolean pooledUnordered;
+        private int pooledPayloadProtocolId;
+        private int pooledStreamNumber;
+
+        private Pooled(Recycler.Handle handle) {
+            super(0, (ByteBuf) null, false, false, 0, 0);
+            this.handle = handle;
+        }
+
+        @Override
+        public int getDataLength() {
+            return pooledDataLength;
+        }
+
+        @Override
+        public ByteBuf getByteBuf() {
+            return pooledByteBuf;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return pooledComplete;
+        }
+
+        @Override
+        public boolean isUnordered() {
+            return pooledUnordered;
+        }
+
+        @Override
+        public int getPayloadProtocolId() {
+            return pooledPayloadProtocolId;
+        }
+
+        @Override
+        public int getStreamNumber() {
+            return pooledStreamNumber;
+        }
+
+        @Override
+        public void recycle() {
+            this.pooledByteBuf = null;
+            RECYCLER.recycle(this, this.handle);
+        }
+
+        @Override
+        public boolean isPooled() {
+            return true;
+        }
+    }
+
 }
@@ -108,4 +108,22 @@ public interface Server {
 	 */
 	public List<Association> getAnonymAssociations();
 
+	/**
+	 * The TcpFrameDecoder used by the Associations of this Server, null if
+	 * none
+	 * 
+	 * @return
+	 */
+	public TcpFrameDecoder getTcpFrameDecoder();
+
+	/**
+	 * Sets the {@link TcpFrameDecoder} used by the SERVER and anonymous
+	 * Associations of this TCP Server that have none of their own. Takes
+	 * effect for the connections accepted afterwards.
+	 * 
+	 * @param tcpFrameDecoder
+	 *            null to pass the data up as read
+	 */
+	public void setTcpFrameDecoder(TcpFrameDecoder tcpFrameDecoder);
+
 }
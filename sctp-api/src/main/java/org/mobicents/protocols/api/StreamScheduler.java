@@ -0,0 +1,263 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a full listing
+ * of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU General Public License, v. 2.0.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * v. 2.0 along with this distribution; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301, USA.
+ */
+package org.mobicents.protocols.api;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Maps a key of the user, such as an SLS or a session id, to one of the
+ * outbound streams of an {@link Association}, so that all the messages of a
+ * key go in order over one stream while different keys spread over all the
+ * streams and a slow message holds up only the keys of its own stream. Used
+ * through {@link Association#selectOutboundStream(long)}.
+ * </p>
+ * <p>
+ * Keys are placed on a consistent hash ring of the outbound streams, so when
+ * an Association comes up again with another number of streams most keys stay
+ * on the stream they had.
+ * </p>
+ * <p>
+ * With a backlog threshold a key seen for the first time whose stream has that
+ * many messages or more waiting to be written goes to the next stream on the
+ * ring below the threshold instead (the least loaded one if none is), and
+ * keeps that stream until {@link #releaseKey(long)} or until the Association
+ * comes up again. Only steered keys are remembered, up to maxKeys of them;
+ * once maxKeys are remembered further new keys get their ring stream. Such a
+ * StreamScheduler keeps state and must be set on one Association only.
+ * </p>
+ *
+ */
+public class StreamScheduler {
+
+	/**
+	 * Plain consistent hashing, without state, may be shared. Used by
+	 * Associations which have no StreamScheduler set
+	 */
+	public static final StreamScheduler DEFAULT = new StreamScheduler();
+
+	// Points per stream on the ring, evens out the share of each stream
+	private static final int VIRTUAL_NODES = 32;
+
+	// Rings depend on the number of streams only
+	private static final ConcurrentHashMap<Integer, Ring> rings = new ConcurrentHashMap<Integer, Ring>();
+
+	private final int backlogThreshold;
+	private final int maxKeys;
+	private final ConcurrentHashMap<Long, Integer> keys;
+
+	/**
+	 * Consistent hashing only
+	 */
+	public StreamScheduler() {
+		this.backlogThreshold = 0;
+		this.maxKeys = 0;
+		this.keys = null;
+	}
+
+	/**
+	 * Consistent hashing which steers new keys away from streams with a deep
+	 * backlog
+	 *
+	 * @param backlogThreshold
+	 *            messages waiting on a stream from which new keys go to
+	 *            another stream
+	 * @param maxKeys
+	 *            keys remembered at most
+	 */
+	public StreamScheduler(int backlogThreshold, int maxKeys) {
+		if (backlogThreshold < 1)
+			throw new IllegalArgumentException("backlogThreshold must be positive");
+		if (maxKeys < 1)
+			throw new IllegalArgumentException("maxKeys must be positive");
+
+		this.backlogThreshold = backlogThreshold;
+		this.maxKeys = maxKeys;
+		this.keys = new ConcurrentHashMap<Long, Integer>();
+	}
+
+	public boolean isBacklogAware() {
+		return this.keys != null;
+	}
+
+	public int getBacklogThreshold() {
+		return backlogThreshold;
+	}
+
+	public int getMaxKeys() {
+		return maxKeys;
+	}
+
+	/**
+	 * @return the number of keys remembered
+	 */
+	public int getKeyCount() {
+		return this.keys != null ? this.keys.size() : 0;
+	}
+
+	/**
+	 * @param key
+	 * @param streams
+	 *            outbound streams of the Association
+	 * @param association
+	 *            gives the backlog of each stream
+	 * @return the stream for the key, 0 to streams - 1
+	 */
+	public int selectStream(long key, int streams, Association association) {
+		if (streams <= 1)
+			return 0;
+
+		Ring ring = ring(streams);
+		int index = ring.index(hash(key));
+		int stream = ring.streams[index];
+		if (this.keys == null)
+			return stream;
+
+		Long boxedKey = key;
+		Integer assigned = this.keys.get(boxedKey);
+		if (assigned != null) {
+			if (assigned < streams)
+				return assigned;
+			// the Association has fewer streams now
+			this.keys.remove(boxedKey, assigned);
+		}
+
+		// a key which can not be remembered keeps its ring stream, steering it
+		// would move its next messages to yet another stream
+		if (this.keys.size() >= this.maxKeys)
+			return stream;
+
+		int ringStream = stream;
+		int backlog = association.getOutboundStreamBacklog(stream);
+		if (backlog >= this.backlogThreshold) {
+			boolean[] checked = new boolean[streams];
+			checked[stream] = true;
+			int left = streams - 1;
+			for (int i = 1; i < ring.points.length && left > 0; i++) {
+				int next = ring.streams[(index + i) % ring.points.length];
+				if (checked[next])
+					continue;
+				checked[next] = true;
+				left--;
+
+				int nextBacklog = association.getOutboundStreamBacklog(next);
+				if (nextBacklog < backlog) {
+					stream = next;
+					backlog = nextBacklog;
+					if (backlog < this.backlogThreshold)
+						break;
+				}
+			}
+		}
+
+		// a key on its ring stream finds it again without an entry
+		if (stream != ringStream) {
+			assigned = this.keys.putIfAbsent(boxedKey, stream);
+			if (assigned != null)
+				return assigned;
+		}
+		return stream;
+	}
+
+	/**
+	 * Forgets the stream of a key which has no more messages to send, e.g.
+	 * at the end of a session
+	 *
+	 * @param key
+	 */
+	public void releaseKey(long key) {
+		if (this.keys != null)
+			this.keys.remove(key);
+	}
+
+	/**
+	 * Forgets the streams of all the keys. Called when the Association comes
+	 * up, as nothing is waiting to be sent then
+	 */
+	public void clear() {
+		if (this.keys != null)
+			this.keys.clear();
+	}
+
+	private static Ring ring(int streams) {
+		Integer boxedStreams = streams;
+		Ring ring = rings.get(boxedStreams);
+		if (ring == null) {
+			ring = new Ring(streams);
+			Ring prev = rings.putIfAbsent(boxedStreams, ring);
+			if (prev != null)
+				ring = prev;
+		}
+		return ring;
+	}
+
+	/**
+	 * MurmurHash3 64 bit finalizer, spreads keys such as consecutive SLS
+	 * values over the ring
+	 */
+	private static int hash(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	private static class Ring {
+		// sorted hash points and the stream of each
+		private final int[] points;
+		private final int[] streams;
+
+		private Ring(int streamCount) {
+			// a point depends on its stream only, so other stream counts
+			// keep it
+			long[] entries = new long[streamCount * VIRTUAL_NODES];
+			for (int stream = 0; stream < streamCount; stream++) {
+				for (int node = 0; node < VIRTUAL_NODES; node++) {
+					long point = hash(((long) stream << 32) | node);
+					entries[stream * VIRTUAL_NODES + node] = (point << 32) | stream;
+				}
+			}
+			Arrays.sort(entries);
+
+			this.points = new int[entries.length];
+			this.streams = new int[entries.length];
+			for (int i = 0; i < entries.length; i++) {
+				this.points[i] = (int) (entries[i] >> 32);
+				this.streams[i] = (int) (entries[i] & 0xffffffffL);
+			}
+		}
+
+		/**
+		 * @return the index of the first point at or after the hash, wrapping
+		 *         around
+		 */
+		private int index(int hash) {
+			int i = Arrays.binarySearch(this.points, hash);
+			if (i < 0)
+				i = -i - 1;
+			return i < this.points.length ? i : 0;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a full listing
+ * of individual contributors.
+ * 
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU General Public License, v. 2.0.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License,
+ * v. 2.0 along with this distribution; if not, write to the Free 
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301, USA.
+ */
+package org.mobicents.protocols.api;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * <p>
+ * Splits the byte stream of a TCP {@link Association} into the PDUs of the
+ * protocol carried, so {@link AssociationListener#onPayload} gets one
+ * {@link PayloadData} per PDU instead of whatever a socket read returned. Set
+ * per Association with {@link Association#setTcpFrameDecoder} or for all the
+ * Associations of a {@link Server} with {@link Server#setTcpFrameDecoder}.
+ * Without a decoder TCP data is passed up as read.
+ * </p>
+ * <p>
+ * The PDUs are zero-copy slices of the received buffers. A decoder is called
+ * by one thread per Association at a time, but may be shared by several
+ * Associations, so it should not keep state.
+ * </p>
+ * 
+ * @see LengthFieldTcpFrameDecoder
+ */
+public interface TcpFrameDecoder {
+
+	/**
+	 * Tells the length of the PDU starting at the reader index of buffer. Must
+	 * not change the buffer indexes.
+	 * 
+	 * @param buffer
+	 *            received bytes not passed up yet
+	 * @return length of the PDU, header included, or -1 if not enough bytes
+	 *         have been received to tell. The PDU may be longer than the bytes
+	 *         received so far
+	 * @throws Exception
+	 *             if the bytes can not be the start of a PDU. The connection
+	 *             is closed then, as the stream can not be resynchronized
+	 */
+	public int frameLength(ByteBuf buffer) throws Exception;
+
+}
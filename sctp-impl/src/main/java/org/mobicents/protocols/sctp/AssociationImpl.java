@@ -26,6 +26,8 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -35,21 +37,34 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.AbstractSelectableChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
-import javolution.util.FastList;
 import javolution.xml.XMLFormat;
 import javolution.xml.stream.XMLStreamException;
 
 import org.apache.log4j.Logger;
 import org.mobicents.protocols.api.Association;
 import org.mobicents.protocols.api.AssociationListener;
+import org.mobicents.protocols.api.AssociationMetrics;
 import org.mobicents.protocols.api.AssociationType;
+import org.mobicents.protocols.api.AssociationWritabilityListener;
+import org.mobicents.protocols.api.CongestionListener;
 import org.mobicents.protocols.api.IpChannelType;
 import org.mobicents.protocols.api.ManagementEventListener;
 import org.mobicents.protocols.api.PayloadData;
+import org.mobicents.protocols.api.Server;
+import org.mobicents.protocols.api.StreamScheduler;
+import org.mobicents.protocols.api.TcpFrameDecoder;
 
 import com.sun.nio.sctp.MessageInfo;
 import com.sun.nio.sctp.SctpChannel;
@@ -75,6 +90,9 @@ public class AssociationImpl implements Association {
 	private static final String EXTRA_HOST_ADDRESS = "extraHostAddress";
 	private static final String EXTRA_HOST_ADDRESS_SIZE = "extraHostAddresseSize";
 
+	// Max number of TCP messages written with one gathering write
+	private static final int MAX_GATHER_WRITE = 64;
+
 	private String hostAddress;
 	private int hostPort;
 	private String peerAddress;
@@ -89,6 +107,15 @@ public class AssociationImpl implements Association {
 
 	private AssociationListener associationListener = null;
 
+	// not persisted, set by the application at runtime
+	private volatile TcpFrameDecoder tcpFrameDecoder;
+	// cuts TCP data into PDUs, created at the first read of a connection.
+	// null if no TcpFrameDecoder applies
+	private volatile TcpFrameAccumulator frameAccumulator;
+	private volatile boolean frameAccumulatorResolved = false;
+	// PDUs of one read, used by the SelectorThread only
+	private final List<ByteBuf> frames = new ArrayList<ByteBuf>();
+
 	protected final AssociationHandler associationHandler = new AssociationHandler();
 
 	/**
@@ -108,16 +135,71 @@ public class AssociationImpl implements Association {
 
 	private ConcurrentLinkedQueue<PayloadData> txQueue = new ConcurrentLinkedQueue<PayloadData>();
 
+	// true while OP_WRITE is requested (or set) for the socket, so senders
+	// don't queue another CHANGEOPS
+	private final AtomicBoolean writeInterest = new AtomicBoolean(false);
+
+	// Guards writing to the socket, so SelectorThread and a direct send from
+	// the caller thread (Management DirectSend) never write at the same time
+	private final ReentrantLock sendLock = new ReentrantLock();
+
+	// Messages not (fully) written yet which must go out before anything in
+	// txQueue. Guarded by sendLock
+	private final ArrayDeque<PayloadData> txBacklog = new ArrayDeque<PayloadData>();
+
+	// Bytes and messages sent but not written to the socket yet (txQueue +
+	// txBacklog)
+	private final AtomicLong txBytes = new AtomicLong();
+	private final AtomicInteger txMessages = new AtomicInteger();
+	// Part of txMessages per outbound stream, SCTP only. Created when the
+	// Association comes up
+	private volatile AtomicIntegerArray txStreamMessages;
+
+	// not persisted, set by the application at runtime
+	private volatile StreamScheduler streamScheduler;
+
+	private final AssociationMetrics metrics = new AssociationMetrics();
+
+	// Outgoing congestion level 0-3, derived from txBytes / txMessages.
+	// Changed by the SelectorThread only
+	private final AtomicInteger congLevel = new AtomicInteger();
+
+	// true while a CONGESTION ChangeRequest waits for the SelectorThread
+	private final AtomicBoolean congCheckPending = new AtomicBoolean(false);
+
+	// Index of the SelectorThread running read(), the PayloadDispatcher
+	// producer of the payloads it reads
+	private int rxSelectorIndex;
+
+	// Messages of an invalid stream id taken out of txQueue, passed to
+	// AssociationListener.inValidStreamId() once sendLock is released. Used
+	// by the SelectorThread only
+	private final ArrayList<PayloadData> txInvalid = new ArrayList<PayloadData>();
+
+	// Used for TCP gathering writes. Guarded by sendLock
+	private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER_WRITE];
+
 	private ManagementImpl management;
 
+	// SelectorThread serving this Association, assigned by Management
+	private final AtomicReference<SelectorThread> selectorThread = new AtomicReference<SelectorThread>();
+
+	// Connect attempts made since the Association was last up, drives the
+	// reconnect backoff
+	private final AtomicInteger connectAttempts = new AtomicInteger();
+
+	// Pending reconnect or connect timeout on the Management timer
+	private final AtomicReference<Timeout> connectTimer = new AtomicReference<Timeout>();
+
 	private SctpChannel socketChannelSctp;
 	private SocketChannel socketChannelTcp;
 
 	// The buffer into which we'll read data when it's available
 	private ByteBuffer rxBuffer;
-	
-	private volatile MessageInfo msgInfo;
 
+	// Rebuilds SCTP messages read in parts
+	private final PayloadReassembler reassembler = new PayloadReassembler(this);
+	
 	/**
 	 * Count of number of IO Errors occured. If this exceeds the maxIOErrors set
 	 * in Management, socket will be closed and request to reopen the cosket
@@ -217,6 +299,8 @@ public class AssociationImpl implements Association {
 		}
 
 		if (this.type == AssociationType.CLIENT) {
+			// a (re)started Association begins without backoff
+			this.connectAttempts.set(0);
 			this.scheduleConnect();
 		}
 
@@ -243,6 +327,7 @@ public class AssociationImpl implements Association {
 	 */
 	protected void stop() throws Exception {
 		this.started = false;
+		this.cancelConnectTimer();
 		for (ManagementEventListener lstr : this.management.getManagementEventListeners()) {
 			try {
 				lstr.onAssociationStopped(this);
@@ -252,15 +337,12 @@ public class AssociationImpl implements Association {
 		}
 
 		if (this.getSocketChannel() != null && this.getSocketChannel().isOpen()) {
-			FastList<ChangeRequest> pendingChanges = this.management.getPendingChanges();
-			synchronized (pendingChanges) {
-				// Indicate we want the interest ops set changed
-				pendingChanges.add(new ChangeRequest(getSocketChannel(), this, ChangeRequest.CLOSE, -1));
-			}
+			SelectorThread selectorThread = this.getSelectorThread();
+			selectorThread.addChangeRequest(new ChangeRequest(getSocketChannel(), this, ChangeRequest.CLOSE, -1));
 
 			// Finally, wake up our selecting thread so it can make the required
 			// changes
-			this.management.getSocketSelector().wakeup();
+			selectorThread.wakeup();
 		}
 	}
 
@@ -311,6 +393,67 @@ public class AssociationImpl implements Association {
 		this.associationListener = associationListener;
 	}
 
+	public TcpFrameDecoder getTcpFrameDecoder() {
+		return this.tcpFrameDecoder;
+	}
+
+	public void setTcpFrameDecoder(TcpFrameDecoder tcpFrameDecoder) {
+		this.tcpFrameDecoder = tcpFrameDecoder;
+	}
+
+	/**
+	 * @return the TcpFrameDecoder of this Association, else the one of its
+	 *         Server
+	 */
+	private TcpFrameDecoder resolveTcpFrameDecoder() {
+		TcpFrameDecoder decoder = this.tcpFrameDecoder;
+		if (decoder != null || this.type == AssociationType.CLIENT)
+			return decoder;
+		if (this.server != null)
+			return this.server.getTcpFrameDecoder();
+		for (Server srv : this.management.servers) {
+			if (srv.getName().equals(this.serverName))
+				return srv.getTcpFrameDecoder();
+		}
+		return null;
+	}
+
+	public AssociationMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	public StreamScheduler getStreamScheduler() {
+		return this.streamScheduler;
+	}
+
+	public void setStreamScheduler(StreamScheduler streamScheduler) {
+		this.streamScheduler = streamScheduler;
+	}
+
+	public int selectOutboundStream(long key) {
+		if (this.ipChannelType != IpChannelType.SCTP)
+			return 0;
+		StreamScheduler scheduler = this.streamScheduler;
+		if (scheduler == null)
+			scheduler = StreamScheduler.DEFAULT;
+		return scheduler.selectStream(key, this.associationHandler.getMaxOutboundStreams(), this);
+	}
+
+	public int getOutboundStreamBacklog(int streamNumber) {
+		if (this.ipChannelType != IpChannelType.SCTP)
+			return streamNumber == 0 ? this.txMessages.get() : 0;
+		AtomicIntegerArray streamMessages = this.txStreamMessages;
+		if (streamMessages == null || streamNumber < 0 || streamNumber >= streamMessages.length())
+			return 0;
+		return streamMessages.get(streamNumber);
+	}
+
+	private void addTxStreamMessages(int streamNumber, int delta) {
+		AtomicIntegerArray streamMessages = this.txStreamMessages;
+		if (streamMessages != null && streamNumber >= 0 && streamNumber < streamMessages.length())
+			streamMessages.addAndGet(streamNumber, delta);
+	}
+
 	/**
 	 * @return the assocName
 	 */
@@ -350,7 +493,18 @@ public class AssociationImpl implements Association {
 			}
 		}
 
+		if (this.ipChannelType == IpChannelType.SCTP) {
+			this.txStreamMessages = new AtomicIntegerArray(this.associationHandler.getMaxOutboundStreams());
+		}
+		this.metrics.setStreams(this.associationHandler.getMaxInboundStreams(),
+				this.associationHandler.getMaxOutboundStreams());
+		// nothing is waiting to be sent, keys can take any stream again
+		StreamScheduler scheduler = this.streamScheduler;
+		if (scheduler != null)
+			scheduler.clear();
+
 		this.up = true;
+		this.connectAttempts.set(0);
 		for (ManagementEventListener lstr : this.management.getManagementEventListeners()) {
 			try {
 				lstr.onAssociationUp(this);
@@ -477,31 +631,127 @@ public class AssociationImpl implements Association {
 	 *            the socketChannel to set
 	 */
 	protected void setSocketChannel(AbstractSelectableChannel socketChannel) {
+		// a peer may connect again before its previous connection is seen
+		// closed. Closing that channel cancels its key, and read() / write()
+		// skip a key already selected for it
+		AbstractSelectableChannel oldSocketChannel = this.getSocketChannel();
+		if (oldSocketChannel != null && oldSocketChannel != socketChannel && oldSocketChannel.isOpen()) {
+			logger.warn(String.format("New connection replaces the open one of Association=%s", this.name));
+			try {
+				oldSocketChannel.close();
+			} catch (IOException e) {
+				logger.error(String.format("Exception while closing the replaced channel of Association=%s", this.name), e);
+			}
+		}
+
 		if (this.ipChannelType == IpChannelType.SCTP)
 			this.socketChannelSctp = (SctpChannel) socketChannel;
 		else
 			this.socketChannelTcp = (SocketChannel) socketChannel;
 	}
 
+	/**
+	 * Queues the message for sending (or writes it straight away when
+	 * Management DirectSend is on). If the outbound backlog of this
+	 * Association has reached Management TxHighWaterMark or
+	 * TxQueueMaxMessages an Exception is thrown and the message is not taken,
+	 * the caller still owns its buffer. Congestion levels 1-3 are reached
+	 * before that, see {@link #getCongestionLevel()}.
+	 */
 	public void send(PayloadData payloadData) throws Exception {
 		this.checkSocketIsOpen();
 
-		FastList<ChangeRequest> pendingChanges = this.management.getPendingChanges();
-		synchronized (pendingChanges) {
+		// Take the room first and give it back if over the limit, so
+		// concurrent senders can not all pass the check
+		int len = payloadData.getDataLength();
+		long bytes = this.txBytes.addAndGet(len) - len;
+		int messages = this.txMessages.incrementAndGet() - 1;
+		int highWaterMark = this.management.getTxHighWaterMark();
+		int maxMessages = this.management.getTxQueueMaxMessages();
+		if ((highWaterMark > 0 && bytes >= highWaterMark) || (maxMessages > 0 && messages >= maxMessages)) {
+			this.txBytes.addAndGet(-len);
+			this.txMessages.decrementAndGet();
+			this.metrics.onTxDropped();
+			if (highWaterMark > 0 && bytes >= highWaterMark)
+				throw new Exception(String.format(
+						"Outbound backlog of %d bytes for Association=%s reached TxHighWaterMark=%d", bytes,
+						this.name, highWaterMark));
+			throw new Exception(String.format(
+					"Outbound backlog of %d messages for Association=%s reached TxQueueMaxMessages=%d", messages,
+					this.name, maxMessages));
+		}
+		this.addTxStreamMessages(payloadData.getStreamNumber(), 1);
+		payloadData.setTimestamp(System.nanoTime());
+		this.checkCongestionLevel();
 
-			// Indicate we want the interest ops set changed
-			pendingChanges.add(new ChangeRequest(this.getSocketChannel(), this, ChangeRequest.CHANGEOPS,
-					SelectionKey.OP_WRITE));
+		PcapngCapture capture = this.management.getCapture();
+		if (capture != null) {
+			capture.capture(this, true, payloadData);
+		}
+
+		if (this.management.isDirectSend() && this.isValidOutboundStream(payloadData.getStreamNumber())
+				&& this.txQueue.isEmpty() && !this.sendLock.isHeldByCurrentThread() && this.sendLock.tryLock()) {
+			// Nothing queued and nobody writing. Try to write straight away
+			// from this thread. A message of an invalid stream id is left to
+			// the SelectorThread, which calls the listener
+			boolean sent = false;
+			try {
+				if (this.txBacklog.isEmpty() && this.txQueue.isEmpty()) {
+					if (logger.isDebugEnabled()) {
+						logger.debug(String.format("Tx : Ass=%s %s", this.name, payloadData));
+					}
 
-			// And queue the data we want written
-			// TODO Do we need to synchronize ConcurrentLinkedQueue ?
-			// synchronized (this.txQueue) {
-			this.txQueue.add(payloadData);
+					boolean done;
+					try {
+						done = this.doSend(payloadData);
+					} catch (IOException e) {
+						// let SelectorThread hit and handle the IO error
+						done = false;
+					}
+					if (!done) {
+						// partial write or socket buffer full. SelectorThread
+						// writes the rest once the socket is writable
+						this.txBacklog.add(payloadData);
+						this.requestWrite();
+					}
+					sent = true;
+				}
+			} finally {
+				this.sendLock.unlock();
+			}
+			if (sent) {
+				// the backlog may have shrunk below a threshold
+				this.checkCongestionLevel();
+				return;
+			}
 		}
 
-		// Finally, wake up our selecting thread so it can make the required
-		// changes
-		this.management.getSocketSelector().wakeup();
+		// Queue the data we want written
+		this.txQueue.add(payloadData);
+
+		this.requestWrite();
+	}
+
+	private void requestWrite() {
+		// Indicate we want the interest ops set changed, unless a previous
+		// send already did and the selector has not drained txQueue yet
+		if (this.writeInterest.compareAndSet(false, true)) {
+			SelectorThread selectorThread = this.getSelectorThread();
+			selectorThread.addChangeRequest(new ChangeRequest(this.getSocketChannel(), this, ChangeRequest.CHANGEOPS,
+					SelectionKey.OP_READ | SelectionKey.OP_WRITE));
+
+			// Finally, wake up our selecting thread so it can make the required
+			// changes
+			selectorThread.wakeup();
+		}
+	}
+
+	/**
+	 * @return false if an SCTP message can not go out on the passed stream
+	 */
+	private boolean isValidOutboundStream(int streamNumber) {
+		return this.ipChannelType != IpChannelType.SCTP
+				|| (streamNumber >= 0 && streamNumber < this.associationHandler.getMaxOutboundStreams());
 	}
 
 	private void checkSocketIsOpen() throws Exception {
@@ -518,50 +768,65 @@ public class AssociationImpl implements Association {
 		}
 	}
 
-	protected void read() {
+	/**
+	 * Drains the socket for one readable event. Messages are read and passed
+	 * to the listener until the socket has nothing more to read or the read
+	 * budget (Management ReadBudgetMessages / ReadBudgetBytes) of this event
+	 * is used up. Whatever is left is read on the next select round.
+	 */
+	protected void read(SelectionKey key, int selectorIndex) {
+		if (key.channel() != this.getSocketChannel()) {
+			// key of a channel replaced by a new connection
+			key.cancel();
+			return;
+		}
+		this.rxSelectorIndex = selectorIndex;
 
-		try {
-			PayloadData payload;
-			if (this.ipChannelType == IpChannelType.SCTP)
-				payload = this.doReadSctp();
-			else
-				payload = this.doReadTcp();
-			if (payload == null)
-				return;
+		int budgetMessages = this.management.getReadBudgetMessages();
+		int budgetBytes = this.management.getReadBudgetBytes();
+		int messages = 0;
+		int bytes = 0;
 
-			if (logger.isDebugEnabled()) {
-				logger.debug(String.format("Rx : Ass=%s %s", this.name, payload));
-			}
-
-			if (this.management.isSingleThread()) {
-				// If single thread model the listener should be called in the
-				// selector thread itself
-				try {
-					this.associationListener.onPayload(this, payload);
-				} catch (Exception e) {
-					logger.error(String.format("Error while calling Listener for Association=%s.Payload=%s", this.name,
-							payload), e);
+		try {
+			while (true) {
+				PayloadData payload;
+				if (this.ipChannelType == IpChannelType.SCTP)
+					payload = this.doReadSctp();
+				else
+					payload = this.doReadTcp();
+				if (payload == null)
+					return;
+
+				int len = payload.getDataLength();
+				if (this.ipChannelType == IpChannelType.SCTP) {
+					// null until the last part of a message is read
+					PayloadData message = this.reassembler.add(this.management, payload);
+					if (message != null)
+						this.deliver(message);
+				} else {
+					this.deliverTcp(payload);
 				}
-			} else {
-				Worker worker = new Worker(this, this.associationListener, payload);
 
-//				System.out.println("payload.getStreamNumber()=" + payload.getStreamNumber()
-//						+ " this.workerThreadTable[payload.getStreamNumber()]"
-//						+ this.workerThreadTable[payload.getStreamNumber()]);
+				messages++;
+				bytes += len;
+				if (messages >= budgetMessages || bytes >= budgetBytes)
+					return;
 
-				ExecutorService executorService = this.management.getExecutorService(this.workerThreadTable[payload
-						.getStreamNumber()]);
-				try {
-					executorService.execute(worker);
-				} catch (RejectedExecutionException e) {
-					logger.error(String.format("Rejected %s as Executors is shutdown", payload), e);
-				} catch (NullPointerException e) {
-					logger.error(String.format("NullPointerException while submitting %s", payload), e);
-				} catch (Exception e) {
-					logger.error(String.format("Exception while submitting %s", payload), e);
-				}
+				// short TCP read means the socket receive buffer is drained
+				if (this.ipChannelType == IpChannelType.TCP && len < this.management.getBufferSize())
+					return;
+
+				// the listener may have stopped this Association
+				AbstractSelectableChannel socketChannel = this.getSocketChannel();
+				if (socketChannel == null || !socketChannel.isOpen())
+					return;
 			}
 		} catch (IOException e) {
+			if (key.channel() != this.getSocketChannel()) {
+				// closed as replaced by a new connection
+				return;
+			}
+
 			this.ioErrors++;
 			logger.error(String.format(
 					"IOException while trying to read from underlying socket for Association=%s IOError count=%d",
@@ -577,8 +842,91 @@ public class AssociationImpl implements Association {
 		}
 	}
 
+	/**
+	 * Delivers TCP data as read, or the PDUs cut out of it when a
+	 * TcpFrameDecoder applies. A decoder error closes the connection
+	 */
+	private void deliverTcp(PayloadData payload) {
+		if (!this.frameAccumulatorResolved) {
+			TcpFrameDecoder decoder = this.resolveTcpFrameDecoder();
+			this.frameAccumulator = decoder != null ? new TcpFrameAccumulator(decoder) : null;
+			this.frameAccumulatorResolved = true;
+		}
+		TcpFrameAccumulator accumulator = this.frameAccumulator;
+		if (accumulator == null) {
+			this.deliver(payload);
+			return;
+		}
+
+		ByteBuf byteBuf = payload.getByteBuf();
+		payload.recycle();
+		Exception error = null;
+		try {
+			accumulator.add(byteBuf, this.frames);
+		} catch (Exception e) {
+			error = e;
+		}
+
+		// all the PDUs of the read are passed up in one go
+		for (int i = 0; i < this.frames.size(); i++) {
+			ByteBuf frame = this.frames.get(i);
+			this.deliver(PayloadData.newInstance(frame.readableBytes(), frame, true, false, 0, 0));
+		}
+		this.frames.clear();
+
+		if (error != null) {
+			logger.error(String.format("Error while decoding TCP data for Association=%s, closing the connection",
+					this.name), error);
+			this.close();
+			this.scheduleConnect();
+		}
+	}
+
+	private void deliver(PayloadData payload) {
+		this.metrics.onReceived(payload);
+
+		if (logger.isDebugEnabled()) {
+			logger.debug(String.format("Rx : Ass=%s %s", this.name, payload));
+		}
+
+		PcapngCapture capture = this.management.getCapture();
+		if (capture != null) {
+			capture.capture(this, false, payload);
+		}
+
+		if (this.management.isSingleThread()) {
+			// If single thread model the listener should be called in the
+			// selector thread itself
+			try {
+				this.metrics.onDispatched(payload);
+				this.associationListener.onPayload(this, payload);
+			} catch (Exception e) {
+				logger.error(String.format("Error while calling Listener for Association=%s.Payload=%s", this.name,
+						payload), e);
+			}
+		} else {
+			// Payloads of the same stream always go to the same worker, in the
+			// order this SelectorThread read them
+			try {
+				this.management.getPayloadDispatcher().dispatch(this.rxSelectorIndex,
+						this.workerThreadTable[payload.getStreamNumber()], this, payload);
+			} catch (NullPointerException e) {
+				this.metrics.onRxDropped();
+				logger.error(String.format("NullPointerException while submitting %s", payload), e);
+				payload.release();
+			} catch (Exception e) {
+				this.metrics.onRxDropped();
+				logger.error(String.format("Exception while submitting %s", payload), e);
+				payload.release();
+			}
+		}
+	}
+
 	private PayloadData doReadSctp() throws IOException {
 
+		if (this.management.isZeroCopyReceive())
+			return this.doReadSctpZeroCopy();
+
 		rxBuffer.clear();
 		MessageInfo messageInfo = this.socketChannelSctp.receive(rxBuffer, this, this.associationHandler);
 
@@ -602,14 +950,74 @@ public class AssociationImpl implements Association {
 		ByteBuf byteBuf = Unpooled.copiedBuffer(rxBuffer);
 		rxBuffer.clear();
 
-		PayloadData payload = new PayloadData(len, byteBuf, messageInfo.isComplete(), messageInfo.isUnordered(),
+		PayloadData payload = PayloadData.newInstance(len, byteBuf, messageInfo.isComplete(), messageInfo.isUnordered(),
 				messageInfo.payloadProtocolID(), messageInfo.streamNumber());
 
 		return payload;
 	}
 
+	private PayloadData doReadSctpZeroCopy() throws IOException {
+
+		ByteBuf byteBuf = this.management.getByteBufAllocator().directBuffer(this.management.getBufferSize());
+		boolean handedOver = false;
+		try {
+			ByteBuffer nioBuffer = byteBuf.internalNioBuffer(byteBuf.writerIndex(), byteBuf.writableBytes());
+			MessageInfo messageInfo = this.socketChannelSctp.receive(nioBuffer, this, this.associationHandler);
+
+			if (messageInfo == null) {
+				if (logger.isDebugEnabled()) {
+					logger.debug(String.format(" messageInfo is null for Association=%s", this.name));
+				}
+				return null;
+			}
+
+			int len = messageInfo.bytes();
+			if (len == -1) {
+				logger.error(String.format("Rx -1 while trying to read from underlying socket for Association=%s ",
+						this.name));
+				this.close();
+				this.scheduleConnect();
+				return null;
+			}
+
+			byteBuf.writerIndex(byteBuf.writerIndex() + len);
+			byteBuf = this.rightSize(byteBuf);
+			PayloadData payload = PayloadData.newInstance(len, byteBuf, messageInfo.isComplete(),
+					messageInfo.isUnordered(), messageInfo.payloadProtocolID(), messageInfo.streamNumber());
+			handedOver = true;
+			return payload;
+		} finally {
+			if (!handedOver)
+				byteBuf.release();
+		}
+	}
+
+	/**
+	 * A zero copy read holds a pooled buffer of BufferSize bytes for as long
+	 * as the listener keeps the message. A message filling less than half of
+	 * it is copied into a pooled buffer of its own size and the big one goes
+	 * back to the pool, so small messages do not pin BufferSize each.
+	 * 
+	 * @return byteBuf or, if the message was copied, the new buffer. byteBuf
+	 *         is released then
+	 */
+	private ByteBuf rightSize(ByteBuf byteBuf) {
+		int len = byteBuf.readableBytes();
+		if (len >= byteBuf.capacity() / 2)
+			return byteBuf;
+
+		// the caller still releases byteBuf if the allocation fails
+		ByteBuf copy = this.management.getByteBufAllocator().directBuffer(len);
+		copy.writeBytes(byteBuf);
+		byteBuf.release();
+		return copy;
+	}
+
 	private PayloadData doReadTcp() throws IOException {
 
+		if (this.management.isZeroCopyReceive())
+			return this.doReadTcpZeroCopy();
+
 		rxBuffer.clear();
 		int len = this.socketChannelTcp.read(rxBuffer);
 		if (len == -1) {
@@ -619,94 +1027,350 @@ public class AssociationImpl implements Association {
 			this.scheduleConnect();
 			return null;
 		}
+		if (len == 0) {
+			// nothing more to read
+			return null;
+		}
 
 		rxBuffer.flip();
 		ByteBuf byteBuf = Unpooled.copiedBuffer(rxBuffer);
 		rxBuffer.clear();
 
-		PayloadData payload = new PayloadData(len, byteBuf, true, false, 0, 0);
+		PayloadData payload = PayloadData.newInstance(len, byteBuf, true, false, 0, 0);
 
 		return payload;
 	}
 
-	protected void write(SelectionKey key) {
-
-		try {			
-			// TODO Do we need to synchronize ConcurrentLinkedQueue?
-			// synchronized (this.txQueue) {
-			if (!txQueue.isEmpty()) {
-				while (!txQueue.isEmpty()) {
-					// Lets read all the messages in txQueue and send
-
-					PayloadData payloadData = txQueue.poll();
+	private PayloadData doReadTcpZeroCopy() throws IOException {
 
-					if (logger.isDebugEnabled()) {
-						logger.debug(String.format("Tx : Ass=%s %s", this.name, payloadData));
-					}
+		ByteBuf byteBuf = this.management.getByteBufAllocator().directBuffer(this.management.getBufferSize());
+		boolean handedOver = false;
+		try {
+			int len = byteBuf.writeBytes(this.socketChannelTcp, byteBuf.writableBytes());
+			if (len == -1) {
+				logger.warn(String.format("Rx -1 while trying to read from underlying socket for Association=%s ",
+						this.name));
+				this.close();
+				this.scheduleConnect();
+				return null;
+			}
+			if (len == 0) {
+				// nothing more to read
+				return null;
+			}
 
-					if (this.ipChannelType == IpChannelType.SCTP) {
-						int seqControl = payloadData.getStreamNumber();
-
-						if (seqControl < 0 || seqControl >= this.associationHandler.getMaxOutboundStreams()) {
-							try {
-								// TODO : calling in same Thread. Is this ok? or
-								// dangerous?
-								this.associationListener.inValidStreamId(payloadData);
-							} catch (Exception e) {
-
-							}
-							
-							continue;
-						}
-
-						msgInfo = MessageInfo.createOutgoing(this.peerSocketAddress, seqControl);
-						msgInfo.payloadProtocolID(payloadData.getPayloadProtocolId());
-						msgInfo.complete(payloadData.isComplete());
-						msgInfo.unordered(payloadData.isUnordered());
-					}
+			byteBuf = this.rightSize(byteBuf);
+			PayloadData payload = PayloadData.newInstance(len, byteBuf, true, false, 0, 0);
+			handedOver = true;
+			return payload;
+		} finally {
+			if (!handedOver)
+				byteBuf.release();
+		}
+	}
 
-					try
-					{
-						this.doSend(payloadData.getByteBuf());
-					}
-					finally {
-						payloadData.releaseBuffer();
-					}					
+	protected void write(SelectionKey key) {
+		if (key.channel() != this.getSocketChannel()) {
+			// key of a channel replaced by a new connection
+			key.cancel();
+			return;
+		}
 
-				}// end of while
-			}
+		// listeners are never called with sendLock held, the connection is
+		// closed once it is released
+		boolean ioFailed = false;
+		this.sendLock.lock();
+		try {
+			boolean drained;
+			if (this.ipChannelType == IpChannelType.SCTP)
+				drained = this.doWriteSctp();
+			else
+				drained = this.doWriteTcp();
 
-			if (txQueue.isEmpty()) {
+			// if the socket buffer is full OP_WRITE is kept
+			if (drained && txQueue.isEmpty()) {
 				// We wrote away all data, so we're no longer interested
 				// in writing on this socket. Switch back to waiting for
 				// data.
 				key.interestOps(SelectionKey.OP_READ);
+				this.writeInterest.set(false);
+
+				// A sender may have queued data after the drain but seen
+				// writeInterest still set. Re-arm OP_WRITE for it here.
+				if (!txQueue.isEmpty() && this.writeInterest.compareAndSet(false, true)) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
 			}
 
 		} catch (IOException e) {
-			this.ioErrors++;
-			logger.error(String.format(
-					"IOException while trying to write to underlying socket for Association=%s IOError count=%d",
-					this.name, this.ioErrors), e);
+			if (key.channel() == this.getSocketChannel()) {
+				// else closed as replaced by a new connection
+				this.ioErrors++;
+				logger.error(String.format(
+						"IOException while trying to write to underlying socket for Association=%s IOError count=%d",
+						this.name, this.ioErrors), e);
+
+				ioFailed = this.ioErrors > this.management.getMaxIOErrors();
+			}
+		} finally {
+			this.sendLock.unlock();
+		}// try-catch-finally
 
-			if (this.ioErrors > this.management.getMaxIOErrors()) {
-				// Close this socket
-				this.close();
+		this.fireInvalidStreamIds();
 
-				// retry to connect after delay
-				this.scheduleConnect();
+		if (ioFailed) {
+			// Close this socket
+			this.close();
+
+			// retry to connect after delay
+			this.scheduleConnect();
+		}
+
+		this.updateCongestionLevel();
+	}
+
+	/**
+	 * Passes the messages of an invalid stream id taken out of txQueue to
+	 * the listener and releases them. Called by the SelectorThread without
+	 * sendLock held.
+	 */
+	private void fireInvalidStreamIds() {
+		for (int i = 0; i < this.txInvalid.size(); i++) {
+			PayloadData payloadData = this.txInvalid.get(i);
+			int len = payloadData.getDataLength();
+			int streamNumber = payloadData.getStreamNumber();
+			this.metrics.onInvalidStreamId();
+			try {
+				this.associationListener.inValidStreamId(payloadData);
+			} catch (Exception e) {
+				logger.error(String.format("Exception while calling inValidStreamId for Association=%s", this.name), e);
 			}
-		}// try-catch
+
+			// dropped, see AssociationListener.inValidStreamId()
+			this.txBytes.addAndGet(-len);
+			this.txMessages.decrementAndGet();
+			this.addTxStreamMessages(streamNumber, -1);
+			payloadData.release();
+		}
+		this.txInvalid.clear();
 	}
 
-	private int doSend(ByteBuf buffer) throws IOException {
-		if (this.ipChannelType == IpChannelType.SCTP)
-			return this.doSendSctp(buffer);
+	/**
+	 * Writes txBacklog and then txQueue one message per send, as SCTP
+	 * preserves message boundaries. Messages of an invalid stream id are
+	 * moved to txInvalid. Caller must hold sendLock.
+	 * 
+	 * @return false if the socket could not take everything
+	 * @throws IOException
+	 */
+	private boolean doWriteSctp() throws IOException {
+		while (true) {
+			// Messages left in txBacklog go first
+			PayloadData payloadData = this.txBacklog.poll();
+			if (payloadData == null) {
+				payloadData = this.txQueue.poll();
+				if (payloadData == null)
+					return true;
+
+				if (logger.isDebugEnabled()) {
+					logger.debug(String.format("Tx : Ass=%s %s", this.name, payloadData));
+				}
+			}
+
+			if (!this.isValidOutboundStream(payloadData.getStreamNumber())) {
+				this.txInvalid.add(payloadData);
+				continue;
+			}
+
+			if (!this.doSend(payloadData)) {
+				// socket send buffer is full. Keep the message at the head
+				// and retry when the socket is writable again
+				this.txBacklog.addFirst(payloadData);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Moves up to MAX_GATHER_WRITE messages from txQueue behind txBacklog and
+	 * writes all of txBacklog with one gathering write. Fully written messages
+	 * are released, a partially written one stays at the head of txBacklog
+	 * with its ByteBuf reader index past the written part. Caller must hold
+	 * sendLock.
+	 * 
+	 * @return false if the socket could not take everything
+	 * @throws IOException
+	 */
+	private boolean doWriteTcp() throws IOException {
+		while (true) {
+			PayloadData payloadData;
+			while (this.txBacklog.size() < MAX_GATHER_WRITE && (payloadData = this.txQueue.poll()) != null) {
+				if (logger.isDebugEnabled()) {
+					logger.debug(String.format("Tx : Ass=%s %s", this.name, payloadData));
+				}
+				this.txBacklog.add(payloadData);
+			}
+
+			if (this.txBacklog.isEmpty())
+				return true;
+
+			int count = 0;
+			for (PayloadData pd : this.txBacklog) {
+				this.gatherBuffers[count++] = pd.getByteBuf().nioBuffer();
+			}
+			long written;
+			try {
+				written = this.socketChannelTcp.write(this.gatherBuffers, 0, count);
+			} finally {
+				Arrays.fill(this.gatherBuffers, 0, count, null);
+			}
+
+			while (!this.txBacklog.isEmpty()) {
+				ByteBuf buffer = this.txBacklog.peek().getByteBuf();
+				int readable = buffer.readableBytes();
+				if (readable > written) {
+					buffer.skipBytes((int) written);
+					return false;
+				}
+				written -= readable;
+				this.releaseTx(this.txBacklog.poll(), true);
+			}
+		}
+	}
+
+	/**
+	 * Writes the passed message to the socket. Caller must hold sendLock and
+	 * have checked the stream id.
+	 * 
+	 * @param payloadData
+	 * @return true if the message is done with (fully written and its buffer
+	 *         released) and false if the socket could not take all of it. In
+	 *         the latter case the unwritten part stays readable in the
+	 *         message ByteBuf.
+	 * @throws IOException
+	 */
+	private boolean doSend(PayloadData payloadData) throws IOException {
+		ByteBuf buffer = payloadData.getByteBuf();
+		if (this.ipChannelType == IpChannelType.SCTP) {
+			if (this.doSendSctp(buffer, payloadData.getStreamNumber(), payloadData) == 0)
+				return false;
+		} else {
+			buffer.skipBytes(this.doSendTcp(buffer));
+			if (buffer.isReadable())
+				return false;
+		}
+		this.releaseTx(payloadData, true);
+		return true;
+	}
+
+	/**
+	 * Releases a message that is written (or dropped) and takes it out of
+	 * the outbound byte count. A pooled PayloadData goes back to its pool
+	 */
+	private void releaseTx(PayloadData payloadData, boolean written) {
+		if (written)
+			this.metrics.onSent(payloadData.getStreamNumber(), payloadData.getDataLength(), payloadData.getTimestamp());
 		else
-			return this.doSendTcp(buffer);
+			this.metrics.onTxDropped();
+		this.txBytes.addAndGet(-payloadData.getDataLength());
+		this.txMessages.decrementAndGet();
+		this.addTxStreamMessages(payloadData.getStreamNumber(), -1);
+		payloadData.release();
+	}
+
+	/**
+	 * @return the congestion level the outbound queue fill calls for when
+	 *         coming from the passed level, as per Management
+	 *         CongControl_QueueThreshold and
+	 *         CongControl_BackToNormalQueueThreshold
+	 */
+	private int congestionLevelFor(int level) {
+		int maxMessages = this.management.getTxQueueMaxMessages();
+		int maxBytes = this.management.getTxHighWaterMark();
+		double fill = 0;
+		if (maxMessages > 0)
+			fill = this.txMessages.get() * 100.0 / maxMessages;
+		if (maxBytes > 0)
+			fill = Math.max(fill, this.txBytes.get() * 100.0 / maxBytes);
+
+		double[] threshold = this.management.congControl_QueueThreshold;
+		double[] backToNormalThreshold = this.management.congControl_BackToNormalQueueThreshold;
+		while (level > 0 && fill < backToNormalThreshold[level - 1]) {
+			level--;
+		}
+		while (level < 3 && fill >= threshold[level]) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Hands the congestion level update over to the SelectorThread if the
+	 * outbound queue fill no longer matches the current level. Safe to call
+	 * from any thread
+	 */
+	private void checkCongestionLevel() {
+		int level = this.congLevel.get();
+		if (this.congestionLevelFor(level) != level && this.congCheckPending.compareAndSet(false, true)) {
+			SelectorThread selectorThread = this.getSelectorThread();
+			selectorThread.addChangeRequest(new ChangeRequest(null, this, ChangeRequest.CONGESTION, -1));
+			selectorThread.wakeup();
+		}
+	}
+
+	/**
+	 * Moves the congestion level up or down as per how full the outbound
+	 * queue is. CongestionListener's are notified only when the level
+	 * actually changes. Called by the SelectorThread only, so listeners see
+	 * the changes one at a time and in the order they happen.
+	 */
+	protected void updateCongestionLevel() {
+		this.congCheckPending.set(false);
+		while (true) {
+			int oldLevel = this.congLevel.get();
+			int newLevel = this.congestionLevelFor(oldLevel);
+			if (newLevel == oldLevel)
+				return;
+
+			this.congLevel.set(newLevel);
+			this.metrics.onCongestionLevelChanged(newLevel);
+			logger.warn(String.format(
+					"Outgoing congestion control: Changing of congestion level for Association=%s %d->%d",
+					this.name, oldLevel, newLevel));
+
+			for (CongestionListener lstr : this.management.getCongestionListeners()) {
+				try {
+					lstr.onCongLevelChanged(this, oldLevel, newLevel);
+				} catch (Throwable ee) {
+					logger.error("Exception while invoking onCongLevelChanged", ee);
+				}
+			}
+
+			AssociationListener listener = this.associationListener;
+			if ((oldLevel == 0 || newLevel == 0) && listener instanceof AssociationWritabilityListener) {
+				try {
+					((AssociationWritabilityListener) listener).onWritabilityChanged(this, newLevel == 0);
+				} catch (Throwable ee) {
+					logger.error("Exception while invoking onWritabilityChanged", ee);
+				}
+			}
+			// senders kept on while the listeners ran, go again until the
+			// level matches the queue
+		}
+	}
+
+	/**
+	 * @return the number of bytes sent but not yet written to the socket
+	 */
+	public long getTxBacklogBytes() {
+		return this.txBytes.get();
 	}
 
-	private int doSendSctp(ByteBuf buffer) throws IOException {
+	private int doSendSctp(ByteBuf buffer, int seqControl, PayloadData payloadData) throws IOException {
+		MessageInfo msgInfo = MessageInfo.createOutgoing(this.peerSocketAddress, seqControl);
+		msgInfo.payloadProtocolID(payloadData.getPayloadProtocolId());
+		msgInfo.complete(payloadData.isComplete());
+		msgInfo.unordered(payloadData.isUnordered());
 		return this.socketChannelSctp.send(buffer.nioBuffer(), msgInfo);
 	}
 
@@ -716,14 +1380,23 @@ public class AssociationImpl implements Association {
 
     @Override
     public ByteBufAllocator getByteBufAllocator() {
-        return null;
+        return this.management.getByteBufAllocator();
     }
 
     @Override
     public int getCongestionLevel() {
-        return 0;
+        return this.congLevel.get();
     }
 
+	/**
+	 * @return number of SCTP messages this Association dropped as they went
+	 *         over Management RxReassemblyMaxBytes or
+	 *         RxReassemblyGlobalMaxBytes while being reassembled
+	 */
+	public long getRxReassemblyDropped() {
+		return this.reassembler.getDropped();
+	}
+
 	protected void close() {
 		if (this.getSocketChannel() != null) {
 			try {
@@ -742,24 +1415,145 @@ public class AssociationImpl implements Association {
 					this.name), e);
 		}
 
+		this.reassembler.clear(this.management);
+		TcpFrameAccumulator accumulator = this.frameAccumulator;
+		if (accumulator != null) {
+			accumulator.clear();
+		}
+		this.frameAccumulator = null;
+		this.frameAccumulatorResolved = false;
+
 		// Finally clear the txQueue
-		if (this.txQueue.size() > 0) {
-			logger.warn(String.format("Clearig txQueue for Association=%s. %d messages still pending will be cleared",
-					this.name, this.txQueue.size()));
+		this.sendLock.lock();
+		try {
+			int pending = this.txQueue.size() + this.txBacklog.size();
+			if (pending > 0) {
+				logger.warn(String.format("Clearig txQueue for Association=%s. %d messages still pending will be cleared",
+						this.name, pending));
+			}
+
+			PayloadData payloadData;
+			while ((payloadData = this.txBacklog.poll()) != null) {
+				this.releaseTx(payloadData, false);
+			}
+			while ((payloadData = this.txQueue.poll()) != null) {
+				this.releaseTx(payloadData, false);
+			}
+		} finally {
+			this.sendLock.unlock();
+		}
+		this.updateCongestionLevel();
+		this.writeInterest.set(false);
+
+		if (this.type == AssociationType.ANONYMOUS_SERVER) {
+			// anonymous Association is not going to be reused
+			this.management.releaseSelectorThread(this);
 		}
-		this.txQueue.clear();
+	}
+
+	/**
+	 * @return the SelectorThread serving this Association, null if none is
+	 *         assigned
+	 */
+	protected SelectorThread getAssignedSelectorThread() {
+		return this.selectorThread.get();
+	}
+
+	/**
+	 * @return the SelectorThread serving this Association. If none is
+	 *         assigned yet, Management assigns one now
+	 */
+	protected SelectorThread getSelectorThread() {
+		SelectorThread selectorThread = this.selectorThread.get();
+		if (selectorThread == null) {
+			selectorThread = this.management.assignSelectorThread(this);
+		}
+		return selectorThread;
+	}
+
+	/**
+	 * @param selectorThread
+	 *            the selectorThread to set
+	 * @return the previously assigned SelectorThread
+	 */
+	protected SelectorThread setSelectorThread(SelectorThread selectorThread) {
+		return this.selectorThread.getAndSet(selectorThread);
+	}
+
+	/**
+	 * Assigns update if the assigned SelectorThread is expect
+	 * 
+	 * @return false if another SelectorThread is assigned
+	 */
+	protected boolean compareAndSetSelectorThread(SelectorThread expect, SelectorThread update) {
+		return this.selectorThread.compareAndSet(expect, update);
+	}
+
+	/**
+	 * Called by SelectorThread when a CHANGEOPS can not be applied because
+	 * the channel is no longer registered, so next send() requests it again
+	 */
+	protected void clearWriteInterest() {
+		this.writeInterest.set(false);
 	}
 
 	protected void scheduleConnect() {
 		if (this.getAssociationType() == AssociationType.CLIENT) {
 			// If Associtaion is of Client type, reinitiate the connection
-			// procedure
-			FastList<ChangeRequest> pendingChanges = this.management.getPendingChanges();
-			synchronized (pendingChanges) {
-				pendingChanges.add(new ChangeRequest(this, ChangeRequest.CONNECT, System.currentTimeMillis()
-						+ this.management.getConnectDelay()));
-			}
+			// procedure once the (backed off) reconnect delay is over
+			long delay = this.management.getReconnectDelay(this.connectAttempts.getAndIncrement());
+			this.setConnectTimer(this.management.newTimeout(new ConnectTask(null, ChangeRequest.CONNECT), delay));
+		}
+	}
+
+	/**
+	 * @return reconnects scheduled since the Association was last up or
+	 *         started, the reconnect delay backs off with them
+	 */
+	protected int getConnectAttempts() {
+		return this.connectAttempts.get();
+	}
+
+	protected void cancelConnectTimer() {
+		this.setConnectTimer(null);
+	}
+
+	private void setConnectTimer(Timeout timeout) {
+		Timeout old = this.connectTimer.getAndSet(timeout);
+		if (old != null) {
+			old.cancel();
+		}
+	}
+
+	/**
+	 * Called by SelectorThread when the connect timeout of the passed channel
+	 * expires. Aborts the connect if it is still pending and schedules a new
+	 * one.
+	 * 
+	 * @param channel
+	 */
+	protected void checkConnectTimeout(AbstractSelectableChannel channel) {
+		// a newer connect attempt or an established connection makes the
+		// timeout stale
+		if (!this.started || channel != this.getSocketChannel() || !channel.isOpen())
+			return;
+
+		boolean pending;
+		if (channel instanceof SctpChannel)
+			pending = ((SctpChannel) channel).isConnectionPending();
+		else
+			pending = ((SocketChannel) channel).isConnectionPending();
+		if (!pending)
+			return;
+
+		logger.warn(String.format("Connect timed out for Association=%s after %d ms", this.name,
+				this.management.getConnectTimeout()));
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.error(String.format("Exception while closing pending connection for Association=%s", this.name), e);
 		}
+		this.scheduleConnect();
 	}
 
 	protected void initiateConnection() throws IOException {
@@ -798,15 +1592,20 @@ public class AssociationImpl implements Association {
 		// selecting thread. As part of the registration we'll register
 		// an interest in connection events. These are raised when a channel
 		// is ready to complete connection establishment.
-		FastList<ChangeRequest> pendingChanges = this.management.getPendingChanges();
-		synchronized (pendingChanges) {
-			pendingChanges.add(new ChangeRequest(this.getSocketChannel(), this, ChangeRequest.REGISTER,
-					SelectionKey.OP_CONNECT));
-		}
+		SelectorThread selectorThread = this.management.assignSelectorThread(this);
+		this.writeInterest.set(false);
+		selectorThread.addChangeRequest(new ChangeRequest(this.getSocketChannel(), this, ChangeRequest.REGISTER,
+				SelectionKey.OP_CONNECT));
 
 		// Finally, wake up our selecting thread so it can make the required
 		// changes
-		this.management.getSocketSelector().wakeup();
+		selectorThread.wakeup();
+
+		int connectTimeout = this.management.getConnectTimeout();
+		if (connectTimeout > 0) {
+			this.setConnectTimer(this.management.newTimeout(new ConnectTask(this.getSocketChannel(),
+					ChangeRequest.CONNECT_TIMEOUT), connectTimeout));
+		}
 
 	}
 
@@ -840,6 +1639,30 @@ public class AssociationImpl implements Association {
 		this.socketChannelTcp.connect(new InetSocketAddress(this.peerAddress, this.peerPort));
 	}
 
+	/**
+	 * Fired by the Management timer. Hands a CONNECT or CONNECT_TIMEOUT over
+	 * to the SelectorThread, which owns the channel
+	 */
+	private class ConnectTask implements TimerTask {
+		private final AbstractSelectableChannel channel;
+		private final int type;
+
+		private ConnectTask(AbstractSelectableChannel channel, int type) {
+			this.channel = channel;
+			this.type = type;
+		}
+
+		@Override
+		public void run(Timeout timeout) throws Exception {
+			if (!started)
+				return;
+
+			SelectorThread selectorThread = getSelectorThread();
+			selectorThread.addChangeRequest(new ChangeRequest(this.channel, AssociationImpl.this, this.type, -1));
+			selectorThread.wakeup();
+		}
+	}
+
 	protected void createworkerThreadTable(int maximumBooundStream) {
 		this.workerThreadTable = new int[maximumBooundStream];
 		this.management.populateWorkerThread(this.workerThreadTable);
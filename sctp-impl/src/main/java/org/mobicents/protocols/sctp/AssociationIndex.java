@@ -0,0 +1,119 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.AssociationType;
+
+/**
+ * Index of the provisioned SERVER Associations by (server name, peer address,
+ * peer port), so an accepted connection finds its Association without
+ * scanning all of them.
+ *
+ * Management updates the index when Associations are added, modified, removed
+ * or loaded (under its own lock). Lookups are lock free and may be done from
+ * any thread.
+ *
+ */
+public class AssociationIndex {
+
+	private final ConcurrentHashMap<Key, Association> index = new ConcurrentHashMap<Key, Association>();
+
+	// Key each Association is indexed under, so it can be removed after its
+	// peer address / port / server have been modified. Guarded by this
+	private final Map<Association, Key> keys = new IdentityHashMap<Association, Key>();
+
+	/**
+	 * @param serverName
+	 * @param peerAddress
+	 *            peer IP address as returned by InetAddress.getHostAddress()
+	 * @param peerPort
+	 * @return the Association provisioned for the peer or null
+	 */
+	public Association get(String serverName, String peerAddress, int peerPort) {
+		return this.index.get(new Key(serverName, peerAddress, peerPort));
+	}
+
+	/**
+	 * Indexes the Association with its current server name, peer address and
+	 * peer port. Associations which are not of SERVER type are ignored.
+	 *
+	 * @param association
+	 */
+	public synchronized void put(Association association) {
+		this.remove(association);
+
+		if (association.getAssociationType() != AssociationType.SERVER || association.getServerName() == null
+				|| association.getPeerAddress() == null)
+			return;
+
+		Key key = new Key(association.getServerName(), association.getPeerAddress(), association.getPeerPort());
+		this.index.put(key, association);
+		this.keys.put(association, key);
+	}
+
+	public synchronized void remove(Association association) {
+		Key key = this.keys.remove(association);
+		if (key != null) {
+			this.index.remove(key, association);
+		}
+	}
+
+	public synchronized void clear() {
+		this.index.clear();
+		this.keys.clear();
+	}
+
+	private static final class Key {
+		private final String serverName;
+		private final String peerAddress;
+		private final int peerPort;
+		private final int hash;
+
+		private Key(String serverName, String peerAddress, int peerPort) {
+			this.serverName = serverName;
+			this.peerAddress = peerAddress;
+			this.peerPort = peerPort;
+			this.hash = (31 * serverName.hashCode() + peerAddress.hashCode()) * 31 + peerPort;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return this.peerPort == other.peerPort && this.peerAddress.equals(other.peerAddress)
+					&& this.serverName.equals(other.serverName);
+		}
+	}
+}
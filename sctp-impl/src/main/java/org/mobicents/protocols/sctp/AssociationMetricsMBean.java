@@ -0,0 +1,106 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+/**
+ * JMX view of the {@link org.mobicents.protocols.api.AssociationMetrics} of an
+ * Association, registered by {@link JmxMetricsExporter}. Delays are in
+ * microseconds, CongestionTime in milliseconds.
+ *
+ */
+public interface AssociationMetricsMBean {
+
+	public String getName();
+
+	public boolean isUp();
+
+	public int getCongestionLevel();
+
+	public long getRxMessages();
+
+	public long getRxBytes();
+
+	public long getTxMessages();
+
+	public long getTxBytes();
+
+	public long getRxDropped();
+
+	public long getTxDropped();
+
+	public long getInvalidStreamIds();
+
+	public long getCongestionTime();
+
+	/**
+	 * @return messages sent and not written to the socket yet
+	 */
+	public long getTxQueueDepth();
+
+	public long[] getRxStreamMessages();
+
+	public long[] getTxStreamMessages();
+
+	public int[] getOutboundStreamBacklog();
+
+	public long getDispatchDelayCount();
+
+	public double getDispatchDelayMean();
+
+	public long getDispatchDelayP50();
+
+	public long getDispatchDelayP99();
+
+	public long getDispatchDelayP999();
+
+	public long getDispatchDelayMax();
+
+	public long getSendDelayCount();
+
+	public double getSendDelayMean();
+
+	public long getSendDelayP50();
+
+	public long getSendDelayP99();
+
+	public long getSendDelayP999();
+
+	public long getSendDelayMax();
+
+	/**
+	 * @return 99th percentile of the dispatch delay per inbound stream, 0 for
+	 *         a stream without messages
+	 */
+	public long[] getStreamDispatchDelayP99();
+
+	/**
+	 * @return 99th percentile of the send delay per outbound stream, 0 for a
+	 *         stream without messages
+	 */
+	public long[] getStreamSendDelayP99();
+
+	/**
+	 * Sets all the counters and histograms back to 0
+	 */
+	public void reset();
+
+}
@@ -32,14 +32,14 @@ public final class ChangeRequest {
 	public static final int CHANGEOPS = 2;
 	public static final int CONNECT = 3;
 	public static final int CLOSE = 4;
+	public static final int CONNECT_TIMEOUT = 5;
+	public static final int CONGESTION = 6;
 
 	private int type;
 	private int ops;
 	private AbstractSelectableChannel socketChannel;
 	private AssociationImpl association;
 
-	private long executionTime;
-
 	protected ChangeRequest(AbstractSelectableChannel socketChannel, AssociationImpl association, int type, int ops) {
 		this.type = type;
 		this.ops = ops;
@@ -47,11 +47,6 @@ public final class ChangeRequest {
 		this.association = association;
 	}
 
-	protected ChangeRequest(AssociationImpl association, int type, long executionTime) {
-		this(null, association, type, -1);
-		this.executionTime = executionTime;
-	}
-
 	/**
 	 * @return the type
 	 */
@@ -79,11 +74,4 @@ public final class ChangeRequest {
 	protected AssociationImpl getAssociation() {
 		return association;
 	}
-
-	/**
-	 * @return the executionTime
-	 */
-	protected long getExecutionTime() {
-		return executionTime;
-	}
 }
@@ -0,0 +1,280 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.AssociationMetrics;
+import org.mobicents.protocols.api.LatencyHistogram;
+import org.mobicents.protocols.api.Management;
+import org.mobicents.protocols.api.MetricsExporter;
+
+/**
+ * {@link MetricsExporter} registering an {@link AssociationMetricsMBean} per
+ * Association, named
+ * org.mobicents.protocols.sctp:type=AssociationMetrics,management=&lt;Management
+ * name&gt;,name=&lt;Association name&gt;. Works with both stacks.
+ *
+ * <pre>
+ * management.addMetricsExporter(new JmxMetricsExporter());
+ * </pre>
+ *
+ */
+public class JmxMetricsExporter implements MetricsExporter {
+
+	private static final Logger logger = Logger.getLogger(JmxMetricsExporter.class);
+
+	private static final String DOMAIN = "org.mobicents.protocols.sctp";
+
+	private final MBeanServer mbeanServer;
+
+	/**
+	 * Registers with the platform MBeanServer
+	 */
+	public JmxMetricsExporter() {
+		this(ManagementFactory.getPlatformMBeanServer());
+	}
+
+	public JmxMetricsExporter(MBeanServer mbeanServer) {
+		this.mbeanServer = mbeanServer;
+	}
+
+	public static ObjectName getObjectName(Management management, Association association) throws Exception {
+		return new ObjectName(String.format("%s:type=AssociationMetrics,management=%s,name=%s", DOMAIN,
+				ObjectName.quote(management.getName()), ObjectName.quote(association.getName())));
+	}
+
+	@Override
+	public void register(Management management, Association association) {
+		try {
+			ObjectName objectName = getObjectName(management, association);
+			if (this.mbeanServer.isRegistered(objectName)) {
+				// left over of a Management which was not stopped
+				this.mbeanServer.unregisterMBean(objectName);
+			}
+			this.mbeanServer.registerMBean(new StandardMBean(new View(association), AssociationMetricsMBean.class),
+					objectName);
+		} catch (Exception e) {
+			logger.error(String.format("Error while registering the metrics MBean of Association=%s",
+					association.getName()), e);
+		}
+	}
+
+	@Override
+	public void unregister(Management management, Association association) {
+		try {
+			ObjectName objectName = getObjectName(management, association);
+			if (this.mbeanServer.isRegistered(objectName)) {
+				this.mbeanServer.unregisterMBean(objectName);
+			}
+		} catch (Exception e) {
+			logger.error(String.format("Error while unregistering the metrics MBean of Association=%s",
+					association.getName()), e);
+		}
+	}
+
+	private static class View implements AssociationMetricsMBean {
+		private final Association association;
+		private final AssociationMetrics metrics;
+
+		private View(Association association) {
+			this.association = association;
+			this.metrics = association.getMetrics();
+		}
+
+		@Override
+		public String getName() {
+			return this.association.getName();
+		}
+
+		@Override
+		public boolean isUp() {
+			return this.association.isUp();
+		}
+
+		@Override
+		public int getCongestionLevel() {
+			return this.association.getCongestionLevel();
+		}
+
+		@Override
+		public long getRxMessages() {
+			return this.metrics.getRxMessages();
+		}
+
+		@Override
+		public long getRxBytes() {
+			return this.metrics.getRxBytes();
+		}
+
+		@Override
+		public long getTxMessages() {
+			return this.metrics.getTxMessages();
+		}
+
+		@Override
+		public long getTxBytes() {
+			return this.metrics.getTxBytes();
+		}
+
+		@Override
+		public long getRxDropped() {
+			return this.metrics.getRxDropped();
+		}
+
+		@Override
+		public long getTxDropped() {
+			return this.metrics.getTxDropped();
+		}
+
+		@Override
+		public long getInvalidStreamIds() {
+			return this.metrics.getInvalidStreamIds();
+		}
+
+		@Override
+		public long getCongestionTime() {
+			return this.metrics.getCongestionTime();
+		}
+
+		@Override
+		public long getTxQueueDepth() {
+			long depth = 0;
+			for (int backlog : this.getOutboundStreamBacklog()) {
+				depth += backlog;
+			}
+			return depth;
+		}
+
+		@Override
+		public long[] getRxStreamMessages() {
+			return this.metrics.getRxStreamMessages();
+		}
+
+		@Override
+		public long[] getTxStreamMessages() {
+			return this.metrics.getTxStreamMessages();
+		}
+
+		@Override
+		public int[] getOutboundStreamBacklog() {
+			int[] backlog = new int[this.metrics.getOutboundStreams()];
+			for (int i = 0; i < backlog.length; i++) {
+				backlog[i] = this.association.getOutboundStreamBacklog(i);
+			}
+			return backlog;
+		}
+
+		@Override
+		public long getDispatchDelayCount() {
+			return this.metrics.getDispatchDelay().getCount();
+		}
+
+		@Override
+		public double getDispatchDelayMean() {
+			return this.metrics.getDispatchDelay().getMean();
+		}
+
+		@Override
+		public long getDispatchDelayP50() {
+			return this.metrics.getDispatchDelay().getValueAtPercentile(50);
+		}
+
+		@Override
+		public long getDispatchDelayP99() {
+			return this.metrics.getDispatchDelay().getValueAtPercentile(99);
+		}
+
+		@Override
+		public long getDispatchDelayP999() {
+			return this.metrics.getDispatchDelay().getValueAtPercentile(99.9);
+		}
+
+		@Override
+		public long getDispatchDelayMax() {
+			return this.metrics.getDispatchDelay().getMax();
+		}
+
+		@Override
+		public long getSendDelayCount() {
+			return this.metrics.getSendDelay().getCount();
+		}
+
+		@Override
+		public double getSendDelayMean() {
+			return this.metrics.getSendDelay().getMean();
+		}
+
+		@Override
+		public long getSendDelayP50() {
+			return this.metrics.getSendDelay().getValueAtPercentile(50);
+		}
+
+		@Override
+		public long getSendDelayP99() {
+			return this.metrics.getSendDelay().getValueAtPercentile(99);
+		}
+
+		@Override
+		public long getSendDelayP999() {
+			return this.metrics.getSendDelay().getValueAtPercentile(99.9);
+		}
+
+		@Override
+		public long getSendDelayMax() {
+			return this.metrics.getSendDelay().getMax();
+		}
+
+		@Override
+		public long[] getStreamDispatchDelayP99() {
+			long[] p99 = new long[this.metrics.getInboundStreams()];
+			for (int i = 0; i < p99.length; i++) {
+				LatencyHistogram histogram = this.metrics.getStreamDispatchDelay(i);
+				if (histogram != null)
+					p99[i] = histogram.getValueAtPercentile(99);
+			}
+			return p99;
+		}
+
+		@Override
+		public long[] getStreamSendDelayP99() {
+			long[] p99 = new long[this.metrics.getOutboundStreams()];
+			for (int i = 0; i < p99.length; i++) {
+				LatencyHistogram histogram = this.metrics.getStreamSendDelay(i);
+				if (histogram != null)
+					p99[i] = histogram.getValueAtPercentile(99);
+			}
+			return p99;
+		}
+
+		@Override
+		public void reset() {
+			this.metrics.reset();
+		}
+	}
+}
@@ -22,20 +22,26 @@
 
 package org.mobicents.protocols.sctp;
 
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.channels.Selector;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javolution.text.TextBuilder;
 import javolution.util.FastList;
@@ -51,6 +57,7 @@ import org.mobicents.protocols.api.CongestionListener;
 import org.mobicents.protocols.api.IpChannelType;
 import org.mobicents.protocols.api.Management;
 import org.mobicents.protocols.api.ManagementEventListener;
+import org.mobicents.protocols.api.MetricsExporter;
 import org.mobicents.protocols.api.Server;
 import org.mobicents.protocols.api.ServerListener;
 import org.mobicents.protocols.sctp.netty.NettySctpManagementImpl;
@@ -73,6 +80,10 @@ public class ManagementImpl implements Management {
     private static final String CONNECT_DELAY_PROP = "connectdelay";
     private static final String SINGLE_THREAD_PROP = "singlethread";
     private static final String WORKER_THREADS_PROP = "workerthreads";
+    // thread counts of the Netty stack, stepped over when reading a file it stored
+    private static final String BOSS_THREADS_PROP = "bossthreads";
+    private static final String AFFINITY_THREADS_PROP = "affinitythreads";
+    private static final String LISTENER_THREADS_PROP = "listenerthreads";
 
 	private final TextBuilder persistFile = TextBuilder.newInstance();
 
@@ -87,15 +98,19 @@ public class ManagementImpl implements Management {
 	protected FastList<Server> servers = new FastList<Server>();
 	protected AssociationMap<String, Association> associations = new AssociationMap<String, Association>();
 
-	private FastList<ChangeRequest> pendingChanges = new FastList<ChangeRequest>();
-
-	// Create a new selector
-	private Selector socketSelector = null;
+	// SERVER Associations by (server, peer address, peer port), used when
+	// accepting connections
+	private final AssociationIndex associationIndex = new AssociationIndex();
 
-	private SelectorThread selectorThread = null;
+	// Pool of SelectorThread's, each owning its own Selector
+	private SelectorThread[] selectorThreadPool = null;
 
 	static final int DEFAULT_IO_THREADS = Runtime.getRuntime().availableProcessors() * 2;
 
+	private int selectorThreads = 1;
+
+	private SelectorThreadPolicy selectorThreadPolicy = SelectorThreadPolicy.HASH;
+
 	private int workerThreads = DEFAULT_IO_THREADS;
 
 	private boolean singleThread = true;
@@ -108,11 +123,65 @@ public class ManagementImpl implements Management {
 
 	private int connectDelay = 5000;
 
+	// Upper bound of the reconnect delay, which doubles with each failed
+	// attempt starting from connectDelay
+	private volatile int maxConnectDelay = 60000;
+
+	// Percent of the reconnect delay randomly taken off
+	private volatile int connectJitter = 25;
+
+	// Max time a connect may stay pending before it is aborted. 0 means no
+	// limit
+	private volatile int connectTimeout = 10000;
+
+	// Drives reconnects and connect timeouts of all Associations
+	private HashedWheelTimer timer = null;
+
 	private int bufferSize = 8192;
 
-	private ExecutorService[] executorServices = null;
+	private boolean zeroCopyReceive = false;
+
+	private volatile boolean directSend = false;
+
+	// Max bytes queued for sending per Association. 0 means no limit
+	private volatile int txHighWaterMark = 8 * 1024 * 1024;
+
+	// Max messages queued for sending per Association. 0 means no limit
+	private volatile int txQueueMaxMessages = 50000;
+
+	// Fill of the outbound queue (percent of TxQueueMaxMessages or
+	// TxHighWaterMark, whichever is fuller) raising congestion level 1, 2, 3
+	// and bringing it back down. Replaced as a whole on change, never
+	// modified in place
+	protected volatile double[] congControl_QueueThreshold = new double[] { 50, 75, 90 };
+	protected volatile double[] congControl_BackToNormalQueueThreshold = new double[] { 40, 65, 80 };
+
+	private FastList<CongestionListener> congestionListeners = new FastList<CongestionListener>();
+
+	// Max messages / bytes an Association reads per readable event
+	private volatile int readBudgetMessages = 16;
+	private volatile int readBudgetBytes = 65536;
+
+	// Max bytes of partly received SCTP messages held per Association and
+	// for all Associations. 0 means no limit, RxReassemblyMaxBytes 0 turns
+	// reassembly off
+	private volatile int rxReassemblyMaxBytes = 1024 * 1024;
+	private volatile long rxReassemblyGlobalMaxBytes = 64L * 1024 * 1024;
+	private final AtomicLong rxReassemblyBytes = new AtomicLong();
+	private final AtomicLong rxReassemblyDropped = new AtomicLong();
+
+	private final ByteBufAllocator byteBufAllocator = PooledByteBufAllocator.DEFAULT;
+
+	// Capacity of each worker ring of payloadDispatcher
+	private int workerRingSize = 8192;
+
+	private PayloadDispatcher payloadDispatcher = null;
+
+	// Wire capture of sent and received payloads, null when not capturing
+	private volatile PcapngCapture capture = null;
 
 	private FastList<ManagementEventListener> managementEventListeners = new FastList<ManagementEventListener>();
+	private FastList<MetricsExporter> metricsExporters = new FastList<MetricsExporter>();
 
 	private ServerListener serverListener = null;
 
@@ -124,7 +193,6 @@ public class ManagementImpl implements Management {
 		binding.setAlias(ServerImpl.class, "server");
 		binding.setAlias(AssociationImpl.class, "association");
 		binding.setAlias(String.class, "string");
-		this.socketSelector = SelectorProvider.provider().openSelector();
 	}
 
 	/**
@@ -162,6 +230,113 @@ public class ManagementImpl implements Management {
         this.store();
 	}
 
+	/**
+	 * @return the maxConnectDelay
+	 */
+	public int getMaxConnectDelay() {
+		return maxConnectDelay;
+	}
+
+	/**
+	 * Sets the upper bound of the reconnect delay. The delay starts at
+	 * ConnectDelay and doubles after each failed connect attempt until the
+	 * Association comes up.
+	 * 
+	 * @param maxConnectDelay
+	 *            the maxConnectDelay to set
+	 */
+	public void setMaxConnectDelay(int maxConnectDelay) throws Exception {
+		if (maxConnectDelay < 0)
+			throw new Exception("MaxConnectDelay can not be negative");
+
+		this.maxConnectDelay = maxConnectDelay;
+	}
+
+	/**
+	 * @return the connectJitter
+	 */
+	public int getConnectJitter() {
+		return connectJitter;
+	}
+
+	/**
+	 * Sets the percent (0-100) of the reconnect delay that is randomly taken
+	 * off, so Associations which went down together do not reconnect in
+	 * lockstep
+	 * 
+	 * @param connectJitter
+	 *            the connectJitter to set
+	 */
+	public void setConnectJitter(int connectJitter) throws Exception {
+		if (connectJitter < 0 || connectJitter > 100)
+			throw new Exception("ConnectJitter must be between 0 and 100");
+
+		this.connectJitter = connectJitter;
+	}
+
+	/**
+	 * @return the connectTimeout
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Sets the max time in milliseconds a connect attempt may stay pending.
+	 * After this the attempt is aborted and a reconnect is scheduled. 0 means
+	 * no limit.
+	 * 
+	 * @param connectTimeout
+	 *            the connectTimeout to set
+	 */
+	public void setConnectTimeout(int connectTimeout) throws Exception {
+		if (connectTimeout < 0)
+			throw new Exception("ConnectTimeout can not be negative");
+
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Returns the delay before the next connect attempt of an Association
+	 * 
+	 * @param attempt
+	 *            number of connect attempts already made since the
+	 *            Association was last up
+	 * @return
+	 */
+	protected long getReconnectDelay(int attempt) {
+		long delay = this.connectDelay;
+		long maxDelay = Math.max(this.maxConnectDelay, this.connectDelay);
+		for (int i = 0; i < attempt && delay < maxDelay; i++) {
+			delay <<= 1;
+		}
+		if (delay > maxDelay)
+			delay = maxDelay;
+
+		int jitter = this.connectJitter;
+		if (jitter > 0 && delay > 0) {
+			delay -= ThreadLocalRandom.current().nextLong(delay * jitter / 100 + 1);
+		}
+		return delay;
+	}
+
+	/**
+	 * Schedules a task on the Management timer
+	 * 
+	 * @return the Timeout or null if Management is stopped
+	 */
+	protected Timeout newTimeout(TimerTask task, long delay) {
+		HashedWheelTimer timer = this.timer;
+		if (timer == null)
+			return null;
+		try {
+			return timer.newTimeout(task, delay, TimeUnit.MILLISECONDS);
+		} catch (IllegalStateException e) {
+			// timer is stopped
+			return null;
+		}
+	}
+
 	/**
 	 * @return the workerThreads
 	 */
@@ -185,6 +360,75 @@ public class ManagementImpl implements Management {
 //		this.store();
 	}
 
+	/**
+	 * @return the number of SelectorThread's serving the Associations
+	 */
+	public int getSelectorThreads() {
+		return selectorThreads;
+	}
+
+	/**
+	 * Sets the number of SelectorThread's (each with its own Selector) the
+	 * Associations are spread over. Default is 1.
+	 * 
+	 * @param selectorThreads
+	 *            the selectorThreads to set
+	 */
+	public void setSelectorThreads(int selectorThreads) throws Exception {
+		if (this.started)
+			throw new Exception("SelectorThreads parameter can be updated only when SCTP stack is NOT running");
+
+		if (selectorThreads < 1) {
+			selectorThreads = 1;
+		}
+		this.selectorThreads = selectorThreads;
+	}
+
+	/**
+	 * @return the selectorThreadPolicy
+	 */
+	public SelectorThreadPolicy getSelectorThreadPolicy() {
+		return selectorThreadPolicy;
+	}
+
+	/**
+	 * @param selectorThreadPolicy
+	 *            the policy used to assign an Association to a SelectorThread
+	 */
+	public void setSelectorThreadPolicy(SelectorThreadPolicy selectorThreadPolicy) throws Exception {
+		if (this.started)
+			throw new Exception("SelectorThreadPolicy parameter can be updated only when SCTP stack is NOT running");
+		if (selectorThreadPolicy == null)
+			throw new Exception("SelectorThreadPolicy can not be null");
+
+		this.selectorThreadPolicy = selectorThreadPolicy;
+	}
+
+	/**
+	 * @return the workerRingSize
+	 */
+	public int getWorkerRingSize() {
+		return workerRingSize;
+	}
+
+	/**
+	 * Sets how many received payloads may wait for each worker thread per
+	 * SelectorThread (rounded up to a power of 2). Used only if not single
+	 * thread. When full, the SelectorThread stops reading until the worker
+	 * catches up.
+	 * 
+	 * @param workerRingSize
+	 *            the workerRingSize to set
+	 */
+	public void setWorkerRingSize(int workerRingSize) throws Exception {
+		if (this.started)
+			throw new Exception("WorkerRingSize parameter can be updated only when SCTP stack is NOT running");
+		if (workerRingSize < 16)
+			throw new Exception("WorkerRingSize must be at least 16");
+
+		this.workerRingSize = workerRingSize;
+	}
+
 	/**
 	 * @return the maxIOErrors
 	 */
@@ -238,6 +482,330 @@ public class ManagementImpl implements Management {
         this.bufferSize = bufferSize;
     }
 
+	/**
+	 * @return the readBudgetMessages
+	 */
+	public int getReadBudgetMessages() {
+		return readBudgetMessages;
+	}
+
+	/**
+	 * Sets the max number of messages an Association reads from its socket
+	 * each time the selector reports it readable. 1 reads a single message
+	 * per select round.
+	 * 
+	 * @param readBudgetMessages
+	 *            the readBudgetMessages to set
+	 */
+	public void setReadBudgetMessages(int readBudgetMessages) {
+		if (readBudgetMessages < 1) {
+			readBudgetMessages = 1;
+		}
+		this.readBudgetMessages = readBudgetMessages;
+	}
+
+	/**
+	 * @return the readBudgetBytes
+	 */
+	public int getReadBudgetBytes() {
+		return readBudgetBytes;
+	}
+
+	/**
+	 * Sets the max number of bytes an Association reads from its socket each
+	 * time the selector reports it readable. Reading stops after the message
+	 * that reaches this value.
+	 * 
+	 * @param readBudgetBytes
+	 *            the readBudgetBytes to set
+	 */
+	public void setReadBudgetBytes(int readBudgetBytes) {
+		if (readBudgetBytes < 1) {
+			readBudgetBytes = 1;
+		}
+		this.readBudgetBytes = readBudgetBytes;
+	}
+
+	/**
+	 * @return the rxReassemblyMaxBytes
+	 */
+	public int getRxReassemblyMaxBytes() {
+		return rxReassemblyMaxBytes;
+	}
+
+	/**
+	 * Sets the max number of bytes of partly received SCTP messages an
+	 * Association holds while rebuilding them. A message going over it is
+	 * dropped. The socket delivers a message in parts when it does not fit
+	 * BufferSize.
+	 * 
+	 * @param rxReassemblyMaxBytes
+	 *            0 to pass the parts to the listener as they are read
+	 *            (isComplete() false for all but the last)
+	 */
+	public void setRxReassemblyMaxBytes(int rxReassemblyMaxBytes) throws Exception {
+		if (rxReassemblyMaxBytes < 0)
+			throw new Exception("RxReassemblyMaxBytes can not be negative");
+		this.rxReassemblyMaxBytes = rxReassemblyMaxBytes;
+	}
+
+	/**
+	 * @return the rxReassemblyGlobalMaxBytes
+	 */
+	public long getRxReassemblyGlobalMaxBytes() {
+		return rxReassemblyGlobalMaxBytes;
+	}
+
+	/**
+	 * Sets the max number of bytes of partly received SCTP messages held by
+	 * all Associations together. A message going over it is dropped.
+	 * 
+	 * @param rxReassemblyGlobalMaxBytes
+	 *            0 means no limit
+	 */
+	public void setRxReassemblyGlobalMaxBytes(long rxReassemblyGlobalMaxBytes) throws Exception {
+		if (rxReassemblyGlobalMaxBytes < 0)
+			throw new Exception("RxReassemblyGlobalMaxBytes can not be negative");
+		this.rxReassemblyGlobalMaxBytes = rxReassemblyGlobalMaxBytes;
+	}
+
+	/**
+	 * @return bytes of partly received SCTP messages currently held by all
+	 *         Associations
+	 */
+	public long getRxReassemblyBytes() {
+		return this.rxReassemblyBytes.get();
+	}
+
+	/**
+	 * @return number of SCTP messages dropped by all Associations as they
+	 *         went over RxReassemblyMaxBytes or RxReassemblyGlobalMaxBytes
+	 */
+	public long getRxReassemblyDropped() {
+		return this.rxReassemblyDropped.get();
+	}
+
+	protected long addRxReassemblyBytes(int bytes) {
+		return this.rxReassemblyBytes.addAndGet(bytes);
+	}
+
+	protected void incrementRxReassemblyDropped() {
+		this.rxReassemblyDropped.incrementAndGet();
+	}
+
+	/**
+	 * @return the txHighWaterMark
+	 */
+	public int getTxHighWaterMark() {
+		return txHighWaterMark;
+	}
+
+	/**
+	 * Sets the max number of bytes that may wait to be written to the socket
+	 * of an Association. Once reached, Association.send() throws an Exception
+	 * until the backlog is written. Default is 8 MB, 0 means no limit.
+	 * 
+	 * @param txHighWaterMark
+	 *            the txHighWaterMark to set
+	 */
+	public void setTxHighWaterMark(int txHighWaterMark) throws Exception {
+		if (!this.started)
+			throw new Exception("TxHighWaterMark parameter can be updated only when SCTP stack is running");
+		if (txHighWaterMark < 0)
+			throw new Exception("TxHighWaterMark can not be negative");
+
+		this.txHighWaterMark = txHighWaterMark;
+
+		this.store();
+	}
+
+	/**
+	 * @return the txQueueMaxMessages
+	 */
+	public int getTxQueueMaxMessages() {
+		return txQueueMaxMessages;
+	}
+
+	/**
+	 * Sets the max number of messages that may wait to be written to the
+	 * socket of an Association. Once reached, Association.send() throws an
+	 * Exception until the backlog is written. Default is 50000, 0 means no
+	 * limit.
+	 * 
+	 * @param txQueueMaxMessages
+	 *            the txQueueMaxMessages to set
+	 */
+	public void setTxQueueMaxMessages(int txQueueMaxMessages) throws Exception {
+		if (txQueueMaxMessages < 0)
+			throw new Exception("TxQueueMaxMessages can not be negative");
+
+		this.txQueueMaxMessages = txQueueMaxMessages;
+	}
+
+	public double getCongControl_QueueThreshold_1() {
+		return congControl_QueueThreshold[0];
+	}
+
+	public double getCongControl_QueueThreshold_2() {
+		return congControl_QueueThreshold[1];
+	}
+
+	public double getCongControl_QueueThreshold_3() {
+		return congControl_QueueThreshold[2];
+	}
+
+	public double getCongControl_BackToNormalQueueThreshold_1() {
+		return congControl_BackToNormalQueueThreshold[0];
+	}
+
+	public double getCongControl_BackToNormalQueueThreshold_2() {
+		return congControl_BackToNormalQueueThreshold[1];
+	}
+
+	public double getCongControl_BackToNormalQueueThreshold_3() {
+		return congControl_BackToNormalQueueThreshold[2];
+	}
+
+	/**
+	 * Sets the outbound queue fill, in percent, at which an Association
+	 * reaches congestion level 1
+	 */
+	public void setCongControl_QueueThreshold_1(double val) throws Exception {
+		this.setCongControl_QueueThreshold(0, val);
+	}
+
+	public void setCongControl_QueueThreshold_2(double val) throws Exception {
+		this.setCongControl_QueueThreshold(1, val);
+	}
+
+	public void setCongControl_QueueThreshold_3(double val) throws Exception {
+		this.setCongControl_QueueThreshold(2, val);
+	}
+
+	/**
+	 * Sets the outbound queue fill, in percent, below which an Association
+	 * drops from congestion level 1 back to 0
+	 */
+	public void setCongControl_BackToNormalQueueThreshold_1(double val) throws Exception {
+		this.setCongControl_BackToNormalQueueThreshold(0, val);
+	}
+
+	public void setCongControl_BackToNormalQueueThreshold_2(double val) throws Exception {
+		this.setCongControl_BackToNormalQueueThreshold(1, val);
+	}
+
+	public void setCongControl_BackToNormalQueueThreshold_3(double val) throws Exception {
+		this.setCongControl_BackToNormalQueueThreshold(2, val);
+	}
+
+	private synchronized void setCongControl_QueueThreshold(int index, double val) throws Exception {
+		if (!this.started)
+			throw new Exception("CongControl_QueueThreshold parameter can be updated only when SCTP stack is running");
+		if (val < 0 || val > 100)
+			throw new Exception("CongControl_QueueThreshold must be between 0 and 100");
+
+		double[] threshold = this.congControl_QueueThreshold.clone();
+		threshold[index] = val;
+		checkCongControlQueueThresholds(threshold, this.congControl_BackToNormalQueueThreshold);
+		this.congControl_QueueThreshold = threshold;
+
+		this.store();
+	}
+
+	private synchronized void setCongControl_BackToNormalQueueThreshold(int index, double val) throws Exception {
+		if (!this.started)
+			throw new Exception(
+					"CongControl_BackToNormalQueueThreshold parameter can be updated only when SCTP stack is running");
+		if (val < 0 || val > 100)
+			throw new Exception("CongControl_BackToNormalQueueThreshold must be between 0 and 100");
+
+		double[] backToNormalThreshold = this.congControl_BackToNormalQueueThreshold.clone();
+		backToNormalThreshold[index] = val;
+		checkCongControlQueueThresholds(this.congControl_QueueThreshold, backToNormalThreshold);
+		this.congControl_BackToNormalQueueThreshold = backToNormalThreshold;
+
+		this.store();
+	}
+
+	/**
+	 * Checks that each level has its threshold above its back to normal
+	 * threshold and both above the ones of the level below. Used by the
+	 * Netty stack as well
+	 */
+	public static void checkCongControlQueueThresholds(double[] threshold, double[] backToNormalThreshold)
+			throws Exception {
+		for (int i = 0; i < 3; i++) {
+			if (threshold[i] <= backToNormalThreshold[i])
+				throw new Exception(String.format(
+						"CongControl_QueueThreshold_%d must be greater than CongControl_BackToNormalQueueThreshold_%d",
+						i + 1, i + 1));
+			if (i > 0 && threshold[i] <= threshold[i - 1])
+				throw new Exception(String.format(
+						"CongControl_QueueThreshold_%d must be greater than CongControl_QueueThreshold_%d", i + 1, i));
+			if (i > 0 && backToNormalThreshold[i] <= backToNormalThreshold[i - 1])
+				throw new Exception(String.format(
+						"CongControl_BackToNormalQueueThreshold_%d must be greater than CongControl_BackToNormalQueueThreshold_%d",
+						i + 1, i));
+		}
+	}
+
+	/**
+	 * @return the directSend
+	 */
+	public boolean isDirectSend() {
+		return directSend;
+	}
+
+	/**
+	 * If true, Association.send() writes the message to the socket from the
+	 * calling thread when nothing else is queued for that Association, instead
+	 * of handing it over to the SelectorThread. Only what the socket can not
+	 * take at once is left for the SelectorThread. Default is false.
+	 * 
+	 * @param directSend
+	 *            the directSend to set
+	 */
+	public void setDirectSend(boolean directSend) {
+		this.directSend = directSend;
+	}
+
+	/**
+	 * @return the zeroCopyReceive
+	 */
+	public boolean isZeroCopyReceive() {
+		return zeroCopyReceive;
+	}
+
+	/**
+	 * If true, Associations receive each message straight into a pooled
+	 * direct ByteBuf of BufferSize bytes, and that ByteBuf is the one passed
+	 * to {@link org.mobicents.protocols.api.AssociationListener#onPayload}.
+	 * A message filling less than half of it is copied into a pooled ByteBuf
+	 * of its own size instead, so a listener keeping small messages does not
+	 * hold BufferSize bytes for each. The listener owns the buffer and must
+	 * release it (PayloadData release(), getData() or releaseBuffer()),
+	 * otherwise the pool leaks. If false (default) every message is copied
+	 * out of a per-Association receive buffer into a new heap ByteBuf, which
+	 * suits listeners not written for pooled buffers. Not persisted, can be
+	 * set only while the stack is stopped.
+	 * 
+	 * @param zeroCopyReceive
+	 *            the zeroCopyReceive to set
+	 */
+	public void setZeroCopyReceive(boolean zeroCopyReceive) throws Exception {
+		if (this.started)
+			throw new Exception("ZeroCopyReceive parameter can be updated only when SCTP stack is NOT running");
+
+		this.zeroCopyReceive = zeroCopyReceive;
+	}
+
+	/**
+	 * @return the pooled ByteBufAllocator used by Associations
+	 */
+	protected ByteBufAllocator getByteBufAllocator() {
+		return byteBufAllocator;
+	}
+
 	public ServerListener getServerListener() {
 		return serverListener;
 	}
@@ -293,29 +861,44 @@ public class ManagementImpl implements Management {
 
 			logger.info(String.format("SCTP configuration file path %s", persistFile.toString()));
 
+			this.timer = new HashedWheelTimer(new DefaultThreadFactory(String.format("SctpTimer-%s", this.name)), 10,
+					TimeUnit.MILLISECONDS, 512);
+
+			// Selectors must exist before load() as started Servers register
+			// with them
+			this.selectorThreadPool = new SelectorThread[this.selectorThreads];
+			for (int i = 0; i < this.selectorThreads; i++) {
+				this.selectorThreadPool[i] = new SelectorThread(SelectorProvider.provider().openSelector(), this, i);
+			}
+
 			try {
 				this.load();
 			} catch (FileNotFoundException e) {
 				logger.warn(String.format("Failed to load the SCTP configuration file. \n%s", e.getMessage()));
 			}
+			for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n.getNext()) != end;) {
+				this.registerMetrics(n.getValue());
+			}
 
 			if (!this.singleThread) {
 				// If not single thread model we create worker threads
-				this.executorServices = new ExecutorService[this.workerThreads];
-				for (int i = 0; i < this.workerThreads; i++) {
-					this.executorServices[i] = Executors.newSingleThreadExecutor();
-				}
+				this.payloadDispatcher = new PayloadDispatcher(this.name, this.workerThreads, this.selectorThreads,
+						this.workerRingSize);
+				this.payloadDispatcher.start();
+			}
+			for (int i = 0; i < this.selectorThreadPool.length; i++) {
+				SelectorThread selectorThread = this.selectorThreadPool[i];
+				selectorThread.setStarted(true);
+				(new Thread(selectorThread, String.format("SelectorThread-%s-%d", this.name, i))).start();
 			}
-			this.selectorThread = new SelectorThread(this.socketSelector, this);
-			this.selectorThread.setStarted(true);
-
-			(new Thread(this.selectorThread)).start();
 
 			this.started = true;
 
 			if (logger.isInfoEnabled()) {
-				logger.info(String.format("Started SCTP Management=%s WorkerThreads=%d SingleThread=%s", this.name,
-						(this.singleThread ? 0 : this.workerThreads), this.singleThread));
+				logger.info(String.format(
+						"Started SCTP Management=%s SelectorThreads=%d (%s) WorkerThreads=%d SingleThread=%s ZeroCopyReceive=%s",
+						this.name, this.selectorThreads, this.selectorThreadPolicy, (this.singleThread ? 0 : this.workerThreads),
+						this.singleThread, this.zeroCopyReceive));
 			}
 
 			for (ManagementEventListener lstr : managementEventListeners) {
@@ -367,14 +950,14 @@ public class ManagementImpl implements Management {
 			}
 		}
 
-		if (this.executorServices != null) {
-			for (int i = 0; i < this.executorServices.length; i++) {
-				this.executorServices[i].shutdown();
-			}
+		for (SelectorThread selectorThread : this.selectorThreadPool) {
+			selectorThread.setStarted(false);
+			selectorThread.getSelector().wakeup(); // Wakeup selector so SelectorThread dies
 		}
 
-		this.selectorThread.setStarted(false);
-		this.socketSelector.wakeup(); // Wakeup selector so SelectorThread dies
+		// drops pending reconnects and connect timeouts
+		this.timer.stop();
+		this.timer = null;
 
 		// waiting till stopping associations
 		for (int i1 = 0; i1 < 20; i1++) {
@@ -391,20 +974,20 @@ public class ManagementImpl implements Management {
 			Thread.sleep(100);
 		}
 
-		// Graceful shutdown for each of Executors
-		if (this.executorServices != null) {
-			for (int i = 0; i < this.executorServices.length; i++) {
-				if (!this.executorServices[i].isTerminated()) {
-					if (logger.isInfoEnabled()) {
-						logger.info("Waiting for worker thread to die gracefully ....");
-					}
-					try {
-						this.executorServices[i].awaitTermination(5000, TimeUnit.MILLISECONDS);
-					} catch (InterruptedException e) {
-						// Do we care?
-					}
-				}
+		// Graceful shutdown for worker threads
+		if (this.payloadDispatcher != null) {
+			if (logger.isInfoEnabled()) {
+				logger.info("Waiting for worker thread to die gracefully ....");
 			}
+			this.payloadDispatcher.stop(5000);
+			this.payloadDispatcher = null;
+		}
+
+		// SelectorThread's are recreated at next start, Associations are
+		// loaded again
+		for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n.getNext()) != end;) {
+			this.releaseSelectorThread((AssociationImpl) n.getValue());
+			this.unregisterMetrics(n.getValue());
 		}
 
 		this.started = false;
@@ -429,6 +1012,9 @@ public class ManagementImpl implements Management {
 //                this.singleThread = reader.read(SINGLE_THREAD_PROP, Boolean.class);
                 vali = reader.read(WORKER_THREADS_PROP, Integer.class);
                 Boolean valb = reader.read(SINGLE_THREAD_PROP, Boolean.class);
+                vali = reader.read(BOSS_THREADS_PROP, Integer.class);
+                vali = reader.read(AFFINITY_THREADS_PROP, Integer.class);
+                vali = reader.read(LISTENER_THREADS_PROP, Integer.class);
 
                 Double valTH1 = reader.read(NettySctpManagementImpl.CONG_CONTROL_DELAY_THRESHOLD_1, Double.class);
                 Double valTH2 = reader.read(NettySctpManagementImpl.CONG_CONTROL_DELAY_THRESHOLD_2, Double.class);
@@ -439,6 +1025,31 @@ public class ManagementImpl implements Management {
                         .read(NettySctpManagementImpl.CONG_CONTROL_BACK_TO_NORMAL_DELAY_THRESHOLD_2, Double.class);
                 Double valTB3 = reader
                         .read(NettySctpManagementImpl.CONG_CONTROL_BACK_TO_NORMAL_DELAY_THRESHOLD_3, Double.class);
+                Integer valHWM = reader.read(NettySctpManagementImpl.TX_HIGH_WATER_MARK, Integer.class);
+                if (valHWM != null)
+                    this.txHighWaterMark = valHWM;
+                Double valQH1 = reader.read(NettySctpManagementImpl.CONG_CONTROL_QUEUE_THRESHOLD_1, Double.class);
+                Double valQH2 = reader.read(NettySctpManagementImpl.CONG_CONTROL_QUEUE_THRESHOLD_2, Double.class);
+                Double valQH3 = reader.read(NettySctpManagementImpl.CONG_CONTROL_QUEUE_THRESHOLD_3, Double.class);
+                Double valQB1 = reader
+                        .read(NettySctpManagementImpl.CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_1, Double.class);
+                Double valQB2 = reader
+                        .read(NettySctpManagementImpl.CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_2, Double.class);
+                Double valQB3 = reader
+                        .read(NettySctpManagementImpl.CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_3, Double.class);
+                if (valQH1 != null && valQH2 != null && valQH3 != null && valQB1 != null && valQB2 != null
+                        && valQB3 != null) {
+                    double[] threshold = new double[] { valQH1, valQH2, valQH3 };
+                    double[] backToNormalThreshold = new double[] { valQB1, valQB2, valQB3 };
+                    try {
+                        checkCongControlQueueThresholds(threshold, backToNormalThreshold);
+                        this.congControl_QueueThreshold = threshold;
+                        this.congControl_BackToNormalQueueThreshold = backToNormalThreshold;
+                    } catch (Exception e) {
+                        logger.warn(String.format("Persisted queue thresholds of Management=%s ignored: %s", this.name,
+                                e.getMessage()));
+                    }
+                }
 
                 // TODO: revive this test when we introduce of parameters persistense 
 //                Boolean valB = reader.read(NettySctpManagementImpl.OPTION_SCTP_DISABLE_FRAGMENTS, Boolean.class);
@@ -470,9 +1081,11 @@ public class ManagementImpl implements Management {
 			}
 
 			this.associations = reader.read(ASSOCIATIONS, AssociationMap.class);
+			this.associationIndex.clear();
 			for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n.getNext()) != end;) {
 				AssociationImpl associationTemp = (AssociationImpl) n.getValue();
 				associationTemp.setManagement(this);
+				this.associationIndex.put(associationTemp);
 			}
 
 		} catch (XMLStreamException ex) {
@@ -493,6 +1106,20 @@ public class ManagementImpl implements Management {
 //            writer.write(this.workerThreads, WORKER_THREADS_PROP, Integer.class);
 //            writer.write(this.singleThread, SINGLE_THREAD_PROP, Boolean.class);
 
+            // same elements and order as the Netty stack, so either can load the file
+            double[] threshold = this.congControl_QueueThreshold;
+            double[] backToNormalThreshold = this.congControl_BackToNormalQueueThreshold;
+            writer.write(this.txHighWaterMark, NettySctpManagementImpl.TX_HIGH_WATER_MARK, Integer.class);
+            writer.write(threshold[0], NettySctpManagementImpl.CONG_CONTROL_QUEUE_THRESHOLD_1, Double.class);
+            writer.write(threshold[1], NettySctpManagementImpl.CONG_CONTROL_QUEUE_THRESHOLD_2, Double.class);
+            writer.write(threshold[2], NettySctpManagementImpl.CONG_CONTROL_QUEUE_THRESHOLD_3, Double.class);
+            writer.write(backToNormalThreshold[0], NettySctpManagementImpl.CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_1,
+                    Double.class);
+            writer.write(backToNormalThreshold[1], NettySctpManagementImpl.CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_2,
+                    Double.class);
+            writer.write(backToNormalThreshold[2], NettySctpManagementImpl.CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_3,
+                    Double.class);
+
 			writer.write(this.servers, SERVERS, FastList.class);
 			writer.write(this.associations, ASSOCIATIONS, AssociationMap.class);
 
@@ -786,6 +1413,7 @@ public class ManagementImpl implements Management {
 			newAssociations.put(assocName, association);
 			this.associations = newAssociations;
 			// this.associations.put(assocName, association);
+			this.associationIndex.put(association);
 
 			FastList<String> newAssociations2 = new FastList<String>();
 			newAssociations2.addAll(((ServerImpl) server).associations);
@@ -795,6 +1423,9 @@ public class ManagementImpl implements Management {
 
 			this.store();
 
+			this.registerMetrics(association);
+			this.captureAddresses(association);
+
 			for (ManagementEventListener lstr : managementEventListeners) {
 				try {
 					lstr.onAssociationAdded(association);
@@ -873,6 +1504,9 @@ public class ManagementImpl implements Management {
 
 			this.store();
 
+			this.registerMetrics(association);
+			this.captureAddresses(association);
+
 			for (ManagementEventListener lstr : managementEventListeners) {
 				try {
 					lstr.onAssociationAdded(association);
@@ -901,6 +1535,39 @@ public class ManagementImpl implements Management {
 		return associationTemp;
 	}
 
+	/**
+	 * @return the capture
+	 */
+	public PcapngCapture getCapture() {
+		return capture;
+	}
+
+	/**
+	 * Sets the capture payloads of all Associations are passed to, null stops
+	 * capturing. The capture must be started and stopped by the caller.
+	 * 
+	 * @param capture
+	 *            the capture to set
+	 */
+	public void setCapture(PcapngCapture capture) {
+		if (capture != null) {
+			for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n.getNext()) != end;) {
+				capture.addAssociation(n.getValue());
+			}
+		}
+		this.capture = capture;
+	}
+
+	private void captureAddresses(Association association) {
+		PcapngCapture capture = this.capture;
+		if (capture != null)
+			capture.addAssociation(association);
+	}
+
+	protected AssociationIndex getAssociationIndex() {
+		return this.associationIndex;
+	}
+
 	/**
 	 * @return the associations
 	 */
@@ -977,6 +1644,9 @@ public class ManagementImpl implements Management {
 			newAssociations.remove(assocName);
 			this.associations = newAssociations;
 			// this.associations.remove(assocName);
+			this.associationIndex.remove(association);
+
+			this.releaseSelectorThread((AssociationImpl) association);
 
 			if (((AssociationImpl) association).getAssociationType() == AssociationType.SERVER) {
 				for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
@@ -996,6 +1666,8 @@ public class ManagementImpl implements Management {
 
 			this.store();
 
+			this.unregisterMetrics(association);
+
 			for (ManagementEventListener lstr : managementEventListeners) {
 				try {
 					lstr.onAssociationRemoved(association);
@@ -1014,20 +1686,83 @@ public class ManagementImpl implements Management {
 	}
 
 	/**
-	 * @return the pendingChanges
+	 * Chooses the SelectorThread for the passed Association as per
+	 * {@link SelectorThreadPolicy} and assigns it to the Association. Called
+	 * when an Association connects or is accepted. An Association which has
+	 * a SelectorThread keeps it until released, so a reconnect or re-accept
+	 * never leaves a channel of it registered with another Selector.
+	 * 
+	 * @param association
+	 * @return the assigned SelectorThread
 	 */
-	protected FastList<ChangeRequest> getPendingChanges() {
-		return pendingChanges;
+	protected SelectorThread assignSelectorThread(AssociationImpl association) {
+		SelectorThread selectorThread = association.getAssignedSelectorThread();
+		if (selectorThread != null)
+			return selectorThread;
+
+		SelectorThread[] pool = this.selectorThreadPool;
+		if (pool.length == 1) {
+			selectorThread = pool[0];
+		} else if (this.selectorThreadPolicy == SelectorThreadPolicy.LEAST_LOAD) {
+			selectorThread = pool[0];
+			for (int i = 1; i < pool.length; i++) {
+				if (pool[i].getAssociationCount().get() < selectorThread.getAssociationCount().get()) {
+					selectorThread = pool[i];
+				}
+			}
+		} else {
+			String key = association.getName() != null ? association.getName() : association.getPeerAddress() + ":"
+					+ association.getPeerPort();
+			selectorThread = pool[(key.hashCode() & 0x7fffffff) % pool.length];
+		}
+
+		if (!association.compareAndSetSelectorThread(null, selectorThread)) {
+			// assigned by another thread meanwhile
+			return association.getAssignedSelectorThread();
+		}
+		selectorThread.getAssociationCount().incrementAndGet();
+		return selectorThread;
 	}
 
 	/**
-	 * @return the socketSelector
+	 * Releases the SelectorThread assigned to the passed Association, if any
+	 * 
+	 * @param association
 	 */
-	protected Selector getSocketSelector() {
-		return socketSelector;
+	protected void releaseSelectorThread(AssociationImpl association) {
+		SelectorThread oldSelectorThread = association.setSelectorThread(null);
+		if (oldSelectorThread != null)
+			oldSelectorThread.getAssociationCount().decrementAndGet();
 	}
 
-	protected void populateWorkerThread(int workerThreadTable[]) {
+	/**
+	 * @return the number of Selector wakeups issued by all SelectorThread's
+	 *         since start. Wakeups requested while one is already pending are
+	 *         not issued and not counted.
+	 */
+	public long getSelectorWakeups() {
+		SelectorThread[] pool = this.selectorThreadPool;
+		if (pool == null)
+			return 0;
+
+		long wakeups = 0;
+		for (SelectorThread selectorThread : pool) {
+			wakeups += selectorThread.getWakeupCount();
+		}
+		return wakeups;
+	}
+
+	/**
+	 * @param name
+	 * @return the SelectorThread a Server with passed name accepts
+	 *         connections on
+	 */
+	protected SelectorThread getServerSelectorThread(String name) {
+		SelectorThread[] pool = this.selectorThreadPool;
+		return pool[(name.hashCode() & 0x7fffffff) % pool.length];
+	}
+
+	protected synchronized void populateWorkerThread(int workerThreadTable[]) {
 		for (int count = 0; count < workerThreadTable.length; count++) {
 			if (this.workerThreadCount == this.workerThreads) {
 				this.workerThreadCount = 0;
@@ -1038,8 +1773,8 @@ public class ManagementImpl implements Management {
 		}
 	}
 
-	protected ExecutorService getExecutorService(int index) {
-		return this.executorServices[index];
+	protected PayloadDispatcher getPayloadDispatcher() {
+		return this.payloadDispatcher;
 	}
 
     @Override
@@ -1212,16 +1947,96 @@ public class ManagementImpl implements Management {
 
     @Override
     public void addCongestionListener(CongestionListener listener) {
-        // TODO Auto-generated method stub
-        
+        synchronized (this) {
+            if (this.congestionListeners.contains(listener))
+                return;
+
+            FastList<CongestionListener> newCongestionListeners = new FastList<CongestionListener>();
+            newCongestionListeners.addAll(this.congestionListeners);
+            newCongestionListeners.add(listener);
+            this.congestionListeners = newCongestionListeners;
+        }
     }
 
     @Override
     public void removeCongestionListener(CongestionListener listener) {
-        // TODO Auto-generated method stub
-        
+        synchronized (this) {
+            if (!this.congestionListeners.contains(listener))
+                return;
+
+            FastList<CongestionListener> newCongestionListeners = new FastList<CongestionListener>();
+            newCongestionListeners.addAll(this.congestionListeners);
+            newCongestionListeners.remove(listener);
+            this.congestionListeners = newCongestionListeners;
+        }
+    }
+
+    protected FastList<CongestionListener> getCongestionListeners() {
+        return congestionListeners;
     }
 
+	@Override
+	public void addMetricsExporter(MetricsExporter exporter) {
+		synchronized (this) {
+			if (this.metricsExporters.contains(exporter))
+				return;
+
+			FastList<MetricsExporter> newMetricsExporters = new FastList<MetricsExporter>();
+			newMetricsExporters.addAll(this.metricsExporters);
+			newMetricsExporters.add(exporter);
+			this.metricsExporters = newMetricsExporters;
+
+			for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n.getNext()) != end;) {
+				this.registerMetrics(exporter, n.getValue());
+			}
+		}
+	}
+
+	@Override
+	public void removeMetricsExporter(MetricsExporter exporter) {
+		synchronized (this) {
+			if (!this.metricsExporters.contains(exporter))
+				return;
+
+			FastList<MetricsExporter> newMetricsExporters = new FastList<MetricsExporter>();
+			newMetricsExporters.addAll(this.metricsExporters);
+			newMetricsExporters.remove(exporter);
+			this.metricsExporters = newMetricsExporters;
+
+			for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n.getNext()) != end;) {
+				this.unregisterMetrics(exporter, n.getValue());
+			}
+		}
+	}
+
+	private void registerMetrics(Association association) {
+		for (MetricsExporter exporter : this.metricsExporters) {
+			this.registerMetrics(exporter, association);
+		}
+	}
+
+	private void registerMetrics(MetricsExporter exporter, Association association) {
+		try {
+			exporter.register(this, association);
+		} catch (Throwable ee) {
+			logger.error(String.format("Exception while registering Association=%s with MetricsExporter", association.getName()), ee);
+		}
+	}
+
+	private void unregisterMetrics(Association association) {
+		for (MetricsExporter exporter : this.metricsExporters) {
+			this.unregisterMetrics(exporter, association);
+		}
+	}
+
+	private void unregisterMetrics(MetricsExporter exporter, Association association) {
+		try {
+			exporter.unregister(this, association);
+		} catch (Throwable ee) {
+			logger.error(String.format("Exception while unregistering Association=%s from MetricsExporter", association.getName()), ee);
+		}
+	}
+
 	@Override
 	public void modifyServer(String serverName, String hostAddress, Integer port, IpChannelType ipChannelType, Boolean acceptAnonymousConnections, Integer maxConcurrentConnectionsCount, String[] extraHostAddresses)
 			throws Exception {
@@ -1305,73 +2120,80 @@ public class ManagementImpl implements Management {
 				throw new Exception(String.format("No Association found for name=%s", assocName));
 			}
 
-			for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n.getNext()) != end;) {
-				Association associationTemp = n.getValue();
+			// peer address, port and server may all change, so reindex when
+			// done (also if only part of the changes got applied)
+			this.associationIndex.remove(association);
+			try {
+				for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n.getNext()) != end;) {
+					Association associationTemp = n.getValue();
 
-				if (peerAddress != null && peerAddress.equals(associationTemp.getPeerAddress()) && associationTemp.getPeerPort() == peerPort) {
-					throw new Exception(String.format("Already has association=%s with same peer address=%s and port=%d", associationTemp.getName(),
-							peerAddress, peerPort));
+					if (peerAddress != null && peerAddress.equals(associationTemp.getPeerAddress()) && associationTemp.getPeerPort() == peerPort) {
+						throw new Exception(String.format("Already has association=%s with same peer address=%s and port=%d", associationTemp.getName(),
+								peerAddress, peerPort));
+					}
 				}
-			}
 
-			if(peerAddress!=null)
-				association.setPeerAddress(peerAddress);
-			if(peerPort!= null)
-				association.setPeerPort(peerPort);
+				if(peerAddress!=null)
+					association.setPeerAddress(peerAddress);
+				if(peerPort!= null)
+					association.setPeerPort(peerPort);
 
-			if(serverName!=null && !serverName.equals(association.getServerName()))
-			{
-				Server newServer = null;
+				if(serverName!=null && !serverName.equals(association.getServerName()))
+				{
+					Server newServer = null;
 
-				for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
-					Server serverTemp = n.getValue();
-					if (serverTemp.getName().equals(serverName)) {
-						newServer = serverTemp;
+					for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
+						Server serverTemp = n.getValue();
+						if (serverTemp.getName().equals(serverName)) {
+							newServer = serverTemp;
+						}
 					}
-				}
 
-				if (newServer == null) {
-					throw new Exception(String.format("No Server found for name=%s", serverName));
-				}
-
-				if ((ipChannelType!=null && newServer.getIpChannelType() != ipChannelType)||(ipChannelType==null && newServer.getIpChannelType() != association.getIpChannelType()))
-					throw new Exception(String.format("Server and Accociation has different IP channel type"));
-
-				//remove association from current server
-				for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
-					Server serverTemp = n.getValue();
-					if (serverTemp.getName().equals(association.getServerName())) {
-						FastList<String> newAssociations2 = new FastList<String>();
-						newAssociations2.addAll(((ServerImpl) serverTemp).associations);
-						newAssociations2.remove(assocName);
-						((ServerImpl) serverTemp).associations = newAssociations2;
-						break;
+					if (newServer == null) {
+						throw new Exception(String.format("No Server found for name=%s", serverName));
 					}
-				}
 
-				//add association name to server
-				FastList<String> newAssociations2 = new FastList<String>();
-				newAssociations2.addAll(((ServerImpl) newServer).associations);
-				newAssociations2.add(assocName);
-				((ServerImpl) newServer).associations = newAssociations2;
+					if ((ipChannelType!=null && newServer.getIpChannelType() != ipChannelType)||(ipChannelType==null && newServer.getIpChannelType() != association.getIpChannelType()))
+						throw new Exception(String.format("Server and Accociation has different IP channel type"));
 
-				association.setServerName(serverName);
-			}
-			else
-			{
-				if(ipChannelType!=null)
-				{
+					//remove association from current server
 					for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
 						Server serverTemp = n.getValue();
 						if (serverTemp.getName().equals(association.getServerName())) {
-							if (serverTemp.getIpChannelType() != ipChannelType)
-								throw new Exception(String.format("Server and Accociation has different IP channel type"));
+							FastList<String> newAssociations2 = new FastList<String>();
+							newAssociations2.addAll(((ServerImpl) serverTemp).associations);
+							newAssociations2.remove(assocName);
+							((ServerImpl) serverTemp).associations = newAssociations2;
+							break;
 						}
 					}
 
-					association.setIpChannelType(ipChannelType);
+					//add association name to server
+					FastList<String> newAssociations2 = new FastList<String>();
+					newAssociations2.addAll(((ServerImpl) newServer).associations);
+					newAssociations2.add(assocName);
+					((ServerImpl) newServer).associations = newAssociations2;
+
+					association.setServerName(serverName);
 				}
+				else
+				{
+					if(ipChannelType!=null)
+					{
+						for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
+							Server serverTemp = n.getValue();
+							if (serverTemp.getName().equals(association.getServerName())) {
+								if (serverTemp.getIpChannelType() != ipChannelType)
+									throw new Exception(String.format("Server and Accociation has different IP channel type"));
+							}
+						}
+
+						association.setIpChannelType(ipChannelType);
+					}
 
+				}
+			} finally {
+				this.associationIndex.put(association);
 			}
 
 			this.store();
@@ -1465,6 +2287,8 @@ public class ManagementImpl implements Management {
 				association.start();
 			}
 
+			this.captureAddresses(association);
+
 			this.store();
 
 			for (ManagementEventListener lstr : managementEventListeners) {
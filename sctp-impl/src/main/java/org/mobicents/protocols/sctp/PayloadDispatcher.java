@@ -0,0 +1,251 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.mobicents.protocols.api.PayloadData;
+
+/**
+ * Hands received payloads over from the SelectorThread's to the worker
+ * threads when Management is not in single thread mode.
+ *
+ * Every worker thread owns one preallocated ring per SelectorThread. Each ring
+ * has exactly one producer (its SelectorThread) and one consumer (the worker),
+ * so publishing a payload is a plain array store plus a volatile write of the
+ * tail sequence: no lock, no per message allocation. As an Association stream
+ * always maps to the same worker (workerThreadTable) and an Association is
+ * read by a single SelectorThread, payloads of a stream stay in order.
+ *
+ * When a ring is full the SelectorThread waits for the worker, which stops
+ * it reading from its sockets until the workers catch up.
+ *
+ */
+public class PayloadDispatcher {
+
+	private static final Logger logger = Logger.getLogger(PayloadDispatcher.class);
+
+	private final WorkerThread[] workers;
+
+	private volatile boolean started = false;
+
+	/**
+	 * @param name
+	 *            Management name, used for thread names
+	 * @param workerThreads
+	 *            number of worker threads
+	 * @param producers
+	 *            number of SelectorThread's
+	 * @param ringSize
+	 *            capacity of each ring, rounded up to a power of 2
+	 */
+	protected PayloadDispatcher(String name, int workerThreads, int producers, int ringSize) {
+		int capacity = 1;
+		while (capacity < ringSize) {
+			capacity <<= 1;
+		}
+
+		this.workers = new WorkerThread[workerThreads];
+		for (int i = 0; i < workerThreads; i++) {
+			this.workers[i] = new WorkerThread(String.format("SctpWorker-%s-%d", name, i), producers, capacity);
+		}
+	}
+
+	protected void start() {
+		this.started = true;
+		for (WorkerThread worker : this.workers) {
+			worker.thread.start();
+		}
+	}
+
+	/**
+	 * Stops the worker threads once they have delivered what is already in
+	 * their rings, waiting up to timeout milliseconds for each
+	 */
+	protected void stop(long timeout) {
+		this.started = false;
+		for (WorkerThread worker : this.workers) {
+			LockSupport.unpark(worker.thread);
+		}
+		for (WorkerThread worker : this.workers) {
+			try {
+				worker.thread.join(timeout);
+			} catch (InterruptedException e) {
+				// Do we care?
+			}
+		}
+	}
+
+	/**
+	 * Publishes a payload to a worker. Must only be called by the
+	 * SelectorThread with the passed producer index.
+	 *
+	 * @param producer
+	 *            index of the calling SelectorThread
+	 * @param worker
+	 *            index of the worker thread
+	 * @param association
+	 * @param payloadData
+	 */
+	protected void dispatch(int producer, int worker, AssociationImpl association, PayloadData payloadData) {
+		WorkerThread workerThread = this.workers[worker];
+		Ring ring = workerThread.rings[producer];
+		while (!ring.offer(association, payloadData)) {
+			if (!this.started) {
+				association.getMetrics().onRxDropped();
+				logger.error(String.format("Rejected %s as worker threads are stopped", payloadData));
+				payloadData.release();
+				return;
+			}
+			// ring is full, let the worker catch up
+			LockSupport.unpark(workerThread.thread);
+			LockSupport.parkNanos(10000);
+		}
+
+		if (workerThread.sleeping) {
+			LockSupport.unpark(workerThread.thread);
+		}
+	}
+
+	/**
+	 * Single producer single consumer ring of (Association, PayloadData)
+	 */
+	private static final class Ring {
+		private final AssociationImpl[] associations;
+		private final PayloadData[] payloads;
+		private final int mask;
+
+		// next slot to be read, written by consumer only
+		private final AtomicLong head = new AtomicLong();
+		// next slot to be written, written by producer only
+		private final AtomicLong tail = new AtomicLong();
+
+		// producer's cached view of head, so it seldom reads the volatile
+		private long headCache = 0;
+
+		private Ring(int capacity) {
+			this.associations = new AssociationImpl[capacity];
+			this.payloads = new PayloadData[capacity];
+			this.mask = capacity - 1;
+		}
+
+		private boolean offer(AssociationImpl association, PayloadData payloadData) {
+			long t = this.tail.get();
+			if (t - this.headCache > this.mask) {
+				this.headCache = this.head.get();
+				if (t - this.headCache > this.mask)
+					return false;
+			}
+			int index = (int) t & this.mask;
+			this.associations[index] = association;
+			this.payloads[index] = payloadData;
+			// volatile write, so a worker going to sleep can not miss it
+			this.tail.set(t + 1);
+			return true;
+		}
+
+		private boolean isEmpty() {
+			return this.head.get() == this.tail.get();
+		}
+
+		/**
+		 * Delivers everything published so far
+		 *
+		 * @return number of payloads delivered
+		 */
+		private int drain() {
+			long h = this.head.get();
+			long t = this.tail.get();
+			if (h == t)
+				return 0;
+
+			for (long i = h; i < t; i++) {
+				int index = (int) i & this.mask;
+				AssociationImpl association = this.associations[index];
+				PayloadData payloadData = this.payloads[index];
+				this.associations[index] = null;
+				this.payloads[index] = null;
+
+				try {
+					association.getMetrics().onDispatched(payloadData);
+					association.getAssociationListener().onPayload(association, payloadData);
+				} catch (Throwable e) {
+					logger.error(String.format("Error while calling Listener for Association=%s.Payload=%s",
+							association.getName(), payloadData), e);
+				}
+			}
+			this.head.lazySet(t);
+			return (int) (t - h);
+		}
+	}
+
+	private final class WorkerThread implements Runnable {
+		private final Thread thread;
+		private final Ring[] rings;
+
+		// set while the worker is about to park, producers unpark it then
+		private volatile boolean sleeping = false;
+
+		private WorkerThread(String name, int producers, int capacity) {
+			this.rings = new Ring[producers];
+			for (int i = 0; i < producers; i++) {
+				this.rings[i] = new Ring(capacity);
+			}
+			this.thread = new Thread(this, name);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				int delivered = 0;
+				for (Ring ring : this.rings) {
+					delivered += ring.drain();
+				}
+				if (delivered > 0)
+					continue;
+
+				if (!started) {
+					// deliver whatever arrived while stopping, then die
+					boolean empty = true;
+					for (Ring ring : this.rings) {
+						empty &= ring.isEmpty();
+					}
+					if (empty)
+						break;
+					continue;
+				}
+
+				this.sleeping = true;
+				boolean empty = true;
+				for (Ring ring : this.rings) {
+					empty &= ring.isEmpty();
+				}
+				if (empty && started) {
+					LockSupport.parkNanos(100000000L);
+				}
+				this.sleeping = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.mobicents.protocols.api.PayloadData;
+
+/**
+ * Rebuilds the messages an SCTP socket delivers in parts (partial delivery,
+ * when a message does not fit the receive buffer) so the listener only gets
+ * complete messages, as the Netty stack does with SctpMessageCompletionHandler.
+ *
+ * The parts of a message are kept per stream in a CompositeByteBuf, without
+ * copying. The bytes held are capped per Association (Management
+ * RxReassemblyMaxBytes) and for all Associations together (Management
+ * RxReassemblyGlobalMaxBytes). A message that would go over a cap is dropped
+ * and counted, its remaining parts are discarded as they arrive.
+ *
+ * Parts are added by the SelectorThread of the Association, clear() may be
+ * called from any thread.
+ *
+ */
+public class PayloadReassembler {
+
+	private static final Logger logger = Logger.getLogger(PayloadReassembler.class);
+
+	// CompositeByteBuf copies its components into one buffer above this
+	private static final int MAX_COMPONENTS = 1024;
+
+	private final AssociationImpl association;
+
+	// message being rebuilt per stream number, grown on demand
+	private Partial[] partials = new Partial[0];
+
+	// bytes held by this Association
+	private int bytes = 0;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	protected PayloadReassembler(AssociationImpl association) {
+		this.association = association;
+	}
+
+	/**
+	 * Takes a received part of a message
+	 *
+	 * @param management
+	 * @param payloadData
+	 *            part read from the socket, owned by the reassembler from now
+	 * @return the complete message to be passed to the listener, or null if
+	 *         the message is not complete yet or has been dropped
+	 */
+	protected synchronized PayloadData add(ManagementImpl management, PayloadData payloadData) {
+		int streamNumber = payloadData.getStreamNumber();
+		int maxBytes = management.getRxReassemblyMaxBytes();
+		Partial partial = streamNumber < this.partials.length ? this.partials[streamNumber] : null;
+		boolean idle = partial == null || (partial.message == null && !partial.discarding);
+		if (idle && (payloadData.isComplete() || maxBytes == 0)) {
+			// not fragmented, or reassembly is off
+			return payloadData;
+		}
+
+		if (partial == null) {
+			if (streamNumber >= this.partials.length) {
+				Partial[] partials = new Partial[streamNumber + 1];
+				System.arraycopy(this.partials, 0, partials, 0, this.partials.length);
+				this.partials = partials;
+			}
+			partial = new Partial();
+			this.partials[streamNumber] = partial;
+		}
+
+		boolean complete = payloadData.isComplete();
+		if (partial.discarding) {
+			payloadData.release();
+			partial.discarding = !complete;
+			return null;
+		}
+
+		int len = payloadData.getByteBuf().readableBytes();
+		long globalMaxBytes = management.getRxReassemblyGlobalMaxBytes();
+		long globalBytes = management.addRxReassemblyBytes(len);
+		if ((maxBytes > 0 && this.bytes + len > maxBytes) || (globalMaxBytes > 0 && globalBytes > globalMaxBytes)) {
+			int size = len;
+			if (partial.message != null) {
+				size += partial.message.readableBytes();
+				partial.message.release();
+				partial.message = null;
+			}
+			this.bytes -= size - len;
+			management.addRxReassemblyBytes(-size);
+			payloadData.release();
+			partial.discarding = !complete;
+
+			this.dropped.incrementAndGet();
+			this.association.getMetrics().onRxDropped();
+			management.incrementRxReassemblyDropped();
+			logger.warn(String.format("Dropped a message of more than %d bytes on stream=%d for Association=%s, "
+					+ "held bytes=%d RxReassemblyMaxBytes=%d RxReassemblyGlobalMaxBytes=%d", size, streamNumber,
+					this.association.getName(), this.bytes, maxBytes, globalMaxBytes));
+			return null;
+		}
+
+		if (partial.message == null) {
+			partial.message = Unpooled.compositeBuffer(MAX_COMPONENTS);
+			partial.unordered = payloadData.isUnordered();
+			partial.payloadProtocolId = payloadData.getPayloadProtocolId();
+		}
+		partial.message.addComponent(payloadData.getByteBuf());
+		partial.message.writerIndex(partial.message.writerIndex() + len);
+		this.bytes += len;
+		// the ByteBuf now belongs to the CompositeByteBuf
+		payloadData.recycle();
+
+		if (!complete)
+			return null;
+
+		CompositeByteBuf message = partial.message;
+		partial.message = null;
+		int size = message.readableBytes();
+		this.bytes -= size;
+		management.addRxReassemblyBytes(-size);
+		return PayloadData.newInstance(size, message, true, partial.unordered, partial.payloadProtocolId, streamNumber);
+	}
+
+	/**
+	 * Releases the parts of all the messages being rebuilt, when the
+	 * connection is closed
+	 */
+	protected synchronized void clear(ManagementImpl management) {
+		for (Partial partial : this.partials) {
+			if (partial == null)
+				continue;
+			if (partial.message != null) {
+				management.addRxReassemblyBytes(-partial.message.readableBytes());
+				partial.message.release();
+				partial.message = null;
+			}
+			partial.discarding = false;
+		}
+		this.bytes = 0;
+	}
+
+	/**
+	 * @return number of messages dropped as they went over a cap
+	 */
+	protected long getDropped() {
+		return this.dropped.get();
+	}
+
+	private static final class Partial {
+		// null if no message is being rebuilt
+		private CompositeByteBuf message;
+		// true while the remaining parts of a dropped message arrive
+		private boolean discarding;
+		private boolean unordered;
+		private int payloadProtocolId;
+	}
+}
@@ -0,0 +1,702 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.NetUtil;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.PayloadData;
+
+/**
+ * Captures the payloads sent and received by Associations into pcapng files
+ * which can be opened with Wireshark.
+ *
+ * Each payload is written as a raw IP packet carrying an SCTP DATA chunk with
+ * the payload's stream number and PPID (also for TCP Associations), so
+ * Wireshark dissects M3UA etc. on top. Timestamps have nanosecond resolution.
+ *
+ * Association threads only copy the payload into a preallocated ring and never
+ * block: when the ring is full the payload is dropped from the capture and
+ * counted. A single writer thread drains the ring into memory mapped files of
+ * FileSize bytes, rotating to a new file when one is full and keeping at most
+ * MaxFiles of them. Files left by an earlier capture with the same prefix count
+ * for MaxFiles, and numbering goes on after them.
+ *
+ * <pre>
+ * PcapngCapture capture = new PcapngCapture(&quot;/var/log/sctp/m3ua&quot;);
+ * capture.addAssociationFilter(&quot;ASP1&quot;);
+ * capture.start();
+ * management.setCapture(capture);
+ * ...
+ * management.setCapture(null);
+ * capture.stop();
+ * </pre>
+ *
+ */
+public class PcapngCapture {
+
+	private static final Logger logger = Logger.getLogger(PcapngCapture.class);
+
+	private static final int BLOCK_SHB = 0x0A0D0D0A;
+	private static final int BLOCK_IDB = 0x00000001;
+	private static final int BLOCK_EPB = 0x00000006;
+	private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+	private static final int LINKTYPE_RAW = 101;
+
+	private static final int IPPROTO_SCTP = 132;
+
+	// EPB block without packet data: header, 5 fields, epb_flags option,
+	// opt_endofopt and trailing length
+	private static final int EPB_OVERHEAD = 8 + 20 + 8 + 4 + 4;
+
+	// Largest snap length keeping the 16 bit IPv4 total length, IPv6 payload
+	// length and DATA chunk length of a padded packet within 65535: IPv4
+	// header, SCTP common header and DATA chunk header take 48 bytes
+	public static final int MAX_SNAP_LENGTH = (65535 - 20 - 12 - 16) & ~3;
+
+	private final String filePrefix;
+
+	private volatile int fileSize = 64 * 1024 * 1024;
+	private volatile int maxFiles = 10;
+	private volatile int ringSize = 8192;
+	private volatile int snapLength = MAX_SNAP_LENGTH;
+	private volatile int sampleRate = 1;
+
+	// Names of the Associations to capture, empty means all
+	private final Set<String> associationFilter = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// Association addresses resolved ahead of the writer thread
+	private final ConcurrentHashMap<String, byte[]> addresses = new ConcurrentHashMap<String, byte[]>();
+
+	private final AtomicLong captured = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile boolean started = false;
+	private Ring ring;
+	private Thread writerThread;
+
+	// Epoch time in nanoseconds at System.nanoTime() == nanoBase
+	private long epochNanoBase;
+	private long nanoBase;
+
+	/**
+	 * @param filePrefix
+	 *            path and name prefix of the capture files, a sequence number
+	 *            and .pcapng are appended
+	 */
+	public PcapngCapture(String filePrefix) {
+		this.filePrefix = filePrefix;
+	}
+
+	public String getFilePrefix() {
+		return filePrefix;
+	}
+
+	public int getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Sets the size of each capture file. Can be updated only when capture is
+	 * not running.
+	 *
+	 * @param fileSize
+	 */
+	public void setFileSize(int fileSize) throws Exception {
+		if (this.started)
+			throw new Exception("FileSize parameter can be updated only when capture is NOT running");
+		if (fileSize < 1024 * 1024)
+			throw new Exception("FileSize must be at least 1 MB");
+
+		this.fileSize = fileSize;
+	}
+
+	public int getMaxFiles() {
+		return maxFiles;
+	}
+
+	/**
+	 * Sets how many capture files are kept, the oldest is deleted when
+	 * exceeded. 0 means no limit.
+	 *
+	 * @param maxFiles
+	 */
+	public void setMaxFiles(int maxFiles) throws Exception {
+		if (maxFiles < 0)
+			throw new Exception("MaxFiles can not be negative");
+
+		this.maxFiles = maxFiles;
+	}
+
+	public int getRingSize() {
+		return ringSize;
+	}
+
+	/**
+	 * Sets how many payloads may wait for the writer thread (rounded up to a
+	 * power of 2). Can be updated only when capture is not running.
+	 *
+	 * @param ringSize
+	 */
+	public void setRingSize(int ringSize) throws Exception {
+		if (this.started)
+			throw new Exception("RingSize parameter can be updated only when capture is NOT running");
+		if (ringSize < 16)
+			throw new Exception("RingSize must be at least 16");
+
+		this.ringSize = ringSize;
+	}
+
+	public int getSnapLength() {
+		return snapLength;
+	}
+
+	/**
+	 * Sets max number of payload bytes captured per message, at most
+	 * {@link #MAX_SNAP_LENGTH}
+	 *
+	 * @param snapLength
+	 */
+	public void setSnapLength(int snapLength) throws Exception {
+		if (snapLength < 1 || snapLength > MAX_SNAP_LENGTH)
+			throw new Exception(String.format("SnapLength must be between 1 and %d", MAX_SNAP_LENGTH));
+
+		this.snapLength = snapLength;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Captures on average 1 of every sampleRate payloads. 1 captures all.
+	 *
+	 * @param sampleRate
+	 */
+	public void setSampleRate(int sampleRate) throws Exception {
+		if (sampleRate < 1)
+			throw new Exception("SampleRate must be at least 1");
+
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Restricts the capture to the passed Association. If no Association is
+	 * added, all Associations are captured.
+	 *
+	 * @param assocName
+	 */
+	public void addAssociationFilter(String assocName) {
+		this.associationFilter.add(assocName);
+	}
+
+	public void removeAssociationFilter(String assocName) {
+		this.associationFilter.remove(assocName);
+	}
+
+	/**
+	 * Resolves the addresses of an Association, so that the writer thread
+	 * never waits for a name lookup. Called by the Management when an
+	 * Association is added or modified and when the capture is set. The
+	 * writer takes addresses given as IP literals as they are.
+	 *
+	 * @param association
+	 */
+	public void addAssociation(Association association) {
+		this.resolve(association.getHostAddress());
+		this.resolve(association.getPeerAddress());
+	}
+
+	private void resolve(String address) {
+		if (address == null || this.addresses.containsKey(address))
+			return;
+		byte[] bytes;
+		try {
+			bytes = InetAddress.getByName(address).getAddress();
+		} catch (IOException e) {
+			logger.warn(String.format("Capture can not resolve address %s", address));
+			bytes = new byte[4];
+		}
+		this.addresses.put(address, bytes);
+	}
+
+	/**
+	 * @return number of payloads written to the capture files
+	 */
+	public long getCaptured() {
+		return this.captured.get();
+	}
+
+	/**
+	 * @return number of payloads dropped from the capture as the writer
+	 *         thread could not keep up
+	 */
+	public long getDropped() {
+		return this.dropped.get();
+	}
+
+	public boolean isStarted() {
+		return this.started;
+	}
+
+	public synchronized void start() throws Exception {
+		if (this.started)
+			return;
+
+		int capacity = 1;
+		while (capacity < this.ringSize) {
+			capacity <<= 1;
+		}
+		this.ring = new Ring(capacity);
+
+		this.epochNanoBase = System.currentTimeMillis() * 1000000L;
+		this.nanoBase = System.nanoTime();
+
+		Writer writer = new Writer(this.ring);
+		writer.openFile();
+
+		this.started = true;
+		this.writerThread = new Thread(writer, String.format("SctpCapture-%s", new File(this.filePrefix).getName()));
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+
+		if (logger.isInfoEnabled()) {
+			logger.info(String.format("Started capture to %s FileSize=%d MaxFiles=%d SampleRate=%d Associations=%s",
+					this.filePrefix, this.fileSize, this.maxFiles, this.sampleRate,
+					(this.associationFilter.isEmpty() ? "all" : this.associationFilter)));
+		}
+	}
+
+	/**
+	 * Stops capture once the writer thread has written what is already in the
+	 * ring
+	 */
+	public synchronized void stop() {
+		if (!this.started)
+			return;
+
+		this.started = false;
+		LockSupport.unpark(this.writerThread);
+		try {
+			this.writerThread.join(5000);
+		} catch (InterruptedException e) {
+			// Do we care?
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info(String.format("Stopped capture to %s Captured=%d Dropped=%d", this.filePrefix,
+					this.captured.get(), this.dropped.get()));
+		}
+	}
+
+	/**
+	 * Copies a payload into the capture ring, if it passes the filters. Never
+	 * blocks. Must be called before the payload's ByteBuf is released.
+	 *
+	 * @param association
+	 * @param tx
+	 *            true for sent, false for received payloads
+	 * @param payloadData
+	 */
+	public void capture(Association association, boolean tx, PayloadData payloadData) {
+		if (!this.started)
+			return;
+		if (!this.associationFilter.isEmpty() && !this.associationFilter.contains(association.getName()))
+			return;
+		int rate = this.sampleRate;
+		if (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0)
+			return;
+
+		if (!this.ring.offer(association, tx, payloadData, this.snapLength, this.epochNanoBase + System.nanoTime()
+				- this.nanoBase))
+			this.dropped.incrementAndGet();
+	}
+
+	private static final class Record {
+		private Association association;
+		private boolean tx;
+		private int streamNumber;
+		private int payloadProtocolId;
+		private boolean unordered;
+		private long timestamp;
+		private int length;
+		private int originalLength;
+		private byte[] data = new byte[256];
+	}
+
+	/**
+	 * Bounded multi producer single consumer ring of preallocated Records.
+	 * A producer claims a slot by advancing tail, the slot's sequence tells the
+	 * consumer when it has been filled and the producers when it is free again.
+	 */
+	private static final class Ring {
+		private final Record[] records;
+		private final AtomicLongArray sequences;
+		private final int mask;
+
+		private final AtomicLong tail = new AtomicLong();
+		// touched by the writer thread only
+		private long head = 0;
+
+		private Ring(int capacity) {
+			this.records = new Record[capacity];
+			this.sequences = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				this.records[i] = new Record();
+				this.sequences.set(i, i);
+			}
+			this.mask = capacity - 1;
+		}
+
+		private boolean offer(Association association, boolean tx, PayloadData payloadData, int snapLength,
+				long timestamp) {
+			long t;
+			int index;
+			while (true) {
+				t = this.tail.get();
+				index = (int) t & this.mask;
+				long seq = this.sequences.get(index);
+				if (seq < t)
+					return false; // full
+				if (seq == t && this.tail.compareAndSet(t, t + 1))
+					break;
+			}
+
+			Record record = this.records[index];
+			ByteBuf byteBuf = payloadData.getByteBuf();
+			int length = Math.min(byteBuf.readableBytes(), snapLength);
+			if (record.data.length < length)
+				record.data = new byte[length];
+			byteBuf.getBytes(byteBuf.readerIndex(), record.data, 0, length);
+
+			record.association = association;
+			record.tx = tx;
+			record.streamNumber = payloadData.getStreamNumber();
+			record.payloadProtocolId = payloadData.getPayloadProtocolId();
+			record.unordered = payloadData.isUnordered();
+			record.timestamp = timestamp;
+			record.length = length;
+			record.originalLength = byteBuf.readableBytes();
+
+			this.sequences.lazySet(index, t + 1);
+			return true;
+		}
+
+		/**
+		 * @return the next filled Record or null. The Record must be handed
+		 *         back by {@link #release(Record)}
+		 */
+		private Record peek() {
+			int index = (int) this.head & this.mask;
+			if (this.sequences.get(index) != this.head + 1)
+				return null;
+			return this.records[index];
+		}
+
+		private void release(Record record) {
+			record.association = null;
+			int index = (int) this.head & this.mask;
+			this.sequences.lazySet(index, this.head + this.records.length);
+			this.head++;
+		}
+	}
+
+	private final class Writer implements Runnable {
+		private final Ring ring;
+
+		private final ArrayDeque<File> files = new ArrayDeque<File>();
+		private int fileSequence = 0;
+		private RandomAccessFile file;
+		private MappedByteBuffer buffer;
+
+		// TSN of the DATA chunks written, for sent and received payloads
+		private int txTsn = 0;
+		private int rxTsn = 0;
+
+		private Writer(Ring ring) {
+			this.ring = ring;
+			this.scanFiles();
+		}
+
+		/**
+		 * Picks up the capture files of an earlier run with the same prefix,
+		 * oldest first
+		 */
+		private void scanFiles() {
+			File prefix = new File(filePrefix).getAbsoluteFile();
+			File[] found = prefix.getParentFile() != null ? prefix.getParentFile().listFiles() : null;
+			if (found == null)
+				return;
+
+			String head = prefix.getName() + "_";
+			String tail = ".pcapng";
+			TreeMap<Integer, File> sequences = new TreeMap<Integer, File>();
+			for (File f : found) {
+				String name = f.getName();
+				if (name.startsWith(head) && name.endsWith(tail) && name.length() > head.length() + tail.length()) {
+					try {
+						sequences.put(Integer.parseInt(name.substring(head.length(), name.length() - tail.length())), f);
+					} catch (NumberFormatException e) {
+						// not a capture file of this prefix
+					}
+				}
+			}
+			if (!sequences.isEmpty()) {
+				this.files.addAll(sequences.values());
+				this.fileSequence = sequences.lastKey();
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				int written = 0;
+				Record record;
+				while ((record = this.ring.peek()) != null) {
+					try {
+						this.write(record);
+						captured.incrementAndGet();
+					} catch (Exception e) {
+						logger.error(String.format("Error while writing capture to %s", filePrefix), e);
+					}
+					this.ring.release(record);
+					written++;
+				}
+
+				if (written == 0) {
+					if (!started && this.ring.peek() == null)
+						break;
+					LockSupport.parkNanos(1000000L);
+				}
+			}
+
+			this.closeFile();
+		}
+
+		private void openFile() throws IOException {
+			this.fileSequence++;
+			File f = new File(String.format("%s_%05d.pcapng", filePrefix, this.fileSequence));
+			this.file = new RandomAccessFile(f, "rw");
+			this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+			this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			this.files.add(f);
+			int max = maxFiles;
+			while (max > 0 && this.files.size() > max) {
+				File oldest = this.files.poll();
+				if (!oldest.delete())
+					logger.warn(String.format("Could not delete capture file %s", oldest));
+			}
+
+			// Section Header Block
+			this.buffer.putInt(BLOCK_SHB);
+			this.buffer.putInt(28);
+			this.buffer.putInt(BYTE_ORDER_MAGIC);
+			this.buffer.putShort((short) 1);
+			this.buffer.putShort((short) 0);
+			this.buffer.putLong(-1L); // section length not specified
+			this.buffer.putInt(28);
+
+			// Interface Description Block with if_tsresol = 9 (nanoseconds)
+			this.buffer.putInt(BLOCK_IDB);
+			this.buffer.putInt(32);
+			this.buffer.putShort((short) LINKTYPE_RAW);
+			this.buffer.putShort((short) 0);
+			this.buffer.putInt(0); // no snap length
+			this.buffer.putShort((short) 9);
+			this.buffer.putShort((short) 1);
+			this.buffer.put((byte) 9);
+			this.buffer.put((byte) 0);
+			this.buffer.putShort((short) 0);
+			this.buffer.putInt(0); // opt_endofopt
+			this.buffer.putInt(32);
+		}
+
+		private void closeFile() {
+			if (this.file == null)
+				return;
+			try {
+				this.buffer.force();
+				int length = this.buffer.position();
+				// unmap before cutting the unused tail, a file can not be
+				// truncated while mapped on every platform
+				PlatformDependent.freeDirectBuffer(this.buffer);
+				this.buffer = null;
+				this.file.setLength(length);
+				this.file.close();
+			} catch (IOException e) {
+				logger.error(String.format("Error while closing capture file of %s", filePrefix), e);
+			}
+			this.file = null;
+			this.buffer = null;
+		}
+
+		private void write(Record record) throws IOException {
+			Association association = record.association;
+			byte[] local = this.resolve(association.getHostAddress());
+			byte[] peer = this.resolve(association.getPeerAddress());
+			if (local.length != peer.length) {
+				local = toIpv6(local);
+				peer = toIpv6(peer);
+			}
+			byte[] src = record.tx ? local : peer;
+			byte[] dst = record.tx ? peer : local;
+			int srcPort = record.tx ? association.getHostPort() : association.getPeerPort();
+			int dstPort = record.tx ? association.getPeerPort() : association.getHostPort();
+
+			int padding = (4 - (record.length & 3)) & 3;
+			int chunkLength = 16 + record.length;
+			int sctpLength = 12 + chunkLength + padding;
+			int ipHeaderLength = (src.length == 4 ? 20 : 40);
+			int packetLength = ipHeaderLength + sctpLength;
+			int originalLength = packetLength + record.originalLength - record.length;
+			int blockLength = EPB_OVERHEAD + packetLength;
+
+			if (this.buffer.remaining() < blockLength) {
+				this.closeFile();
+				this.openFile();
+			}
+
+			MappedByteBuffer b = this.buffer;
+
+			// Enhanced Packet Block
+			b.putInt(BLOCK_EPB);
+			b.putInt(blockLength);
+			b.putInt(0); // interface id
+			b.putInt((int) (record.timestamp >>> 32));
+			b.putInt((int) record.timestamp);
+			b.putInt(packetLength);
+			b.putInt(originalLength);
+
+			// packet data is in network byte order
+			b.order(ByteOrder.BIG_ENDIAN);
+			if (src.length == 4) {
+				int start = b.position();
+				b.put((byte) 0x45);
+				b.put((byte) 0);
+				b.putShort((short) packetLength);
+				b.putInt(0x00004000); // id 0, DF
+				b.put((byte) 64);
+				b.put((byte) IPPROTO_SCTP);
+				b.putShort((short) 0);
+				b.put(src);
+				b.put(dst);
+				b.putShort(start + 10, ipv4Checksum(b, start));
+			} else {
+				b.putInt(0x60000000);
+				b.putShort((short) sctpLength);
+				b.put((byte) IPPROTO_SCTP);
+				b.put((byte) 64);
+				b.put(src);
+				b.put(dst);
+			}
+
+			// SCTP common header, verification tag and checksum left 0
+			b.putShort((short) srcPort);
+			b.putShort((short) dstPort);
+			b.putInt(0);
+			b.putInt(0);
+
+			// DATA chunk
+			b.put((byte) 0);
+			b.put((byte) (record.unordered ? 0x07 : 0x03));
+			b.putShort((short) chunkLength);
+			b.putInt(record.tx ? this.txTsn++ : this.rxTsn++);
+			b.putShort((short) record.streamNumber);
+			b.putShort((short) 0);
+			b.putInt(record.payloadProtocolId);
+			b.put(record.data, 0, record.length);
+			for (int i = 0; i < padding; i++) {
+				b.put((byte) 0);
+			}
+			b.order(ByteOrder.LITTLE_ENDIAN);
+
+			// epb_flags: direction inbound = 1, outbound = 2
+			b.putShort((short) 2);
+			b.putShort((short) 4);
+			b.putInt(record.tx ? 2 : 1);
+			b.putInt(0); // opt_endofopt
+
+			b.putInt(blockLength);
+		}
+
+		private byte[] resolve(String address) {
+			if (address == null)
+				address = "0.0.0.0";
+			byte[] bytes = addresses.get(address);
+			if (bytes == null) {
+				// no name lookup here, a host name not resolved by
+				// addAssociation() is written as 0.0.0.0
+				bytes = NetUtil.createByteArrayFromIpAddressString(address);
+				if (bytes == null) {
+					logger.warn(String.format("Capture has no resolved address for %s", address));
+					bytes = new byte[4];
+				}
+				addresses.put(address, bytes);
+			}
+			return bytes;
+		}
+	}
+
+	private static byte[] toIpv6(byte[] address) {
+		if (address.length == 16)
+			return address;
+		// IPv4 mapped IPv6 address
+		byte[] mapped = new byte[16];
+		mapped[10] = (byte) 0xff;
+		mapped[11] = (byte) 0xff;
+		System.arraycopy(address, 0, mapped, 12, 4);
+		return mapped;
+	}
+
+	private static short ipv4Checksum(MappedByteBuffer b, int start) {
+		int sum = 0;
+		for (int i = 0; i < 20; i += 2) {
+			sum += b.getShort(start + i) & 0xffff;
+		}
+		while ((sum >> 16) != 0) {
+			sum = (sum & 0xffff) + (sum >> 16);
+		}
+		return (short) ~sum;
+	}
+}
@@ -35,12 +35,13 @@ import java.nio.channels.spi.AbstractSelectableChannel;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import javolution.util.FastList;
-import javolution.util.FastMap;
 
 import org.apache.log4j.Logger;
-import org.mobicents.protocols.api.Association;
 import org.mobicents.protocols.api.IpChannelType;
 import org.mobicents.protocols.api.Server;
 
@@ -63,14 +64,85 @@ public class SelectorThread implements Runnable {
 
 	protected volatile boolean started = true;
 
+	// index of this SelectorThread in the Management's selector pool
+	private final int index;
+
+	// ChangeRequest's to be processed by this SelectorThread only. Any
+	// thread may offer, only this SelectorThread polls
+	private final ConcurrentLinkedQueue<ChangeRequest> pendingChanges = new ConcurrentLinkedQueue<ChangeRequest>();
+
+	// Number of Associations currently served by this SelectorThread
+	private final AtomicInteger associationCount = new AtomicInteger();
+
+	// true once a wakeup has been issued and the Selector has not come back
+	// to process pendingChanges yet
+	private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
+	// Number of Selector.wakeup() calls actually issued
+	private final AtomicLong wakeupCount = new AtomicLong();
+
 	/**
 	 * @param selector
 	 * @param management
+	 * @param index
 	 */
-	protected SelectorThread(Selector selector, ManagementImpl management) {
+	protected SelectorThread(Selector selector, ManagementImpl management, int index) {
 		super();
 		this.selector = selector;
 		this.management = management;
+		this.index = index;
+	}
+
+	/**
+	 * @return the selector
+	 */
+	protected Selector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * Queues a ChangeRequest to be processed by this SelectorThread before
+	 * its next select. Safe to call from any thread. Caller should call
+	 * {@link #wakeup()} if the change must not wait for the select timeout.
+	 * 
+	 * @param change
+	 */
+	protected void addChangeRequest(ChangeRequest change) {
+		this.pendingChanges.offer(change);
+	}
+
+	/**
+	 * @return the index
+	 */
+	protected int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the associationCount
+	 */
+	protected AtomicInteger getAssociationCount() {
+		return associationCount;
+	}
+
+	/**
+	 * Wakes up the Selector so pendingChanges are processed without waiting
+	 * for the select timeout. Only the first caller after the SelectorThread
+	 * last went over pendingChanges issues Selector.wakeup(), the others are
+	 * covered by that wakeup.
+	 */
+	protected void wakeup() {
+		if (this.wakeupPending.compareAndSet(false, true)) {
+			this.wakeupCount.incrementAndGet();
+			this.selector.wakeup();
+		}
+	}
+
+	/**
+	 * @return the number of Selector.wakeup() calls issued
+	 */
+	protected long getWakeupCount() {
+		return this.wakeupCount.get();
 	}
 
 	/**
@@ -89,44 +161,23 @@ public class SelectorThread implements Runnable {
 	@Override
 	public void run() {
 		if (logger.isInfoEnabled()) {
-			logger.info(String.format("SelectorThread for Management=%s started.", this.management.getName()));
+			logger.info(String.format("SelectorThread-%d for Management=%s started.", this.index, this.management.getName()));
 		}
 		while (this.started) {
 			try {
-				FastList<ChangeRequest> pendingChanges = this.management.getPendingChanges();
+				// Reset before going over pendingChanges, so a change offered
+				// after this point wakes up the coming select
+				this.wakeupPending.set(false);
 
 				// Process any pending changes
-				synchronized (pendingChanges) {
-					Iterator<ChangeRequest> changes = pendingChanges.iterator();
-					while (changes.hasNext()) {
-						ChangeRequest change = changes.next();
-						switch (change.getType()) {
-						case ChangeRequest.CHANGEOPS:
-							pendingChanges.remove(change);
-							SelectionKey key = change.getSocketChannel().keyFor(this.selector);
-							key.interestOps(change.getOps());
-							break;
-						case ChangeRequest.REGISTER:
-							pendingChanges.remove(change);
-							SelectionKey key1 = change.getSocketChannel().register(this.selector, change.getOps());
-							key1.attach(change.getAssociation());
-							break;
-						case ChangeRequest.CONNECT:
-							if (!change.getAssociation().isStarted()) {
-								// if Association is stopped - remove pending connection requests  
-								pendingChanges.remove(change);
-							} else {
-								if (change.getExecutionTime() <= System.currentTimeMillis()) {
-									pendingChanges.remove(change);
-									change.getAssociation().initiateConnection();
-								}
-							}
-							break;
-						case ChangeRequest.CLOSE:
-							pendingChanges.remove(change);
-							change.getAssociation().close();
-						}
-					}// end of while
+				ChangeRequest change;
+				while ((change = this.pendingChanges.poll()) != null) {
+					try {
+						this.processChangeRequest(change);
+					} catch (Exception e) {
+						logger.error(String.format("Error while processing ChangeRequest type=%d for Association=%s",
+								change.getType(), change.getAssociation()), e);
+					}
 				}
 
 				// Wait for an event one of the registered channels
@@ -151,10 +202,14 @@ public class SelectorThread implements Runnable {
 						this.finishConnection(key);
 					} else if (key.isAcceptable()) {
 						this.accept(key);
-					} else if (key.isReadable()) {
-						this.read(key);
-					} else if (key.isWritable()) {
-						this.write(key);
+					} else {
+						// OP_WRITE is set along with OP_READ, so serve both
+						if (key.isReadable()) {
+							this.read(key);
+						}
+						if (key.isValid() && key.isWritable()) {
+							this.write(key);
+						}
 					}
 				}
 
@@ -170,7 +225,41 @@ public class SelectorThread implements Runnable {
 		}
 
 		if (logger.isInfoEnabled()) {
-			logger.info(String.format("SelectorThread for Management=%s stopped.", this.management.getName()));
+			logger.info(String.format("SelectorThread-%d for Management=%s stopped.", this.index, this.management.getName()));
+		}
+	}
+
+	private void processChangeRequest(ChangeRequest change) throws IOException {
+		switch (change.getType()) {
+		case ChangeRequest.CHANGEOPS:
+			SelectionKey key = change.getSocketChannel().keyFor(this.selector);
+			if (key == null || !key.isValid()) {
+				// channel closed or not registered with this Selector (any more)
+				if (change.getAssociation() != null)
+					change.getAssociation().clearWriteInterest();
+				break;
+			}
+			key.interestOps(change.getOps());
+			break;
+		case ChangeRequest.REGISTER:
+			SelectionKey key1 = change.getSocketChannel().register(this.selector, change.getOps());
+			key1.attach(change.getAssociation());
+			break;
+		case ChangeRequest.CONNECT:
+			// queued by the Management timer once the reconnect delay is over.
+			// initiateConnection() drops it if Association is stopped
+			change.getAssociation().initiateConnection();
+			break;
+		case ChangeRequest.CONNECT_TIMEOUT:
+			change.getAssociation().checkConnectTimeout(change.getSocketChannel());
+			break;
+		case ChangeRequest.CLOSE:
+			change.getAssociation().close();
+			break;
+		case ChangeRequest.CONGESTION:
+			// a sender moved the outbound queue over or under a threshold
+			change.getAssociation().updateCongestionLevel();
+			break;
 		}
 	}
 
@@ -232,51 +321,39 @@ public class SelectorThread implements Runnable {
 						firstPort = port;
 					}
 
-					// Iterate through all corresponding associate to
-					// check if incoming connection request matches with any provisioned
-					// ip:port
-					FastMap<String, Association> associations = this.management.associations;
-
-					for (FastMap.Entry<String, Association> n = associations.head(), end = associations.tail(); (n = n.getNext()) != end && !provisioned;) {
-						AssociationImpl association = (AssociationImpl)n.getValue();
-						
-						// check if an association binds to the found server
-						if (srv.getName().equals(association.getServerName())) {
-
-							// compare port and ip of remote with provisioned
-							if ((port == association.getPeerPort()) && (inetAddress.getHostAddress().equals(association.getPeerAddress()))) {
-								provisioned = true;
-
-								if (!association.isStarted()) {
-									logger.error(String.format("Received connect request for Association=%s but not started yet. Droping the connection! ",
-											association.getName()));
-									socketChannel.close();
-									break;
-								}
-
-								((AssociationImpl) association).setSocketChannel(socketChannel);
-
-								// Accept the connection and make it non-blocking
-								socketChannel.configureBlocking(false);
-
-								// Register the new SocketChannel with our Selector,
-								// indicating we'd like to be notified when there's data
-								// waiting to be read
-								SelectionKey key1 = socketChannel.register(this.selector, SelectionKey.OP_READ);
-								key1.attach(association);
-
-								if (logger.isInfoEnabled()) {
-									logger.info(String.format("Connected %s", association));
-								}
-
-								if (association.getIpChannelType() == IpChannelType.TCP) {
-									AssocChangeEvent ace = AssocChangeEvent.COMM_UP;
-									AssociationChangeNotification2 acn = new AssociationChangeNotification2(ace);
-									association.associationHandler.handleNotification(acn, association);
-								}
-
-								break;
-							}
+					// check if incoming connection request matches with any
+					// provisioned ip:port of the found server
+					AssociationImpl association = (AssociationImpl) this.management.getAssociationIndex().get(srv.getName(),
+							inetAddress.getHostAddress(), port);
+					if (association != null) {
+						provisioned = true;
+
+						if (!association.isStarted()) {
+							logger.error(String.format("Received connect request for Association=%s but not started yet. Droping the connection! ",
+									association.getName()));
+							socketChannel.close();
+							break;
+						}
+
+						association.setSocketChannel(socketChannel);
+
+						// Accept the connection and make it non-blocking
+						socketChannel.configureBlocking(false);
+
+						// Register the new SocketChannel with the Selector
+						// of the SelectorThread chosen for this Association,
+						// indicating we'd like to be notified when there's data
+						// waiting to be read
+						this.register(socketChannel, association);
+
+						if (logger.isInfoEnabled()) {
+							logger.info(String.format("Connected %s", association));
+						}
+
+						if (association.getIpChannelType() == IpChannelType.TCP) {
+							AssocChangeEvent ace = AssocChangeEvent.COMM_UP;
+							AssociationChangeNotification2 acn = new AssociationChangeNotification2(ace);
+							association.associationHandler.handleNotification(acn, association);
 						}
 					}
 
@@ -329,11 +406,11 @@ public class SelectorThread implements Runnable {
 						return;
 					}
 
-					// Register the new SocketChannel with our Selector,
-					// indicating we'd like to be notified when there's data
-					// waiting to be read
-					SelectionKey key1 = socketChannel.register(this.selector, SelectionKey.OP_READ);
-					key1.attach(anonymAssociation);
+					// Register the new SocketChannel with the Selector of the
+					// SelectorThread chosen for this Association, indicating
+					// we'd like to be notified when there's data waiting to be
+					// read
+					this.register(socketChannel, anonymAssociation);
 
 					if (logger.isInfoEnabled()) {
 						logger.info(String.format("Accepted anonymous %s", anonymAssociation));
@@ -360,6 +437,20 @@ public class SelectorThread implements Runnable {
 		}
 	}
 
+	private void register(AbstractSelectableChannel socketChannel, AssociationImpl association) throws ClosedChannelException {
+		SelectorThread selectorThread = this.management.assignSelectorThread(association);
+		if (selectorThread == this) {
+			SelectionKey key1 = socketChannel.register(this.selector, SelectionKey.OP_READ);
+			key1.attach(association);
+		} else {
+			// The channel belongs to another SelectorThread. Queue the
+			// registration there, so only that thread touches its Selector
+			selectorThread.addChangeRequest(new ChangeRequest(socketChannel, association, ChangeRequest.REGISTER,
+					SelectionKey.OP_READ));
+			selectorThread.wakeup();
+		}
+	}
+
 	private void finishConnection(SelectionKey key) throws IOException{
 		AssociationImpl association = (AssociationImpl) key.attachment();
 		if (association.getIpChannelType() == IpChannelType.SCTP)
@@ -374,13 +465,12 @@ public class SelectorThread implements Runnable {
 		try {
 			SctpChannel socketChannel = (SctpChannel) key.channel();
 
-			if (socketChannel.isConnectionPending()) {
-
-				// TODO Loop? Or may be sleep for while?
-				while (socketChannel.isConnectionPending()) {
-					socketChannel.finishConnect();
-				}
+			if (socketChannel.isConnectionPending() && !socketChannel.finishConnect()) {
+				// Not established yet, wait for the next OP_CONNECT. A connect
+				// which never completes is aborted by the connect timeout
+				return;
 			}
+			association.cancelConnectTimer();
 
 			if (logger.isInfoEnabled()) {
 				logger.info(String.format("Association=%s connected to=%s", association.getName(), socketChannel.getRemoteAddresses()));
@@ -400,13 +490,12 @@ public class SelectorThread implements Runnable {
 
 		try {
 			SocketChannel socketChannel = (SocketChannel) key.channel();
-			if (socketChannel.isConnectionPending()) {
-
-				// TODO Loop? Or may be sleep for while?
-				while (socketChannel.isConnectionPending()) {
-					socketChannel.finishConnect();
-				}
+			if (socketChannel.isConnectionPending() && !socketChannel.finishConnect()) {
+				// Not established yet, wait for the next OP_CONNECT. A connect
+				// which never completes is aborted by the connect timeout
+				return;
 			}
+			association.cancelConnectTimer();
 
 			if (logger.isInfoEnabled()) {
 				logger.info(String.format("Association=%s connected to=%s", association.getName(), socketChannel.getRemoteAddress()));
@@ -428,7 +517,7 @@ public class SelectorThread implements Runnable {
 
 	private void read(SelectionKey key) throws IOException {
 		AssociationImpl association = (AssociationImpl) key.attachment();
-		association.read();
+		association.read(key, this.index);
 	}
 
 	private void write(SelectionKey key) throws IOException {
@@ -0,0 +1,53 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+/**
+ * Policy used by {@link ManagementImpl} to pick the {@link SelectorThread} an
+ * Association is served by when it connects or is accepted.
+ *
+ * <ul>
+ * <li>HASH - the Association name (or peer address:port for anonymous
+ * Associations) is hashed onto the selector threads, so an Association always
+ * lands on the same thread</li>
+ * <li>LEAST_LOAD - the selector thread currently serving the fewest
+ * Associations is chosen</li>
+ * </ul>
+ * An Association keeps its selector thread over reconnects until it is
+ * stopped or removed.
+ *
+ */
+public enum SelectorThreadPolicy {
+	HASH, LEAST_LOAD;
+
+	public static SelectorThreadPolicy getSelectorThreadPolicy(String policy) {
+		if (policy == null) {
+			return null;
+		} else if (policy.equalsIgnoreCase(HASH.name())) {
+			return HASH;
+		} else if (policy.equalsIgnoreCase(LEAST_LOAD.name())) {
+			return LEAST_LOAD;
+		} else {
+			return null;
+		}
+	}
+}
@@ -38,6 +38,7 @@ import org.apache.log4j.Logger;
 import org.mobicents.protocols.api.Association;
 import org.mobicents.protocols.api.IpChannelType;
 import org.mobicents.protocols.api.Server;
+import org.mobicents.protocols.api.TcpFrameDecoder;
 
 import com.sun.nio.sctp.SctpServerChannel;
 
@@ -73,6 +74,8 @@ public class ServerImpl implements Server {
 	private boolean acceptAnonymousConnections;
 	private int maxConcurrentConnectionsCount;
 	private String[] extraHostAddresses;
+	// not persisted, set by the application at runtime
+	private volatile TcpFrameDecoder tcpFrameDecoder;
 
 	private ManagementImpl management = null;
 
@@ -162,15 +165,12 @@ public class ServerImpl implements Server {
 		// accepting new connections
 		// this.serverChannel.register(socketSelector, SelectionKey.OP_ACCEPT);
 
-		FastList<ChangeRequest> pendingChanges = this.management.getPendingChanges();
-		synchronized (pendingChanges) {
+		SelectorThread selectorThread = this.management.getServerSelectorThread(this.name);
+		// Indicate we want the interest ops set changed
+		selectorThread.addChangeRequest(new ChangeRequest(this.getIpChannel(), null, ChangeRequest.REGISTER,
+				SelectionKey.OP_ACCEPT));
 
-			// Indicate we want the interest ops set changed
-			pendingChanges.add(new ChangeRequest(this.getIpChannel(), null, ChangeRequest.REGISTER,
-					SelectionKey.OP_ACCEPT));
-		}
-
-		this.management.getSocketSelector().wakeup();
+		selectorThread.wakeup();
 	}
 
 	private void doInitSocketSctp() throws IOException {
@@ -234,6 +234,14 @@ public class ServerImpl implements Server {
 	public List<Association> getAnonymAssociations() {
 		return this.anonymAssociations.unmodifiable();
 	}
+
+	public TcpFrameDecoder getTcpFrameDecoder() {
+		return this.tcpFrameDecoder;
+	}
+
+	public void setTcpFrameDecoder(TcpFrameDecoder tcpFrameDecoder) {
+		this.tcpFrameDecoder = tcpFrameDecoder;
+	}
 	
 	protected AbstractSelectableChannel getIpChannel() {
 		if (this.ipChannelType == IpChannelType.SCTP)
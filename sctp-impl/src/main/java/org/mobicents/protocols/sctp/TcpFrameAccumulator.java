@@ -0,0 +1,132 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.List;
+
+import org.mobicents.protocols.api.TcpFrameDecoder;
+
+/**
+ * Cuts the bytes read from a TCP connection into PDUs with a
+ * {@link TcpFrameDecoder}, for both stacks. PDUs are slices of the read
+ * buffers. The bytes of a PDU not complete yet are kept, and the next read is
+ * appended to them through a CompositeByteBuf, so nothing is copied either.
+ *
+ * One instance per connection. add() is called by the thread reading the
+ * connection, clear() by whoever closes it.
+ *
+ */
+public class TcpFrameAccumulator {
+
+	// CompositeByteBuf copies its components into one buffer above this
+	private static final int MAX_COMPONENTS = 1024;
+
+	private final TcpFrameDecoder decoder;
+
+	// received bytes not passed up yet, null if none
+	private ByteBuf cumulation;
+
+	private boolean closed = false;
+
+	public TcpFrameAccumulator(TcpFrameDecoder decoder) {
+		this.decoder = decoder;
+	}
+
+	/**
+	 * Appends the bytes read and cuts all complete PDUs
+	 *
+	 * @param in
+	 *            bytes read, owned by the accumulator from now
+	 * @param frames
+	 *            the PDUs are added to it. The caller owns them and passes
+	 *            each on in a PayloadData
+	 * @throws Exception
+	 *             thrown by the decoder, the connection has to be closed
+	 */
+	public synchronized void add(ByteBuf in, List<ByteBuf> frames) throws Exception {
+		if (this.closed) {
+			in.release();
+			return;
+		}
+
+		if (this.cumulation == null) {
+			this.cumulation = in;
+		} else if (this.cumulation instanceof CompositeByteBuf && this.cumulation.readerIndex() == 0) {
+			// a long PDU arriving in many reads, nothing has been sliced yet
+			((CompositeByteBuf) this.cumulation).addComponent(in);
+			this.cumulation.writerIndex(this.cumulation.writerIndex() + in.readableBytes());
+		} else {
+			CompositeByteBuf composite = Unpooled.compositeBuffer(MAX_COMPONENTS);
+			composite.addComponent(this.cumulation);
+			composite.addComponent(in);
+			composite.writerIndex(this.cumulation.readableBytes() + in.readableBytes());
+			this.cumulation = composite;
+		}
+
+		try {
+			while (this.cumulation.isReadable()) {
+				int length = this.decoder.frameLength(this.cumulation);
+				if (length < 0 || length > this.cumulation.readableBytes())
+					break;
+				if (length == 0)
+					throw new Exception("TcpFrameDecoder returned a PDU length of 0");
+				frames.add(this.cumulation.readSlice(length).retain());
+			}
+		} catch (Exception e) {
+			this.clear();
+			throw e;
+		}
+
+		if (!this.cumulation.isReadable()) {
+			this.cumulation.release();
+			this.cumulation = null;
+		} else if (this.cumulation.readerIndex() > 0) {
+			// keep only the bytes of the incomplete PDU, the PDUs passed up
+			// hold their own reference on the buffers they are sliced from
+			ByteBuf rest = this.cumulation.readSlice(this.cumulation.readableBytes()).retain();
+			this.cumulation.release();
+			this.cumulation = rest;
+		}
+	}
+
+	/**
+	 * Releases the bytes kept. Further reads are released as they are added
+	 */
+	public synchronized void clear() {
+		this.closed = true;
+		if (this.cumulation != null) {
+			this.cumulation.release();
+			this.cumulation = null;
+		}
+	}
+
+	/**
+	 * @return number of bytes received and not passed up yet
+	 */
+	public synchronized int getPendingBytes() {
+		return this.cumulation != null ? this.cumulation.readableBytes() : 0;
+	}
+}
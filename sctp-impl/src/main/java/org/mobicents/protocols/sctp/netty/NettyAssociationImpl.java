@@ -25,31 +25,40 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
 import io.netty.channel.sctp.SctpChannel;
-import io.netty.channel.sctp.SctpChannelOption;
 import io.netty.channel.sctp.SctpMessage;
-import io.netty.channel.sctp.nio.NioSctpChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javolution.util.FastList;
 import javolution.xml.XMLFormat;
 import javolution.xml.stream.XMLStreamException;
 
 import org.apache.log4j.Logger;
 import org.mobicents.protocols.api.Association;
 import org.mobicents.protocols.api.AssociationListener;
+import org.mobicents.protocols.api.AssociationMetrics;
 import org.mobicents.protocols.api.AssociationType;
+import org.mobicents.protocols.api.AssociationWritabilityListener;
 import org.mobicents.protocols.api.CongestionListener;
 import org.mobicents.protocols.api.IpChannelType;
 import org.mobicents.protocols.api.ManagementEventListener;
 import org.mobicents.protocols.api.PayloadData;
+import org.mobicents.protocols.api.Server;
+import org.mobicents.protocols.api.StreamScheduler;
+import org.mobicents.protocols.api.TcpFrameDecoder;
+import org.mobicents.protocols.sctp.PcapngCapture;
 
 /**
  * @author <a href="mailto:amit.bhayani@telestax.com">Amit Bhayani</a>
@@ -71,6 +80,7 @@ public class NettyAssociationImpl implements Association {
     private static final String IPCHANNEL_TYPE = "ipChannelType";
     private static final String EXTRA_HOST_ADDRESS = "extraHostAddress";
     private static final String EXTRA_HOST_ADDRESS_SIZE = "extraHostAddresseSize";
+    private static final String EVENT_LOOP_AFFINITY = "eventLoopAffinity";
 
     private String hostAddress;
     private int hostPort;
@@ -81,10 +91,18 @@ public class NettyAssociationImpl implements Association {
     private IpChannelType ipChannelType;
     private String[] extraHostAddresses;
     private NettyServerImpl server; // this is filled only for anonymous Associations
+    // index of the management affinity event loop a CLIENT Association connects from, -1 for none
+    private int eventLoopAffinity = -1;
 
     private AssociationType type;
 
     private AssociationListener associationListener = null;
+    // not persisted, set by the application at runtime
+    private volatile TcpFrameDecoder tcpFrameDecoder;
+    // not persisted, set by the application at runtime
+    private volatile StreamScheduler streamScheduler;
+
+    private final AssociationMetrics metrics = new AssociationMetrics();
 
     private NettySctpManagementImpl management;
 
@@ -96,7 +114,19 @@ public class NettyAssociationImpl implements Association {
     protected volatile boolean up = false;
 
     private NettySctpChannelInboundHandlerAdapter channelHandler;
-    protected int congLevel;
+    // worker event loop a CLIENT Association is placed on while it is started
+    private EventLoop clientEventLoop;
+    // Outgoing congestion level 0-3, derived from the bytes waiting to be written. Updated by the channel event loop
+    // only, read by any thread
+    protected final AtomicInteger congLevel = new AtomicInteger();
+    // used by the event loop only: a listener writing from its callback may fire channelWritabilityChanged, the nested
+    // update is then left to the running one so listeners never see a stale change
+    private boolean congLevelUpdating = false;
+    private boolean congLevelRecheck = false;
+    private long congLevelPendingBytes;
+    // listener executor of each inbound stream, set when the Association comes up. null if the listener is called in
+    // the event loop
+    private volatile EventExecutor[] listenerExecutorTable;
 
     public NettyAssociationImpl() {
         super();
@@ -263,6 +293,68 @@ public class NettyAssociationImpl implements Association {
 
     }
 
+    @Override
+    public TcpFrameDecoder getTcpFrameDecoder() {
+        return this.tcpFrameDecoder;
+    }
+
+    @Override
+    public void setTcpFrameDecoder(TcpFrameDecoder tcpFrameDecoder) {
+        this.tcpFrameDecoder = tcpFrameDecoder;
+    }
+
+    /**
+     * @return the TcpFrameDecoder of this Association, else the one of its Server
+     */
+    protected TcpFrameDecoder resolveTcpFrameDecoder() {
+        TcpFrameDecoder decoder = this.tcpFrameDecoder;
+        if (decoder != null || this.type == AssociationType.CLIENT)
+            return decoder;
+        if (this.server != null)
+            return this.server.getTcpFrameDecoder();
+        for (FastList.Node<Server> n = this.management.servers.head(), end = this.management.servers.tail(); (n = n
+                .getNext()) != end;) {
+            Server srv = n.getValue();
+            if (srv.getName().equals(this.serverName))
+                return srv.getTcpFrameDecoder();
+        }
+        return null;
+    }
+
+    @Override
+    public AssociationMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public StreamScheduler getStreamScheduler() {
+        return this.streamScheduler;
+    }
+
+    @Override
+    public void setStreamScheduler(StreamScheduler streamScheduler) {
+        this.streamScheduler = streamScheduler;
+    }
+
+    @Override
+    public int selectOutboundStream(long key) {
+        NettySctpChannelInboundHandlerAdapter handler = this.channelHandler;
+        if (this.ipChannelType != IpChannelType.SCTP || handler == null)
+            return 0;
+        StreamScheduler scheduler = this.streamScheduler;
+        if (scheduler == null)
+            scheduler = StreamScheduler.DEFAULT;
+        return scheduler.selectStream(key, handler.getMaxOutboundStreams(), this);
+    }
+
+    @Override
+    public int getOutboundStreamBacklog(int streamNumber) {
+        NettySctpChannelInboundHandlerAdapter handler = this.channelHandler;
+        if (handler == null)
+            return 0;
+        return handler.getStreamBacklog(streamNumber);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -353,24 +445,58 @@ public class NettyAssociationImpl implements Association {
      * @see org.mobicents.protocols.api.Association#send(org.mobicents.protocols.api.PayloadData)
      */
     @Override
-    public void send(PayloadData payloadData) throws Exception {
+    public void send(final PayloadData payloadData) throws Exception {
         if (logger.isDebugEnabled()) {
             logger.debug(String.format("Tx : Ass=%s %s", this.getName(), payloadData));
         }
 
         NettySctpChannelInboundHandlerAdapter handler = checkSocketIsOpen();
 
+        PcapngCapture capture = this.management.getCapture();
+        if (capture != null) {
+            capture.capture(this, true, payloadData);
+        }
+
         final ByteBuf byteBuf = payloadData.getByteBuf();
         if (this.ipChannelType == IpChannelType.SCTP) {
+            int streamNumber = payloadData.getStreamNumber();
+            if (streamNumber < 0 || streamNumber >= handler.getMaxOutboundStreams()) {
+                // the listener is called on the event loop, as the other
+                // listener callbacks
+                handler.channel.eventLoop().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        fireInvalidStreamId(payloadData);
+                    }
+                });
+                return;
+            }
+
             SctpMessage sctpMessage = new SctpMessage(payloadData.getPayloadProtocolId(), payloadData.getStreamNumber(),
                     payloadData.isUnordered(), byteBuf);
             handler.writeAndFlush(sctpMessage);
         } else {
             handler.writeAndFlush(byteBuf);
         }
+        // the channel owns the ByteBuf now, a pooled holder can go back
+        payloadData.recycle();
+    }
+
+    /**
+     * Passes a message of an invalid stream id to the listener and releases it, see
+     * AssociationListener.inValidStreamId(). Called on the channel event loop
+     */
+    private void fireInvalidStreamId(PayloadData payloadData) {
+        this.metrics.onInvalidStreamId();
+        try {
+            this.associationListener.inValidStreamId(payloadData);
+        } catch (Throwable ee) {
+            logger.error("Exception while invoking inValidStreamId", ee);
+        }
+        payloadData.release();
     }
 
-    private NettySctpChannelInboundHandlerAdapter checkSocketIsOpen() throws Exception {
+        private NettySctpChannelInboundHandlerAdapter checkSocketIsOpen() throws Exception {
         NettySctpChannelInboundHandlerAdapter handler = this.channelHandler;
         if (!this.started || handler == null)
             throw new Exception(String.format(
@@ -388,24 +514,76 @@ public class NettyAssociationImpl implements Association {
 
     @Override
     public int getCongestionLevel() {
-        return this.congLevel;
+        return this.congLevel.get();
+    }
+
+    /**
+     * Moves the congestion level up or down as per how full the outbound queue is, compared to Management
+     * CongControl_QueueThreshold and CongControl_BackToNormalQueueThreshold. CongestionListener's (and an
+     * AssociationWritabilityListener when leaving or reaching level 0) are notified only when the level actually
+     * changes. Called on the channel event loop only, so the listeners see the changes in order. An update requested
+     * by a listener callback (a send can fire channelWritabilityChanged) runs once the current notifications are done.
+     * 
+     * @param pendingBytes bytes waiting to be written
+     */
+    protected void updateCongestionLevel(long pendingBytes) {
+        this.congLevelPendingBytes = pendingBytes;
+        if (this.congLevelUpdating) {
+            this.congLevelRecheck = true;
+            return;
+        }
+
+        this.congLevelUpdating = true;
+        try {
+            do {
+                this.congLevelRecheck = false;
+                this.changeCongestionLevel(this.congLevelPendingBytes);
+            } while (this.congLevelRecheck);
+        } finally {
+            this.congLevelUpdating = false;
+        }
     }
 
-    protected void setCongestionLevel(int val) {
-        if (this.congLevel != val) {
-            logger.warn("Outgoing congestion control: SCTP: Changing of congestion level for Association=" + this.name + " "
-                    + this.congLevel + "->" + val);
+    private void changeCongestionLevel(long pendingBytes) {
+        int maxBytes = this.management.getTxHighWaterMark();
+        double fill = maxBytes > 0 ? pendingBytes * 100.0 / maxBytes : 0;
+
+        double[] threshold = this.management.congControl_QueueThreshold;
+        double[] backToNormalThreshold = this.management.congControl_BackToNormalQueueThreshold;
+        int oldLevel = this.congLevel.get();
+        int newLevel = oldLevel;
+        while (newLevel > 0 && fill < backToNormalThreshold[newLevel - 1]) {
+            newLevel--;
+        }
+        while (newLevel < 3 && fill >= threshold[newLevel]) {
+            newLevel++;
         }
 
+        if (newLevel == oldLevel)
+            return;
+
+        this.congLevel.set(newLevel);
+        this.metrics.onCongestionLevelChanged(newLevel);
+        logger.warn(String.format(
+                "Outgoing congestion control: Changing of congestion level for Association=%s %d->%d", this.name,
+                oldLevel, newLevel));
+
         for (CongestionListener lstr : this.management.getCongestionListeners()) {
             try {
-                lstr.onCongLevelChanged(this, this.congLevel, val);
+                lstr.onCongLevelChanged(this, oldLevel, newLevel);
             } catch (Throwable ee) {
-                logger.error("Exception while invoking onAssociationAdded", ee);
+                logger.error("Exception while invoking onCongLevelChanged", ee);
             }
         }
 
-        this.congLevel = val;
+        AssociationListener listener = this.associationListener;
+        if ((oldLevel == 0 || newLevel == 0) && listener instanceof AssociationWritabilityListener) {
+            try {
+                ((AssociationWritabilityListener) listener).onWritabilityChanged(this, newLevel == 0);
+            } catch (Throwable ee) {
+                logger.error("Exception while invoking onWritabilityChanged", ee);
+            }
+        }
     }
 
     /*
@@ -485,6 +663,17 @@ public class NettyAssociationImpl implements Association {
         this.management = management;
     }
 
+    /**
+     * @return index of the management affinity event loop the Association is pinned to, -1 if not pinned
+     */
+    public int getEventLoopAffinity() {
+        return eventLoopAffinity;
+    }
+
+    protected void setEventLoopAffinity(int eventLoopAffinity) {
+        this.eventLoopAffinity = eventLoopAffinity;
+    }
+
     protected void start() throws Exception {
         if (this.associationListener == null) {
             throw new NullPointerException(String.format("AssociationListener is null for Associatoion=%s", this.name));
@@ -530,16 +719,90 @@ public class NettyAssociationImpl implements Association {
         if (handler != null) {
             handler.closeChannel();
         }
+
+        this.releaseClientEventLoop();
+    }
+
+    private synchronized EventLoop acquireClientEventLoop() {
+        EventLoop loop = this.clientEventLoop;
+        if (loop != null && !loop.isShuttingDown()) {
+            return loop;
+        }
+        // not placed yet, or placed before a stop / start of management
+        if (loop != null) {
+            this.management.releaseClientEventLoop(loop);
+        }
+        this.clientEventLoop = this.started ? this.management.assignClientEventLoop(this) : null;
+        return this.clientEventLoop;
+    }
+
+    /**
+     * @return the worker group event loop this CLIENT Association is placed on, or null if it is not placed
+     */
+    protected synchronized EventLoop getClientEventLoop() {
+        return this.clientEventLoop;
+    }
+
+    private synchronized void releaseClientEventLoop() {
+        if (this.clientEventLoop != null) {
+            this.management.releaseClientEventLoop(this.clientEventLoop);
+            this.clientEventLoop = null;
+        }
     }
 
     protected void read(PayloadData payload) {
+        this.metrics.onReceived(payload);
+
+        PcapngCapture capture = this.management.getCapture();
+        if (capture != null) {
+            capture.capture(this, false, payload);
+        }
+
+        EventExecutor[] executors = this.listenerExecutorTable;
+        if (executors == null) {
+            this.deliver(payload);
+            return;
+        }
+
+        // Payloads of the same stream always go to the same executor, in the order the event loop read them
+        EventExecutorGroup group = this.management.getListenerGroup();
+        EventExecutor executor;
+        if (payload.isUnordered() && group != null) {
+            executor = group.next();
+        } else {
+            executor = executors[payload.getStreamNumber() % executors.length];
+        }
+        try {
+            executor.execute(new DeliverTask(payload));
+        } catch (RejectedExecutionException e) {
+            this.metrics.onRxDropped();
+            logger.error(String.format("Rejected %s as listener threads are stopped", payload));
+            payload.release();
+        }
+    }
+
+    private void deliver(PayloadData payload) {
         try {
+            this.metrics.onDispatched(payload);
             this.associationListener.onPayload(this, payload);
         } catch (Exception e) {
             logger.error(String.format("Error while calling Listener for Association=%s.Payload=%s", this.name, payload), e);
         }
     }
 
+    private class DeliverTask implements Runnable {
+        private final PayloadData payload;
+
+        private DeliverTask(PayloadData payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public void run() {
+            deliver(this.payload);
+        }
+    }
+
     protected void markAssociationUp(int maxInboundStreams, int maxOutboundStreams) {
         if (this.server != null) {
             synchronized (this.server.anonymAssociations) {
@@ -547,6 +810,19 @@ public class NettyAssociationImpl implements Association {
             }
         }
 
+        EventExecutor[] executors = null;
+        if (this.management.getListenerGroup() != null) {
+            executors = new EventExecutor[Math.max(maxInboundStreams, 1)];
+            this.management.populateListenerExecutors(executors);
+        }
+        this.listenerExecutorTable = executors;
+        this.metrics.setStreams(maxInboundStreams, maxOutboundStreams);
+
+        // nothing is waiting to be sent, keys can take any stream again
+        StreamScheduler scheduler = this.streamScheduler;
+        if (scheduler != null)
+            scheduler.clear();
+
         this.up = true;
         this.getAssociationListener().onCommunicationUp(this, maxInboundStreams, maxOutboundStreams);
 
@@ -594,7 +870,7 @@ public class NettyAssociationImpl implements Association {
         loop.schedule(new Runnable() {
             @Override
             public void run() {
-                connect();
+                management.queueConnect(NettyAssociationImpl.this);
             }
         }, connectDelay, TimeUnit.MILLISECONDS);
     }
@@ -603,9 +879,16 @@ public class NettyAssociationImpl implements Association {
         this.channelHandler = channelHandler;
     }
 
+    /**
+     * Starts an asynchronous bind, bind of the extra host addresses and connect of a new channel. Called by management
+     * with a connect permit, which is returned by {@link NettySctpManagementImpl#connectFinished()} once the connect
+     * has succeeded or failed. A failed channel is closed, its handler schedules the next attempt then. All the
+     * addresses are resolved here, on the client executor, so the event loop never waits for a name lookup.
+     */
     protected void connect() {
         if (!this.started || this.up) {
             // return if not started or already up
+            this.management.connectFinished();
             return;
         }
 
@@ -614,75 +897,108 @@ public class NettyAssociationImpl implements Association {
         }
 
         Bootstrap b;
-        InetSocketAddress localAddress;
+        final InetSocketAddress localAddress;
+        final InetAddress[] extraAddresses;
+        final InetSocketAddress remoteAddress;
         try {
-            EventLoopGroup group = this.management.getBossGroup();
-            b = new Bootstrap();
+            EventLoop loop = this.acquireClientEventLoop();
+            if (loop == null) {
+                // stopped in the meantime
+                this.management.connectFinished();
+                return;
+            }
 
-            b.group(group);
+            b = this.management.newClientBootstrap(this.ipChannelType);
+            b.group(loop);
             if (this.ipChannelType == IpChannelType.SCTP) {
-                b.channel(NioSctpChannel.class);
-
-                // applying of stack level SCTP options
-                this.applySctpOptions(b);
-
                 b.handler(new NettySctpClientChannelInitializer(this));
             } else {
-                b.channel(NioSocketChannel.class);
-                b.option(ChannelOption.TCP_NODELAY, true);
                 b.handler(new NettyTcpClientChannelInitializer(this));
             }
 
             localAddress = new InetSocketAddress(this.hostAddress, this.hostPort);
+            extraAddresses = this.resolveExtraHostAddresses();
+            remoteAddress = new InetSocketAddress(this.peerAddress, this.peerPort);
         } catch (Exception e) {
             logger.error(String.format("Exception while creating connection for Association=%s", this.getName()), e);
+            this.management.connectFinished();
             this.scheduleConnect();
             return;
         }
 
         // Bind the client channel.
-        try {
-            ChannelFuture bindFuture = b.bind(localAddress).sync();
-            Channel channel = bindFuture.channel();
-
-            if (this.ipChannelType == IpChannelType.SCTP) {
-                // Get the underlying sctp channel
-                SctpChannel sctpChannel = (SctpChannel) channel;
-
-                // Bind the secondary address.
-                // Please note that, bindAddress in the client channel should be done before connecting if you have not
-                // enable Dynamic Address Configuration. See net.sctp.addip_enable kernel param
-                if (this.extraHostAddresses != null) {
-                    for (int count = 0; count < this.extraHostAddresses.length; count++) {
-                        String localSecondaryAddress = this.extraHostAddresses[count];
-                        InetAddress localSecondaryInetAddress = InetAddress.getByName(localSecondaryAddress);
-
-                        sctpChannel.bindAddress(localSecondaryInetAddress).sync();
-                    }
+        b.bind(localAddress).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess()) {
+                    bindExtraHostAddress(future.channel(), extraAddresses, 0, remoteAddress);
+                } else {
+                    failConnect(future.channel(), future.cause());
                 }
             }
+        });
+    }
 
-            InetSocketAddress remoteAddress = new InetSocketAddress(this.peerAddress, this.peerPort);
+    /**
+     * @return the extra host addresses to bind an SCTP client channel to, an empty array for TCP or none
+     */
+    private InetAddress[] resolveExtraHostAddresses() throws UnknownHostException {
+        String[] addresses = this.extraHostAddresses;
+        if (this.ipChannelType != IpChannelType.SCTP || addresses == null)
+            return new InetAddress[0];
+
+        InetAddress[] extraAddresses = new InetAddress[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            extraAddresses[i] = InetAddress.getByName(addresses[i]);
+        }
+        return extraAddresses;
+    }
+
+    private void bindExtraHostAddress(final Channel channel, final InetAddress[] extraAddresses, final int index,
+            final InetSocketAddress remoteAddress) {
+        // Bind the secondary addresses one after another.
+        // Please note that, bindAddress in the client channel should be done before connecting if you have not
+        // enable Dynamic Address Configuration. See net.sctp.addip_enable kernel param
+        if (index >= extraAddresses.length) {
+            this.connectChannel(channel, remoteAddress);
+            return;
+        }
 
-            // Finish connect
-            bindFuture.channel().connect(remoteAddress);
-            if (logger.isDebugEnabled()) {
-                logger.debug(String.format("Initiating connection scheduled: Association=%s remoteAddress=%s", this,
-                        remoteAddress));
+        ((SctpChannel) channel).bindAddress(extraAddresses[index]).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess()) {
+                    bindExtraHostAddress(channel, extraAddresses, index + 1, remoteAddress);
+                } else {
+                    failConnect(channel, future.cause());
+                }
             }
-        } catch (Exception e) {
-            logger.error(String.format("Exception while finishing connection for Association=%s", this.getName()), e);
+        });
+    }
+
+    private void connectChannel(final Channel channel, final InetSocketAddress remoteAddress) {
+        // Finish connect
+        channel.connect(remoteAddress).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                management.connectFinished();
+                if (!future.isSuccess()) {
+                    logger.warn(String.format("Failed to connect Association=%s to %s: %s", getName(), remoteAddress,
+                            future.cause()));
+                    channel.close();
+                }
+            }
+        });
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Initiating connection scheduled: Association=%s remoteAddress=%s", this,
+                    remoteAddress));
         }
     }
 
-    private void applySctpOptions(Bootstrap b) {
-        b.option(SctpChannelOption.SCTP_NODELAY, this.management.getOptionSctpNodelay());
-        b.option(SctpChannelOption.SCTP_DISABLE_FRAGMENTS, this.management.getOptionSctpDisableFragments());
-        b.option(SctpChannelOption.SCTP_FRAGMENT_INTERLEAVE, this.management.getOptionSctpFragmentInterleave());
-        b.option(SctpChannelOption.SCTP_INIT_MAXSTREAMS, this.management.getOptionSctpInitMaxstreams());
-        b.option(SctpChannelOption.SO_SNDBUF, this.management.getOptionSoSndbuf());
-        b.option(SctpChannelOption.SO_RCVBUF, this.management.getOptionSoRcvbuf());
-        b.option(SctpChannelOption.SO_LINGER, this.management.getOptionSoLinger());
+    private void failConnect(Channel channel, Throwable cause) {
+        logger.error(String.format("Exception while finishing connection for Association=%s", this.getName()), cause);
+        this.management.connectFinished();
+        channel.close();
     }
 
     /**
@@ -708,6 +1024,8 @@ public class NettyAssociationImpl implements Association {
             if (association.ipChannelType == null)
                 association.ipChannelType = IpChannelType.SCTP;
 
+            association.eventLoopAffinity = xml.getAttribute(EVENT_LOOP_AFFINITY, -1);
+
             int extraHostAddressesSize = xml.getAttribute(EXTRA_HOST_ADDRESS_SIZE, 0);
             association.extraHostAddresses = new String[extraHostAddressesSize];
 
@@ -730,6 +1048,7 @@ public class NettyAssociationImpl implements Association {
 
             xml.setAttribute(SERVER_NAME, association.serverName);
             xml.setAttribute(IPCHANNEL_TYPE, association.ipChannelType.getCode());
+            xml.setAttribute(EVENT_LOOP_AFFINITY, association.eventLoopAffinity);
 
             xml.setAttribute(EXTRA_HOST_ADDRESS_SIZE,
                     association.extraHostAddresses != null ? association.extraHostAddresses.length : 0);
@@ -0,0 +1,52 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.mobicents.protocols.sctp.netty;
+
+/**
+ * Policy used by {@link NettySctpManagementImpl} to pick the worker group event loop a CLIENT Association is served by
+ * when it connects.
+ *
+ * <ul>
+ * <li>ROUND_ROBIN - event loops are taken in turn</li>
+ * <li>LEAST_ASSOCIATIONS - the event loop currently serving the fewest CLIENT Associations is chosen</li>
+ * <li>PINNED - the Association name is hashed onto the event loops, so an Association always lands on the same loop</li>
+ * </ul>
+ *
+ */
+public enum NettyClientPlacementPolicy {
+    ROUND_ROBIN, LEAST_ASSOCIATIONS, PINNED;
+
+    public static NettyClientPlacementPolicy getNettyClientPlacementPolicy(String policy) {
+        if (policy == null) {
+            return null;
+        } else if (policy.equalsIgnoreCase(ROUND_ROBIN.name())) {
+            return ROUND_ROBIN;
+        } else if (policy.equalsIgnoreCase(LEAST_ASSOCIATIONS.name())) {
+            return LEAST_ASSOCIATIONS;
+        } else if (policy.equalsIgnoreCase(PINNED.name())) {
+            return PINNED;
+        } else {
+            return null;
+        }
+    }
+}
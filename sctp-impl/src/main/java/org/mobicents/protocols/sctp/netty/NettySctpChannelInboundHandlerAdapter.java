@@ -26,12 +26,27 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.EventLoop;
 import io.netty.channel.sctp.SctpMessage;
+import io.netty.util.Recycler;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.Priority;
+import org.mobicents.protocols.api.AssociationMetrics;
 import org.mobicents.protocols.api.IpChannelType;
 import org.mobicents.protocols.api.PayloadData;
+import org.mobicents.protocols.api.TcpFrameDecoder;
+import org.mobicents.protocols.sctp.TcpFrameAccumulator;
 
 import com.sun.nio.sctp.AssociationChangeNotification;
 import com.sun.nio.sctp.PeerAddressChangeNotification;
@@ -55,7 +70,19 @@ public class NettySctpChannelInboundHandlerAdapter extends ChannelInboundHandler
     protected Channel channel = null;
     protected ChannelHandlerContext ctx = null;
 
-    protected long lastCongestionMonitorSecondPart;
+    // messages written by threads other than the event loop, drained by flushTask
+    private final ConcurrentLinkedQueue<PendingWrite> outboundQueue = new ConcurrentLinkedQueue<PendingWrite>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Runnable flushTask = new FlushTask();
+    // messages per outbound stream written and not in the socket yet, one stream for TCP
+    private volatile AtomicIntegerArray streamBacklog = new AtomicIntegerArray(1);
+
+    // cuts TCP data into PDUs, created at the first read. null if no TcpFrameDecoder applies
+    private TcpFrameAccumulator frameAccumulator;
+    private boolean frameAccumulatorResolved = false;
+    // PDUs of one read, used by the event loop only
+    private final List<ByteBuf> frames = new ArrayList<ByteBuf>();
 
     /**
      * 
@@ -70,8 +97,15 @@ public class NettySctpChannelInboundHandlerAdapter extends ChannelInboundHandler
             logger.debug(String.format("channelInactive event: association=%s", this.association));
         }
 
-        if (this.association != null)
+        if (this.frameAccumulator != null) {
+            this.frameAccumulator.clear();
+        }
+
+        if (this.association != null) {
             this.association.markAssociationDown();
+            // what is left in the outbound buffer is dropped with the channel
+            this.updateCongestionLevel();
+        }
     }
 
     @Override
@@ -90,6 +124,7 @@ public class NettySctpChannelInboundHandlerAdapter extends ChannelInboundHandler
                         this.maxOutboundStreams = not.association().maxOutboundStreams();
                         this.maxInboundStreams = not.association().maxInboundStreams();
                     }
+                    this.streamBacklog = new AtomicIntegerArray(this.maxOutboundStreams);
 
                     if (logger.isInfoEnabled()) {
                         logger.info(String.format(
@@ -181,11 +216,20 @@ public class NettySctpChannelInboundHandlerAdapter extends ChannelInboundHandler
         if (this.association.getIpChannelType() == IpChannelType.SCTP) {
             SctpMessage sctpMessage = (SctpMessage) msg;
             ByteBuf byteBuf = sctpMessage.content();
-            payload = new PayloadData(byteBuf.readableBytes(), byteBuf, sctpMessage.isComplete(), sctpMessage.isUnordered(),
+            payload = PayloadData.newInstance(byteBuf.readableBytes(), byteBuf, sctpMessage.isComplete(), sctpMessage.isUnordered(),
                     sctpMessage.protocolIdentifier(), sctpMessage.streamIdentifier());
         } else {
             ByteBuf byteBuf = (ByteBuf) msg;
-            payload = new PayloadData(byteBuf.readableBytes(), byteBuf, true, false, 0, 0);
+            if (!this.frameAccumulatorResolved) {
+                TcpFrameDecoder decoder = this.association.resolveTcpFrameDecoder();
+                this.frameAccumulator = decoder != null ? new TcpFrameAccumulator(decoder) : null;
+                this.frameAccumulatorResolved = true;
+            }
+            if (this.frameAccumulator != null) {
+                this.readFrames(ctx, byteBuf);
+                return;
+            }
+            payload = PayloadData.newInstance(byteBuf.readableBytes(), byteBuf, true, false, 0, 0);
         }
 
         if (logger.isDebugEnabled()) {
@@ -198,46 +242,220 @@ public class NettySctpChannelInboundHandlerAdapter extends ChannelInboundHandler
         // }
     }
 
+    /**
+     * Writes the message and flushes it together with the other messages written meanwhile. Messages of other threads
+     * are appended to the outbound queue and written by a single event loop task, messages written from the event loop
+     * itself are written directly. In both cases the channel is flushed once by that task, after the event loop has
+     * processed its current I/O, and the task then updates the congestion level, so the sending thread takes no lock.
+     */
     protected void writeAndFlush(Object message) {
         Channel ch = this.channel;
         if (ch != null) {
-            ChannelFuture future = ch.writeAndFlush(message);
-
-            long curMillisec = System.currentTimeMillis();
-            long secPart = curMillisec / 500;
-            if (lastCongestionMonitorSecondPart < secPart) {
-                lastCongestionMonitorSecondPart = secPart;
-                CongestionMonitor congestionMonitor = new CongestionMonitor();
-                future.addListener(congestionMonitor);
+            PendingWrite write = PendingWrite.newInstance(message, this.streamBacklog, this.association.getMetrics());
+            addStreamBacklog(write.backlog, write.stream, 1);
+            EventLoop loop = ch.eventLoop();
+            if (loop.inEventLoop()) {
+                write.write(ch);
+            } else {
+                this.queuedBytes.addAndGet(write.bytes);
+                this.outboundQueue.offer(write);
+            }
+
+            if (!this.flushScheduled.get() && this.flushScheduled.compareAndSet(false, true)) {
+                try {
+                    loop.execute(this.flushTask);
+                } catch (RejectedExecutionException e) {
+                    // event loop is shutting down, the channel is being closed
+                    this.flushScheduled.set(false);
+                    this.releaseOutboundQueue();
+                }
             }
         }
-     }
+    }
+
+    private static int streamOf(Object message) {
+        if (message instanceof SctpMessage) {
+            return ((SctpMessage) message).streamIdentifier();
+        }
+        return 0;
+    }
+
+    private static void addStreamBacklog(AtomicIntegerArray backlog, int stream, int delta) {
+        if (stream >= 0 && stream < backlog.length()) {
+            backlog.addAndGet(stream, delta);
+        }
+    }
+
+    protected int getMaxOutboundStreams() {
+        return this.maxOutboundStreams;
+    }
+
+    protected int getStreamBacklog(int stream) {
+        AtomicIntegerArray backlog = this.streamBacklog;
+        if (stream < 0 || stream >= backlog.length())
+            return 0;
+        return backlog.get(stream);
+    }
+
+    private static int messageSize(Object message) {
+        if (message instanceof ByteBuf) {
+            return ((ByteBuf) message).readableBytes();
+        } else if (message instanceof SctpMessage) {
+            return ((SctpMessage) message).content().readableBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Passes the bytes waiting to be written, in the outbound queue and in the channel outbound buffer, to the
+     * Association congestion control. Called on the event loop only, which owns the outbound buffer and so delivers
+     * the level changes in order
+     */
+    protected void updateCongestionLevel() {
+        NettyAssociationImpl association = this.association;
+        Channel ch = this.channel;
+        if (association == null)
+            return;
+
+        long pendingBytes = this.queuedBytes.get();
+        ChannelOutboundBuffer outboundBuffer = ch != null ? ch.unsafe().outboundBuffer() : null;
+        if (outboundBuffer != null) {
+            pendingBytes += outboundBuffer.totalPendingWriteBytes();
+        }
+        association.updateCongestionLevel(pendingBytes);
+    }
+
+    /**
+     * Passes up the PDUs the TcpFrameDecoder cuts out of a read, a decoder error closes the channel
+     */
+    private void readFrames(ChannelHandlerContext ctx, ByteBuf byteBuf) {
+        Exception error = null;
+        try {
+            this.frameAccumulator.add(byteBuf, this.frames);
+        } catch (Exception e) {
+            error = e;
+        }
 
-    private void onCongestionMonitor(double delaySec) {
-        int newAlarmLevel = this.association.getCongestionLevel();
-        for (int i1 = this.association.getCongestionLevel() - 1; i1 >= 0; i1--) {
-            if (delaySec <= this.association.getManagement().congControl_BackToNormalDelayThreshold[i1]) {
-                newAlarmLevel = i1;
+        for (int i = 0; i < this.frames.size(); i++) {
+            ByteBuf frame = this.frames.get(i);
+            PayloadData payload = PayloadData.newInstance(frame.readableBytes(), frame, true, false, 0, 0);
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("Rx : Ass=%s %s", this.association.getName(), payload));
             }
+            this.association.read(payload);
+        }
+        this.frames.clear();
+
+        if (error != null) {
+            logger.error(String.format("Error while decoding TCP data for Association=%s, closing the channel",
+                    this.association.getName()), error);
+            ctx.close();
         }
-        for (int i1 = this.association.getCongestionLevel(); i1 < 3; i1++) {
-            if (delaySec >= this.association.getManagement().congControl_DelayThreshold[i1]) {
-                newAlarmLevel = i1 + 1;
+    }
+
+    private void releaseOutboundQueue() {
+        PendingWrite write;
+        while ((write = this.outboundQueue.poll()) != null) {
+            this.queuedBytes.addAndGet(-write.bytes);
+            write.drop();
+        }
+    }
+
+    private class FlushTask implements Runnable {
+        @Override
+        public void run() {
+            // reset first, so a message queued while draining schedules a new flush
+            flushScheduled.set(false);
+
+            Channel ch = channel;
+            PendingWrite write;
+            while ((write = outboundQueue.poll()) != null) {
+                // count it out only once it is in the outbound buffer
+                int size = write.bytes;
+                write.write(ch);
+                queuedBytes.addAndGet(-size);
             }
+            ch.flush();
+
+            updateCongestionLevel();
         }
-        this.association.setCongestionLevel(newAlarmLevel);
     }
 
-    private class CongestionMonitor implements ChannelFutureListener {
-        long startTime = System.currentTimeMillis();
+    /**
+     * A message on its way to the socket. Once the write is done or has failed its stream backlog goes down, it is
+     * counted in the Association metrics and the instance goes back to the pool, so a write costs no listener
+     * allocation
+     */
+    private static final class PendingWrite implements ChannelFutureListener {
+        private static final Recycler<PendingWrite> RECYCLER = new Recycler<PendingWrite>() {
+            @Override
+            protected PendingWrite newObject(Recycler.Handle handle) {
+                return new PendingWrite(handle);
+            }
+        };
+
+        private final Recycler.Handle handle;
+        private Object message;
+        private AtomicIntegerArray backlog;
+        private AssociationMetrics metrics;
+        private int stream;
+        private int bytes;
+        private long sendNanos;
+
+        private PendingWrite(Recycler.Handle handle) {
+            this.handle = handle;
+        }
+
+        private static PendingWrite newInstance(Object message, AtomicIntegerArray backlog, AssociationMetrics metrics) {
+            PendingWrite write = RECYCLER.get();
+            write.message = message;
+            write.backlog = backlog;
+            write.metrics = metrics;
+            write.stream = streamOf(message);
+            write.bytes = messageSize(message);
+            write.sendNanos = System.nanoTime();
+            return write;
+        }
+
+        private void recycle() {
+            this.message = null;
+            this.backlog = null;
+            this.metrics = null;
+            RECYCLER.recycle(this, this.handle);
+        }
+
+        private void write(Channel ch) {
+            Object msg = this.message;
+            this.message = null;
+            ch.write(msg).addListener(this);
+        }
+
+        private void drop() {
+            Object msg = this.message;
+            this.message = null;
+            addStreamBacklog(this.backlog, this.stream, -1);
+            this.metrics.onTxDropped();
+            this.recycle();
+            ReferenceCountUtil.release(msg);
+        }
 
         @Override
-        public void operationComplete(ChannelFuture arg0) throws Exception {
-            long delay = System.currentTimeMillis() - startTime;
-            double delaySec = (double) delay / 1000;
-            onCongestionMonitor(delaySec);
+        public void operationComplete(ChannelFuture future) throws Exception {
+            addStreamBacklog(this.backlog, this.stream, -1);
+            if (future.isSuccess()) {
+                this.metrics.onSent(this.stream, this.bytes, this.sendNanos);
+            } else {
+                this.metrics.onTxDropped();
+            }
+            this.recycle();
         }
+    }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // the outbound buffer crossed a water mark, which are set to congestion level 1 thresholds
+        this.updateCongestionLevel();
+        super.channelWritabilityChanged(ctx);
     }
 
     protected void closeChannel() {
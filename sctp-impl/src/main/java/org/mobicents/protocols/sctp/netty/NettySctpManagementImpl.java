@@ -19,9 +19,27 @@
  */
 package org.mobicents.protocols.sctp.netty;
 
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.sctp.SctpChannelOption;
+import io.netty.channel.sctp.nio.NioSctpChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
 import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -30,10 +48,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javolution.text.TextBuilder;
 import javolution.util.FastList;
@@ -49,8 +73,12 @@ import org.mobicents.protocols.api.CongestionListener;
 import org.mobicents.protocols.api.IpChannelType;
 import org.mobicents.protocols.api.Management;
 import org.mobicents.protocols.api.ManagementEventListener;
+import org.mobicents.protocols.api.MetricsExporter;
 import org.mobicents.protocols.api.Server;
 import org.mobicents.protocols.api.ServerListener;
+import org.mobicents.protocols.sctp.AssociationIndex;
+import org.mobicents.protocols.sctp.ManagementImpl;
+import org.mobicents.protocols.sctp.PcapngCapture;
 
 import com.sun.nio.sctp.SctpStandardSocketOptions;
 import com.sun.nio.sctp.SctpStandardSocketOptions.InitMaxStreams;
@@ -73,6 +101,9 @@ public class NettySctpManagementImpl implements Management {
     private static final String CONNECT_DELAY_PROP = "connectdelay";
     private static final String SINGLE_THREAD_PROP = "singlethread";
     private static final String WORKER_THREADS_PROP = "workerthreads";
+    private static final String BOSS_THREADS_PROP = "bossthreads";
+    private static final String AFFINITY_THREADS_PROP = "affinitythreads";
+    private static final String LISTENER_THREADS_PROP = "listenerthreads";
 
     public static final String CONG_CONTROL_DELAY_THRESHOLD_1 = "congControl_DelayThreshold_1";
     public static final String CONG_CONTROL_DELAY_THRESHOLD_2 = "congControl_DelayThreshold_2";
@@ -81,6 +112,14 @@ public class NettySctpManagementImpl implements Management {
     public static final String CONG_CONTROL_BACK_TO_NORMAL_DELAY_THRESHOLD_2 = "congControl_BackToNormalDelayThreshold_2";
     public static final String CONG_CONTROL_BACK_TO_NORMAL_DELAY_THRESHOLD_3 = "congControl_BackToNormalDelayThreshold_3";
 
+    public static final String TX_HIGH_WATER_MARK = "txHighWaterMark";
+    public static final String CONG_CONTROL_QUEUE_THRESHOLD_1 = "congControl_QueueThreshold_1";
+    public static final String CONG_CONTROL_QUEUE_THRESHOLD_2 = "congControl_QueueThreshold_2";
+    public static final String CONG_CONTROL_QUEUE_THRESHOLD_3 = "congControl_QueueThreshold_3";
+    public static final String CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_1 = "congControl_BackToNormalQueueThreshold_1";
+    public static final String CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_2 = "congControl_BackToNormalQueueThreshold_2";
+    public static final String CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_3 = "congControl_BackToNormalQueueThreshold_3";
+
     // TODO: make options configurable in future
 //    public static final String OPTION_SCTP_DISABLE_FRAGMENTS = "optionSctpDisableFragments";
 //    public static final String OPTION_SCTP_FRAGMENT_INTERLEAVE = "optionSctpFragmentInterleave";
@@ -104,10 +143,31 @@ public class NettySctpManagementImpl implements Management {
     protected String persistDir = null;
     private int connectDelay = 5000;
 
+    // write delay thresholds of the former sampled congestion control, kept for the Management interface only, they
+    // no longer drive the congestion levels and are not persisted
     protected double[] congControl_DelayThreshold = new double[] { 2.5, 8, 14 };
     protected double[] congControl_BackToNormalDelayThreshold = new double[] { 1.5, 5.5, 10 };
 
-//    private int workerThreads = DEFAULT_IO_THREADS;
+    // Bytes waiting to be written per Association (queued by application threads plus the channel outbound buffer)
+    // taken as a full outbound queue for the congestion levels. 0 disables the congestion levels
+    private volatile int txHighWaterMark = 8 * 1024 * 1024;
+    // Fill of the outbound queue (percent of TxHighWaterMark) raising congestion level 1, 2, 3 and bringing it back
+    // down. Replaced as a whole on change, never modified in place
+    protected volatile double[] congControl_QueueThreshold = new double[] { 50, 75, 90 };
+    protected volatile double[] congControl_BackToNormalQueueThreshold = new double[] { 40, 65, 80 };
+
+    private int bossThreads = 1;
+    private int workerThreads = DEFAULT_IO_THREADS;
+    // event loops reserved for Associations and Servers with an event loop affinity, 0 - none
+    private int affinityThreads = 0;
+    // threads calling AssociationListener.onPayload, 0 - the listener is called in the event loop itself
+    private int listenerThreads = 0;
+    // thread counts set by the setters take precedence over the persisted ones, each count on its own so that setting
+    // one of them keeps the others persisted
+    private boolean bossThreadsSet = false;
+    private boolean workerThreadsSet = false;
+    private boolean affinityThreadsSet = false;
+    private boolean listenerThreadsSet = false;
 //    private boolean singleThread = true;
 
     // private NettyClientOpsThread nettyClientOpsThread = null;
@@ -116,13 +176,49 @@ public class NettySctpManagementImpl implements Management {
 
     private FastList<ManagementEventListener> managementEventListeners = new FastList<ManagementEventListener>();
     private FastList<CongestionListener> congestionListeners = new FastList<CongestionListener>();
+    private FastList<MetricsExporter> metricsExporters = new FastList<MetricsExporter>();
     protected FastList<Server> servers = new FastList<Server>();
     protected NettyAssociationMap<String, Association> associations = new NettyAssociationMap<String, Association>();
+    // SERVER Associations by (server, peer address, peer port), used when
+    // accepting connections
+    protected final AssociationIndex associationIndex = new AssociationIndex();
     private volatile boolean started = false;
 
+    // Wire capture of sent and received payloads, null when not capturing
+    private volatile PcapngCapture capture = null;
+
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
+    // groups serving TCP channels, same as bossGroup / workerGroup unless the epoll transport is used
+    private EventLoopGroup tcpBossGroup;
+    private EventLoopGroup tcpWorkerGroup;
+    private volatile boolean tcpEpoll = false;
+    // dedicated event loops of Associations and Servers with an event loop affinity, null if affinityThreads is 0
+    private EventLoopGroup affinityGroup;
+    private EventLoopGroup tcpAffinityGroup;
+    private EventLoop[] sctpAffinityLoops;
+    private EventLoop[] tcpAffinityLoops;
     private ScheduledExecutorService clientExecutor;
+    // delivers payloads off the event loops, null if listenerThreads is 0
+    private EventExecutorGroup listenerGroup;
+    private EventExecutor[] listenerExecutors;
+    private int listenerExecutorCount = 0;
+
+    // client connects run asynchronously, at most maxConcurrentConnects at a time, the others wait in connectQueue
+    private volatile int maxConcurrentConnects = 64;
+    private final AtomicInteger pendingConnects = new AtomicInteger();
+    private final ConcurrentLinkedQueue<NettyAssociationImpl> connectQueue = new ConcurrentLinkedQueue<NettyAssociationImpl>();
+    // templates of the client Bootstrap's, built on first use and dropped when an option they carry is changed
+    private volatile Bootstrap sctpClientBootstrap;
+    private volatile Bootstrap tcpClientBootstrap;
+
+    // CLIENT Associations are served by the worker group event loops, picked as per clientPlacementPolicy
+    private volatile NettyClientPlacementPolicy clientPlacementPolicy = NettyClientPlacementPolicy.ROUND_ROBIN;
+    private EventLoop[] sctpClientLoops;
+    private EventLoop[] tcpClientLoops;
+    // number of CLIENT Associations placed on each event loop, built at start and read only afterwards
+    private Map<EventLoop, AtomicInteger> clientLoopLoad;
+    private final AtomicInteger clientLoopCounter = new AtomicInteger();
 
     // SctpStandardSocketOptions
 
@@ -161,6 +257,12 @@ public class NettySctpManagementImpl implements Management {
     // if possible the operating system will transmit any unsent data before the connection is closed. 
     private Integer optionSoLinger = null;
 
+    // TCP option: use Netty's native epoll transport (Linux only) for TCP Associations and Servers instead of NIO.
+    // Falls back to NIO when epoll is not available. SCTP always uses NIO.
+    private boolean optionTcpEpoll = false;
+    // TCP option: edge-triggered (true) or level-triggered (false) epoll. Used only by the epoll transport.
+    private boolean optionTcpEpollEdgeTriggered = true;
+
     /**
 	 * 
 	 */
@@ -222,6 +324,35 @@ public class NettySctpManagementImpl implements Management {
         this.serverListener = serverListener;
     }
 
+    /**
+     * @return the capture
+     */
+    public PcapngCapture getCapture() {
+        return capture;
+    }
+
+    /**
+     * Sets the capture payloads of all Associations are passed to, null stops capturing. The capture must be started and
+     * stopped by the caller.
+     * 
+     * @param capture the capture to set
+     */
+    public void setCapture(PcapngCapture capture) {
+        if (capture != null) {
+            for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n
+                    .getNext()) != end;) {
+                capture.addAssociation(n.getValue());
+            }
+        }
+        this.capture = capture;
+    }
+
+    private void captureAddresses(Association association) {
+        PcapngCapture capture = this.capture;
+        if (capture != null)
+            capture.addAssociation(association);
+    }
+
     protected EventLoopGroup getBossGroup() {
         return bossGroup;
     }
@@ -230,10 +361,279 @@ public class NettySctpManagementImpl implements Management {
         return workerGroup;
     }
 
+    protected EventLoopGroup getTcpBossGroup() {
+        return tcpBossGroup;
+    }
+
+    protected EventLoopGroup getTcpWorkerGroup() {
+        return tcpWorkerGroup;
+    }
+
+    /**
+     * @return true if TCP channels currently use the native epoll transport
+     */
+    public boolean isTcpEpoll() {
+        return tcpEpoll;
+    }
+
+    protected Class<? extends Channel> getTcpChannelClass() {
+        return this.tcpEpoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    protected Class<? extends ServerChannel> getTcpServerChannelClass() {
+        return this.tcpEpoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    protected EpollMode getTcpEpollMode() {
+        return this.optionTcpEpollEdgeTriggered ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+    }
+
     protected ScheduledExecutorService getClientExecutor() {
         return clientExecutor;
     }
 
+    protected EventExecutorGroup getListenerGroup() {
+        return this.listenerGroup;
+    }
+
+    /**
+     * Fills an Association table of listener executors, one per inbound stream. Streams are spread over the executors
+     * in turn, as NIO Management does with its worker threads, and a stream always keeps the executor it is given so
+     * its payloads are delivered in order.
+     */
+    protected synchronized void populateListenerExecutors(EventExecutor[] listenerExecutorTable) {
+        for (int count = 0; count < listenerExecutorTable.length; count++) {
+            if (this.listenerExecutorCount >= this.listenerExecutors.length) {
+                this.listenerExecutorCount = 0;
+            }
+            listenerExecutorTable[count] = this.listenerExecutors[this.listenerExecutorCount];
+            this.listenerExecutorCount++;
+        }
+    }
+
+    private EventLoop[] getEventLoops(EventLoopGroup group) {
+        List<EventLoop> loops = new ArrayList<EventLoop>();
+        for (Iterator<EventExecutor> it = group.iterator(); it.hasNext();) {
+            loops.add((EventLoop) it.next());
+        }
+        return loops.toArray(new EventLoop[loops.size()]);
+    }
+
+    /**
+     * Returns a new client Bootstrap with the channel class and the stack level options of the passed channel type. The
+     * caller sets the group and the handler.
+     *
+     * @param ipChannelType
+     * @return
+     */
+    protected Bootstrap newClientBootstrap(IpChannelType ipChannelType) {
+        Bootstrap template = ipChannelType == IpChannelType.SCTP ? this.sctpClientBootstrap : this.tcpClientBootstrap;
+        if (template == null) {
+            template = new Bootstrap();
+            for (Map.Entry<ChannelOption<Integer>, Integer> e : getWriteBufferWaterMarkOptions(
+                    this.getWriteBufferWaterMarks()).entrySet()) {
+                template.option(e.getKey(), e.getValue());
+            }
+            if (ipChannelType == IpChannelType.SCTP) {
+                template.channel(NioSctpChannel.class);
+                template.option(SctpChannelOption.SCTP_NODELAY, this.optionSctpNodelay);
+                template.option(SctpChannelOption.SCTP_DISABLE_FRAGMENTS, this.optionSctpDisableFragments);
+                template.option(SctpChannelOption.SCTP_FRAGMENT_INTERLEAVE, this.optionSctpFragmentInterleave);
+                template.option(SctpChannelOption.SCTP_INIT_MAXSTREAMS, this.getOptionSctpInitMaxstreams());
+                template.option(SctpChannelOption.SO_SNDBUF, this.optionSoSndbuf);
+                template.option(SctpChannelOption.SO_RCVBUF, this.optionSoRcvbuf);
+                template.option(SctpChannelOption.SO_LINGER, this.optionSoLinger);
+                this.sctpClientBootstrap = template;
+            } else {
+                template.channel(this.getTcpChannelClass());
+                template.option(ChannelOption.TCP_NODELAY, true);
+                if (this.tcpEpoll) {
+                    template.option(EpollChannelOption.EPOLL_MODE, this.getTcpEpollMode());
+                }
+                this.tcpClientBootstrap = template;
+            }
+        }
+        return template.clone();
+    }
+
+    /**
+     * Queues a connect of the CLIENT Association. It is initiated right away unless maxConcurrentConnects connects are
+     * already in progress, then as soon as one of them completes.
+     *
+     * @param association
+     */
+    protected void queueConnect(NettyAssociationImpl association) {
+        this.connectQueue.offer(association);
+        this.drainConnectQueue();
+    }
+
+    /**
+     * Called by a CLIENT Association once a connect started by {@link NettyAssociationImpl#connect()} has succeeded or
+     * failed
+     */
+    protected void connectFinished() {
+        // a connect still completing while the stack stops finds the count reset already
+        int pending;
+        do {
+            pending = this.pendingConnects.get();
+            if (pending <= 0)
+                return;
+        } while (!this.pendingConnects.compareAndSet(pending, pending - 1));
+
+        this.scheduleDrainConnectQueue();
+    }
+
+    /**
+     * Starts the queued connects which got a permit on the client executor, the only thread initiating connects, as
+     * they resolve addresses. Used by callers on an event loop or a management thread
+     */
+    private void scheduleDrainConnectQueue() {
+        ScheduledExecutorService executor = this.clientExecutor;
+        if (executor == null || this.connectQueue.isEmpty())
+            return;
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drainConnectQueue();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // stopping
+        }
+    }
+
+    /**
+     * Initiates queued connects while permits are left. Called on the client executor only
+     */
+    private void drainConnectQueue() {
+        while (!this.connectQueue.isEmpty()) {
+            int pending = this.pendingConnects.get();
+            if (pending >= this.maxConcurrentConnects)
+                return;
+            if (!this.pendingConnects.compareAndSet(pending, pending + 1))
+                continue;
+
+            NettyAssociationImpl association = this.connectQueue.poll();
+            if (association == null) {
+                this.pendingConnects.decrementAndGet();
+                continue;
+            }
+            // returns the permit through connectFinished()
+            association.connect();
+        }
+    }
+
+    /**
+     * @return the number of client connects in progress
+     */
+    public int getPendingConnects() {
+        return this.pendingConnects.get();
+    }
+
+    public int getMaxConcurrentConnects() {
+        return maxConcurrentConnects;
+    }
+
+    /**
+     * Sets how many client connects may be in progress at the same time, the others wait for their turn
+     */
+    public void setMaxConcurrentConnects(int maxConcurrentConnects) throws Exception {
+        if (maxConcurrentConnects < 1)
+            throw new Exception("MaxConcurrentConnects must be positive");
+
+        this.maxConcurrentConnects = maxConcurrentConnects;
+        this.scheduleDrainConnectQueue();
+    }
+
+    /**
+     * @param ipChannelType
+     * @param affinity index of the affinity group event loop, -1 for none
+     * @return the affinity group event loop or null if there is no affinity or no such loop
+     */
+    protected EventLoop getAffinityEventLoop(IpChannelType ipChannelType, int affinity) {
+        if (affinity < 0)
+            return null;
+
+        EventLoop[] loops = ipChannelType == IpChannelType.SCTP ? this.sctpAffinityLoops : this.tcpAffinityLoops;
+        if (loops == null || affinity >= loops.length) {
+            logger.warn(String.format("Event loop affinity=%d is ignored as management=%s has %d affinity threads",
+                    affinity, this.name, this.affinityThreads));
+            return null;
+        }
+        return loops[affinity];
+    }
+
+    /**
+     * Chooses the worker group event loop for the passed CLIENT Association as per {@link NettyClientPlacementPolicy}.
+     * The loop must be released by {@link #releaseClientEventLoop(EventLoop)} when the Association stops.
+     *
+     * @param association
+     * @return the event loop or null if the stack is not started
+     */
+    protected EventLoop assignClientEventLoop(NettyAssociationImpl association) {
+        EventLoop[] loops = association.getIpChannelType() == IpChannelType.SCTP ? this.sctpClientLoops
+                : this.tcpClientLoops;
+        Map<EventLoop, AtomicInteger> load = this.clientLoopLoad;
+        if (!this.started || loops == null || loops.length == 0)
+            return null;
+
+        // a pinned Association has its affinity loop to itself and is not counted
+        EventLoop loop = this.getAffinityEventLoop(association.getIpChannelType(), association.getEventLoopAffinity());
+        if (loop != null)
+            return loop;
+
+        switch (this.clientPlacementPolicy) {
+            case LEAST_ASSOCIATIONS:
+                loop = loops[0];
+                for (int i = 1; i < loops.length; i++) {
+                    if (load.get(loops[i]).get() < load.get(loop).get()) {
+                        loop = loops[i];
+                    }
+                }
+                break;
+            case PINNED:
+                loop = loops[(association.getName().hashCode() & 0x7fffffff) % loops.length];
+                break;
+            default:
+                loop = loops[(this.clientLoopCounter.getAndIncrement() & 0x7fffffff) % loops.length];
+                break;
+        }
+
+        load.get(loop).incrementAndGet();
+        return loop;
+    }
+
+    protected void releaseClientEventLoop(EventLoop loop) {
+        Map<EventLoop, AtomicInteger> load = this.clientLoopLoad;
+        AtomicInteger count = load != null ? load.get(loop) : null;
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the policy CLIENT Associations are placed on the worker group event loops with
+     */
+    public NettyClientPlacementPolicy getClientPlacementPolicy() {
+        return clientPlacementPolicy;
+    }
+
+    /**
+     * Sets the placement policy of CLIENT Associations. Associations already placed stay on their event loop until
+     * they are stopped.
+     *
+     * @param clientPlacementPolicy
+     * @throws Exception
+     */
+    public void setClientPlacementPolicy(NettyClientPlacementPolicy clientPlacementPolicy) throws Exception {
+        if (clientPlacementPolicy == null)
+            throw new Exception("ClientPlacementPolicy can not be null");
+
+        this.clientPlacementPolicy = clientPlacementPolicy;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -298,6 +698,72 @@ public class NettySctpManagementImpl implements Management {
         }
     }
 
+    @Override
+    public void addMetricsExporter(MetricsExporter exporter) {
+        synchronized (this) {
+            if (this.metricsExporters.contains(exporter))
+                return;
+
+            FastList<MetricsExporter> newMetricsExporters = new FastList<MetricsExporter>();
+            newMetricsExporters.addAll(this.metricsExporters);
+            newMetricsExporters.add(exporter);
+            this.metricsExporters = newMetricsExporters;
+
+            for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n
+                    .getNext()) != end;) {
+                this.registerMetrics(exporter, n.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void removeMetricsExporter(MetricsExporter exporter) {
+        synchronized (this) {
+            if (!this.metricsExporters.contains(exporter))
+                return;
+
+            FastList<MetricsExporter> newMetricsExporters = new FastList<MetricsExporter>();
+            newMetricsExporters.addAll(this.metricsExporters);
+            newMetricsExporters.remove(exporter);
+            this.metricsExporters = newMetricsExporters;
+
+            for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n
+                    .getNext()) != end;) {
+                this.unregisterMetrics(exporter, n.getValue());
+            }
+        }
+    }
+
+    private void registerMetrics(Association association) {
+        for (MetricsExporter exporter : this.metricsExporters) {
+            this.registerMetrics(exporter, association);
+        }
+    }
+
+    private void registerMetrics(MetricsExporter exporter, Association association) {
+        try {
+            exporter.register(this, association);
+        } catch (Throwable ee) {
+            logger.error(String.format("Exception while registering Association=%s with MetricsExporter",
+                    association.getName()), ee);
+        }
+    }
+
+    private void unregisterMetrics(Association association) {
+        for (MetricsExporter exporter : this.metricsExporters) {
+            this.unregisterMetrics(exporter, association);
+        }
+    }
+
+    private void unregisterMetrics(MetricsExporter exporter, Association association) {
+        try {
+            exporter.unregister(this, association);
+        } catch (Throwable ee) {
+            logger.error(String.format("Exception while unregistering Association=%s from MetricsExporter",
+                    association.getName()), ee);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -323,19 +789,116 @@ public class NettySctpManagementImpl implements Management {
 
             logger.info(String.format("SCTP configuration file path %s", persistFile.toString()));
 
-            this.bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("Sctp-BossGroup-" + this.name));
-            // TODO: make a thread count for WorkerGroup configurable
-            this.workerGroup = new NioEventLoopGroup(0, new DefaultThreadFactory("Sctp-WorkerGroup-" + this.name));
+            // loading first as the persisted thread counts are needed for the event loop groups, persisted Servers are
+            // started once the groups exist
+            try {
+                this.load();
+            } catch (FileNotFoundException e) {
+                logger.warn(String.format("Failed to load the SCTP configuration file. \n%s", e.getMessage()));
+            }
+            for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n
+                    .getNext()) != end;) {
+                this.registerMetrics(n.getValue());
+            }
+            if (this.bossThreadsSet || this.workerThreadsSet || this.affinityThreadsSet || this.listenerThreadsSet) {
+                this.store();
+            }
+
+            this.bossGroup = new NioEventLoopGroup(this.bossThreads, new DefaultThreadFactory("Sctp-BossGroup-"
+                    + this.name));
+            this.workerGroup = new NioEventLoopGroup(this.workerThreads, new DefaultThreadFactory("Sctp-WorkerGroup-"
+                    + this.name));
+            this.affinityGroup = null;
+            if (this.affinityThreads > 0) {
+                this.affinityGroup = new NioEventLoopGroup(this.affinityThreads, new DefaultThreadFactory(
+                        "Sctp-AffinityGroup-" + this.name));
+            }
+
+            // epoll channels need epoll event loops, so TCP gets its own groups then
+            this.tcpEpoll = false;
+            if (this.optionTcpEpoll) {
+                if (Epoll.isAvailable()) {
+                    this.tcpEpoll = true;
+                } else {
+                    logger.warn(String.format("Native epoll transport is not available, TCP uses NIO for management=%s",
+                            this.name), Epoll.unavailabilityCause());
+                }
+            }
+            if (this.tcpEpoll) {
+                this.tcpBossGroup = null;
+                this.tcpWorkerGroup = null;
+                this.tcpAffinityGroup = null;
+                try {
+                    this.tcpBossGroup = new EpollEventLoopGroup(this.bossThreads, new DefaultThreadFactory(
+                            "Sctp-TcpBossGroup-" + this.name));
+                    this.tcpWorkerGroup = new EpollEventLoopGroup(this.workerThreads, new DefaultThreadFactory(
+                            "Sctp-TcpWorkerGroup-" + this.name));
+                    if (this.affinityThreads > 0) {
+                        this.tcpAffinityGroup = new EpollEventLoopGroup(this.affinityThreads, new DefaultThreadFactory(
+                                "Sctp-TcpAffinityGroup-" + this.name));
+                    }
+                } catch (Throwable e) {
+                    // the native library loads but the kernel may still refuse epoll / eventfd
+                    logger.warn(String.format("Failed to create epoll event loops, TCP uses NIO for management=%s",
+                            this.name), e);
+                    if (this.tcpBossGroup != null) {
+                        this.tcpBossGroup.shutdownGracefully();
+                    }
+                    if (this.tcpWorkerGroup != null) {
+                        this.tcpWorkerGroup.shutdownGracefully();
+                    }
+                    if (this.tcpAffinityGroup != null) {
+                        this.tcpAffinityGroup.shutdownGracefully();
+                    }
+                    this.tcpEpoll = false;
+                }
+            }
+            if (!this.tcpEpoll) {
+                this.tcpBossGroup = this.bossGroup;
+                this.tcpWorkerGroup = this.workerGroup;
+                this.tcpAffinityGroup = this.affinityGroup;
+            }
+            this.clientLoopLoad = new IdentityHashMap<EventLoop, AtomicInteger>();
+            this.sctpClientLoops = this.getEventLoops(this.workerGroup);
+            this.tcpClientLoops = this.getEventLoops(this.tcpWorkerGroup);
+            for (EventLoop loop : this.sctpClientLoops) {
+                this.clientLoopLoad.put(loop, new AtomicInteger());
+            }
+            for (EventLoop loop : this.tcpClientLoops) {
+                if (!this.clientLoopLoad.containsKey(loop)) {
+                    this.clientLoopLoad.put(loop, new AtomicInteger());
+                }
+            }
+            this.sctpAffinityLoops = this.affinityGroup != null ? this.getEventLoops(this.affinityGroup) : null;
+            this.tcpAffinityLoops = this.tcpAffinityGroup != null ? this.getEventLoops(this.tcpAffinityGroup) : null;
+            this.sctpClientBootstrap = null;
+            this.tcpClientBootstrap = null;
             this.clientExecutor = new ScheduledThreadPoolExecutor(1, new DefaultThreadFactory("Sctp-ClientExecutorGroup-"
                     + this.name));
+            this.listenerGroup = null;
+            this.listenerExecutors = null;
+            if (this.listenerThreads > 0) {
+                this.listenerGroup = new DefaultEventExecutorGroup(this.listenerThreads, new DefaultThreadFactory(
+                        "Sctp-ListenerGroup-" + this.name));
+                List<EventExecutor> executors = new ArrayList<EventExecutor>();
+                for (Iterator<EventExecutor> it = this.listenerGroup.iterator(); it.hasNext();) {
+                    executors.add(it.next());
+                }
+                this.listenerExecutors = executors.toArray(new EventExecutor[executors.size()]);
+            }
 
             // this.nettyClientOpsThread = new NettyClientOpsThread(this);
             // (new Thread(this.nettyClientOpsThread )).start();
 
-            try {
-                this.load();
-            } catch (FileNotFoundException e) {
-                logger.warn(String.format("Failed to load the SCTP configuration file. \n%s", e.getMessage()));
+            for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
+                Server serverTemp = n.getValue();
+                if (serverTemp.isStarted()) {
+                    try {
+                        ((NettyServerImpl) serverTemp).start();
+                    } catch (Exception e) {
+                        logger.error(String.format("Error while initiating Server=%s", serverTemp.getName()), e);
+                    }
+                }
             }
 
             this.started = true;
@@ -419,11 +982,34 @@ public class NettySctpManagementImpl implements Management {
         // TODO - make a general shutdown and waiting for it instead of "waiting till stopping associations" 
         this.bossGroup.shutdownGracefully();
         this.workerGroup.shutdownGracefully();
+        if (this.affinityGroup != null) {
+            this.affinityGroup.shutdownGracefully();
+        }
+        if (this.tcpEpoll) {
+            this.tcpBossGroup.shutdownGracefully();
+            this.tcpWorkerGroup.shutdownGracefully();
+            if (this.tcpAffinityGroup != null) {
+                this.tcpAffinityGroup.shutdownGracefully();
+            }
+        }
         this.clientExecutor.shutdown();
+        // associations are stopped, connects waiting for a permit will not be started
+        this.connectQueue.clear();
+        this.pendingConnects.set(0);
+        if (this.listenerGroup != null) {
+            // payloads already read are still delivered
+            this.listenerGroup.shutdownGracefully();
+        }
        
 
         // TODO Should servers be also checked for shutdown?
 
+        // Associations are loaded again at next start
+        for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n
+                .getNext()) != end;) {
+            this.unregisterMetrics(n.getValue());
+        }
+
         this.started = false;
 
     }
@@ -794,6 +1380,7 @@ public class NettySctpManagementImpl implements Management {
             newAssociations.put(assocName, association);
             this.associations = newAssociations;
             // this.associations.put(assocName, association);
+            this.associationIndex.put(association);
 
             FastList<String> newAssociations2 = new FastList<String>();
             newAssociations2.addAll(((NettyServerImpl) server).associations);
@@ -803,6 +1390,9 @@ public class NettySctpManagementImpl implements Management {
 
             this.store();
 
+            this.registerMetrics(association);
+            this.captureAddresses(association);
+
             for (ManagementEventListener lstr : managementEventListeners) {
                 try {
                     lstr.onAssociationAdded(association);
@@ -899,6 +1489,9 @@ public class NettySctpManagementImpl implements Management {
 
             this.store();
 
+            this.registerMetrics(association);
+            this.captureAddresses(association);
+
             for (ManagementEventListener lstr : managementEventListeners) {
                 try {
                     lstr.onAssociationAdded(association);
@@ -947,6 +1540,7 @@ public class NettySctpManagementImpl implements Management {
             newAssociations.remove(assocName);
             this.associations = newAssociations;
             // this.associations.remove(assocName);
+            this.associationIndex.remove(association);
 
             if (((NettyAssociationImpl) association).getAssociationType() == AssociationType.SERVER) {
                 for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
@@ -963,6 +1557,8 @@ public class NettySctpManagementImpl implements Management {
 
             this.store();
 
+            this.unregisterMetrics(association);
+
             for (ManagementEventListener lstr : managementEventListeners) {
                 try {
                     lstr.onAssociationRemoved(association);
@@ -1107,6 +1703,8 @@ public class NettySctpManagementImpl implements Management {
 
         congControl_DelayThreshold[0] = val;
 
+        this.warnDelayThresholdDeprecated("CongControl_DelayThreshold_1");
+
         this.store();
     }
 
@@ -1117,6 +1715,8 @@ public class NettySctpManagementImpl implements Management {
 
         congControl_DelayThreshold[1] = val;
 
+        this.warnDelayThresholdDeprecated("CongControl_DelayThreshold_2");
+
         this.store();
     }
 
@@ -1127,6 +1727,8 @@ public class NettySctpManagementImpl implements Management {
 
         congControl_DelayThreshold[2] = val;
 
+        this.warnDelayThresholdDeprecated("CongControl_DelayThreshold_3");
+
         this.store();
     }
 
@@ -1153,6 +1755,8 @@ public class NettySctpManagementImpl implements Management {
 
         congControl_BackToNormalDelayThreshold[0] = val;
 
+        this.warnDelayThresholdDeprecated("CongControl_BackToNormalDelayThreshold_1");
+
         this.store();
     }
 
@@ -1164,6 +1768,8 @@ public class NettySctpManagementImpl implements Management {
 
         congControl_BackToNormalDelayThreshold[1] = val;
 
+        this.warnDelayThresholdDeprecated("CongControl_BackToNormalDelayThreshold_2");
+
         this.store();
     }
 
@@ -1175,9 +1781,168 @@ public class NettySctpManagementImpl implements Management {
 
         congControl_BackToNormalDelayThreshold[2] = val;
 
+        this.warnDelayThresholdDeprecated("CongControl_BackToNormalDelayThreshold_3");
+
+        this.store();
+    }
+
+    private void warnDelayThresholdDeprecated(String parameter) {
+        logger.warn(String.format("%s is deprecated and has no effect, congestion levels of management=%s follow "
+                + "TxHighWaterMark, CongControl_QueueThreshold and CongControl_BackToNormalQueueThreshold. The value "
+                + "is still persisted", parameter, this.name));
+    }
+
+    /**
+     * @return the txHighWaterMark
+     */
+    public int getTxHighWaterMark() {
+        return txHighWaterMark;
+    }
+
+    /**
+     * Sets the number of bytes waiting to be written for an Association that counts as a full outbound queue for the
+     * congestion levels. Default is 8 MB, 0 disables the congestion levels. Applies to channels opened afterwards.
+     * 
+     * @param txHighWaterMark the txHighWaterMark to set
+     */
+    public void setTxHighWaterMark(int txHighWaterMark) throws Exception {
+        if (!this.started)
+            throw new Exception("TxHighWaterMark parameter can be updated only when SCTP stack is running");
+        if (txHighWaterMark < 0)
+            throw new Exception("TxHighWaterMark can not be negative");
+
+        this.txHighWaterMark = txHighWaterMark;
+        this.invalidateClientBootstraps();
+
+        this.store();
+    }
+
+    public double getCongControl_QueueThreshold_1() {
+        return congControl_QueueThreshold[0];
+    }
+
+    public double getCongControl_QueueThreshold_2() {
+        return congControl_QueueThreshold[1];
+    }
+
+    public double getCongControl_QueueThreshold_3() {
+        return congControl_QueueThreshold[2];
+    }
+
+    public double getCongControl_BackToNormalQueueThreshold_1() {
+        return congControl_BackToNormalQueueThreshold[0];
+    }
+
+    public double getCongControl_BackToNormalQueueThreshold_2() {
+        return congControl_BackToNormalQueueThreshold[1];
+    }
+
+    public double getCongControl_BackToNormalQueueThreshold_3() {
+        return congControl_BackToNormalQueueThreshold[2];
+    }
+
+    /**
+     * Sets the fill of the outbound queue in percent of TxHighWaterMark at which an Association reaches congestion
+     * level 1
+     */
+    public void setCongControl_QueueThreshold_1(double val) throws Exception {
+        this.setCongControl_QueueThreshold(0, val);
+    }
+
+    public void setCongControl_QueueThreshold_2(double val) throws Exception {
+        this.setCongControl_QueueThreshold(1, val);
+    }
+
+    public void setCongControl_QueueThreshold_3(double val) throws Exception {
+        this.setCongControl_QueueThreshold(2, val);
+    }
+
+    /**
+     * Sets the fill of the outbound queue in percent of TxHighWaterMark under which an Association drops from
+     * congestion level 1 back to 0
+     */
+    public void setCongControl_BackToNormalQueueThreshold_1(double val) throws Exception {
+        this.setCongControl_BackToNormalQueueThreshold(0, val);
+    }
+
+    public void setCongControl_BackToNormalQueueThreshold_2(double val) throws Exception {
+        this.setCongControl_BackToNormalQueueThreshold(1, val);
+    }
+
+    public void setCongControl_BackToNormalQueueThreshold_3(double val) throws Exception {
+        this.setCongControl_BackToNormalQueueThreshold(2, val);
+    }
+
+    private synchronized void setCongControl_QueueThreshold(int index, double val) throws Exception {
+        if (!this.started)
+            throw new Exception("CongControl_QueueThreshold parameter can be updated only when SCTP stack is running");
+        if (val < 0 || val > 100)
+            throw new Exception("CongControl_QueueThreshold must be between 0 and 100");
+
+        double[] threshold = this.congControl_QueueThreshold.clone();
+        threshold[index] = val;
+        ManagementImpl.checkCongControlQueueThresholds(threshold, this.congControl_BackToNormalQueueThreshold);
+        this.congControl_QueueThreshold = threshold;
+        this.invalidateClientBootstraps();
+
         this.store();
     }
 
+    private synchronized void setCongControl_BackToNormalQueueThreshold(int index, double val) throws Exception {
+        if (!this.started)
+            throw new Exception(
+                    "CongControl_BackToNormalQueueThreshold parameter can be updated only when SCTP stack is running");
+        if (val < 0 || val > 100)
+            throw new Exception("CongControl_BackToNormalQueueThreshold must be between 0 and 100");
+
+        double[] backToNormalThreshold = this.congControl_BackToNormalQueueThreshold.clone();
+        backToNormalThreshold[index] = val;
+        ManagementImpl.checkCongControlQueueThresholds(this.congControl_QueueThreshold, backToNormalThreshold);
+        this.congControl_BackToNormalQueueThreshold = backToNormalThreshold;
+        this.invalidateClientBootstraps();
+
+        this.store();
+    }
+
+    /**
+     * Write buffer water marks of the channels, in bytes, matching congestion level 1 and its back to normal threshold,
+     * so the channel writability changes (and the congestion level is checked) as the outbound buffer drains.
+     * 
+     * @return { high water mark, low water mark } or null if the congestion levels are disabled
+     */
+    protected int[] getWriteBufferWaterMarks() {
+        int maxBytes = this.txHighWaterMark;
+        if (maxBytes == 0)
+            return null;
+
+        int high = (int) (maxBytes * this.congControl_QueueThreshold[0] / 100);
+        int low = (int) (maxBytes * this.congControl_BackToNormalQueueThreshold[0] / 100);
+        return new int[] { Math.max(high, 1), Math.min(low, Math.max(high, 1)) };
+    }
+
+    /**
+     * Sets the write buffer water marks of {@link #getWriteBufferWaterMarks()}. Netty checks each against the current
+     * value of the other one (defaults 64 KB / 32 KB), so they are set in an order that always passes.
+     */
+    protected static Map<ChannelOption<Integer>, Integer> getWriteBufferWaterMarkOptions(int[] waterMarks) {
+        Map<ChannelOption<Integer>, Integer> options = new LinkedHashMap<ChannelOption<Integer>, Integer>();
+        if (waterMarks != null) {
+            if (waterMarks[0] >= 32 * 1024) {
+                options.put(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, waterMarks[0]);
+                options.put(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, waterMarks[1]);
+            } else {
+                options.put(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, waterMarks[1]);
+                options.put(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, waterMarks[0]);
+            }
+        }
+        return options;
+    }
+
+    private void invalidateClientBootstraps() {
+        this.sctpClientBootstrap = null;
+        this.tcpClientBootstrap = null;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -1185,8 +1950,7 @@ public class NettySctpManagementImpl implements Management {
      */
     @Override
     public int getWorkerThreads() {
-        return 1;
-//        return this.workerThreads;
+        return this.workerThreads;
     }
 
     /*
@@ -1196,13 +1960,116 @@ public class NettySctpManagementImpl implements Management {
      */
     @Override
     public void setWorkerThreads(int workerThreads) throws Exception {
-//        if (this.started)
-//            throw new Exception("WorkerThreads parameter can be updated only when SCTP stack is NOT running");
-//
-//        if (workerThreads < 1) {
-//            workerThreads = DEFAULT_IO_THREADS;
-//        }
-//        this.workerThreads = workerThreads;
+        if (this.started)
+            throw new Exception("WorkerThreads parameter can be updated only when SCTP stack is NOT running");
+
+        if (workerThreads < 1) {
+            workerThreads = DEFAULT_IO_THREADS;
+        }
+        this.workerThreads = workerThreads;
+        this.workerThreadsSet = true;
+    }
+
+    /**
+     * @return the number of event loops accepting connections of Servers
+     */
+    public int getBossThreads() {
+        return this.bossThreads;
+    }
+
+    public void setBossThreads(int bossThreads) throws Exception {
+        if (this.started)
+            throw new Exception("BossThreads parameter can be updated only when SCTP stack is NOT running");
+
+        if (bossThreads < 1) {
+            bossThreads = 1;
+        }
+        this.bossThreads = bossThreads;
+        this.bossThreadsSet = true;
+    }
+
+    /**
+     * @return the number of event loops reserved for Associations and Servers with an event loop affinity
+     */
+    public int getAffinityThreads() {
+        return this.affinityThreads;
+    }
+
+    /**
+     * Sets the number of event loops reserved for Associations and Servers with an event loop affinity. These loops
+     * serve nothing else, so the pinned links are kept apart from the traffic of the worker group.
+     * 
+     * @param affinityThreads 0 for none
+     * @throws Exception
+     */
+    public void setAffinityThreads(int affinityThreads) throws Exception {
+        if (this.started)
+            throw new Exception("AffinityThreads parameter can be updated only when SCTP stack is NOT running");
+
+        if (affinityThreads < 0)
+            throw new Exception("AffinityThreads can not be negative");
+        this.affinityThreads = affinityThreads;
+        this.affinityThreadsSet = true;
+    }
+
+    /**
+     * @return the number of threads AssociationListener.onPayload is called from, 0 if it is called in the event loops
+     */
+    public int getListenerThreads() {
+        return this.listenerThreads;
+    }
+
+    /**
+     * Sets the number of threads AssociationListener.onPayload is called from, so a slow listener does not hold up the
+     * event loop and the other Associations it serves. Payloads of a stream of an Association are always delivered by
+     * the same thread, in the order they were read; unordered payloads go to any thread.
+     * 
+     * @param listenerThreads 0 to call the listener in the event loop itself
+     * @throws Exception
+     */
+    public void setListenerThreads(int listenerThreads) throws Exception {
+        if (this.started)
+            throw new Exception("ListenerThreads parameter can be updated only when SCTP stack is NOT running");
+
+        if (listenerThreads < 0)
+            throw new Exception("ListenerThreads can not be negative");
+        this.listenerThreads = listenerThreads;
+        this.listenerThreadsSet = true;
+    }
+
+    /**
+     * Pins an Association or a Server to an event loop reserved by {@link #setAffinityThreads(int)}. A CLIENT
+     * Association connects from that loop, a Server serves all the connections it accepts (SERVER and anonymous
+     * Associations) on it. SERVER Associations follow the affinity of their Server. Takes effect at the next connect of
+     * the Association or start of the Server.
+     * 
+     * @param name name of the Association or Server
+     * @param affinity index of the reserved event loop, from 0 to affinityThreads - 1, or -1 to remove the affinity
+     * @throws Exception
+     */
+    public void setEventLoopAffinity(String name, int affinity) throws Exception {
+        if (affinity < -1)
+            throw new Exception(String.format("Bad event loop affinity=%d", affinity));
+
+        synchronized (this) {
+            NettyAssociationImpl association = (NettyAssociationImpl) this.associations.get(name);
+            if (association != null) {
+                association.setEventLoopAffinity(affinity);
+            } else {
+                NettyServerImpl server = null;
+                for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
+                    if (n.getValue().getName().equals(name)) {
+                        server = (NettyServerImpl) n.getValue();
+                        break;
+                    }
+                }
+                if (server == null)
+                    throw new Exception(String.format("No Association or Server found for name=%s", name));
+                server.setEventLoopAffinity(affinity);
+            }
+
+            this.store();
+        }
     }
 
     /*
@@ -1212,7 +2079,7 @@ public class NettySctpManagementImpl implements Management {
      */
     @Override
     public boolean isSingleThread() {
-        return true;
+        return this.listenerThreads == 0;
 //        return this.singleThread;
     }
 
@@ -1238,6 +2105,7 @@ public class NettySctpManagementImpl implements Management {
     @Override
     public void setOptionSctpDisableFragments(Boolean optionSctpDisableFragments) {
         this.optionSctpDisableFragments = optionSctpDisableFragments;
+        this.sctpClientBootstrap = null;
     }
 
     @Override
@@ -1248,6 +2116,7 @@ public class NettySctpManagementImpl implements Management {
     @Override
     public void setOptionSctpFragmentInterleave(Integer optionSctpFragmentInterleave) {
         this.optionSctpFragmentInterleave = optionSctpFragmentInterleave;
+        this.sctpClientBootstrap = null;
     }
 
     public InitMaxStreams getOptionSctpInitMaxstreams() {
@@ -1272,11 +2141,13 @@ public class NettySctpManagementImpl implements Management {
     @Override
     public void setOptionSctpInitMaxstreams_MaxOutStreams(Integer val) {
         this.optionSctpInitMaxstreams_MaxOutStreams = val;
+        this.sctpClientBootstrap = null;
     }
 
     @Override
     public void setOptionSctpInitMaxstreams_MaxInStreams(Integer val) {
         this.optionSctpInitMaxstreams_MaxInStreams = val;
+        this.sctpClientBootstrap = null;
     }
 
     @Override
@@ -1287,6 +2158,7 @@ public class NettySctpManagementImpl implements Management {
     @Override
     public void setOptionSctpNodelay(Boolean optionSctpNodelay) {
         this.optionSctpNodelay = optionSctpNodelay;
+        this.sctpClientBootstrap = null;
     }
 
     @Override
@@ -1297,6 +2169,7 @@ public class NettySctpManagementImpl implements Management {
     @Override
     public void setOptionSoSndbuf(Integer optionSoSndbuf) {
         this.optionSoSndbuf = optionSoSndbuf;
+        this.sctpClientBootstrap = null;
     }
 
     @Override
@@ -1307,6 +2180,7 @@ public class NettySctpManagementImpl implements Management {
     @Override
     public void setOptionSoRcvbuf(Integer optionSoRcvbuf) {
         this.optionSoRcvbuf = optionSoRcvbuf;
+        this.sctpClientBootstrap = null;
     }
 
     @Override
@@ -1317,6 +2191,34 @@ public class NettySctpManagementImpl implements Management {
     @Override
     public void setOptionSoLinger(Integer optionSoLinger) {
         this.optionSoLinger = optionSoLinger;
+        this.sctpClientBootstrap = null;
+    }
+
+    public boolean isOptionTcpEpoll() {
+        return optionTcpEpoll;
+    }
+
+    /**
+     * Use Netty's native epoll transport for TCP Associations and Servers (Linux only, NIO is used if epoll is not
+     * available). Can be updated only when the stack is not running.
+     */
+    public void setOptionTcpEpoll(boolean optionTcpEpoll) throws Exception {
+        if (this.started)
+            throw new Exception("OptionTcpEpoll parameter can be updated only when SCTP stack is NOT running");
+
+        this.optionTcpEpoll = optionTcpEpoll;
+    }
+
+    public boolean isOptionTcpEpollEdgeTriggered() {
+        return optionTcpEpollEdgeTriggered;
+    }
+
+    /**
+     * Edge-triggered (default) or level-triggered epoll for TCP channels. Applies to channels opened afterwards.
+     */
+    public void setOptionTcpEpollEdgeTriggered(boolean optionTcpEpollEdgeTriggered) {
+        this.optionTcpEpollEdgeTriggered = optionTcpEpollEdgeTriggered;
+        this.tcpClientBootstrap = null;
     }
 
     protected FastList<ManagementEventListener> getManagementEventListeners() {
@@ -1351,12 +2253,24 @@ public class NettySctpManagementImpl implements Management {
             // this.workerThreads = reader.read(WORKER_THREADS_PROP, Integer.class);
             // this.singleThread = reader.read(SINGLE_THREAD_PROP, Boolean.class);
             vali = reader.read(WORKER_THREADS_PROP, Integer.class);
+            if (vali != null && !this.workerThreadsSet)
+                this.workerThreads = vali;
             Boolean valb = reader.read(SINGLE_THREAD_PROP, Boolean.class);
+            vali = reader.read(BOSS_THREADS_PROP, Integer.class);
+            if (vali != null && !this.bossThreadsSet)
+                this.bossThreads = vali;
+            vali = reader.read(AFFINITY_THREADS_PROP, Integer.class);
+            if (vali != null && !this.affinityThreadsSet)
+                this.affinityThreads = vali;
+            vali = reader.read(LISTENER_THREADS_PROP, Integer.class);
+            if (vali != null && !this.listenerThreadsSet)
+                this.listenerThreads = vali;
         } catch (java.lang.NullPointerException npe) {
             // ignore.
             // For backward compatibility we can ignore if these values are not defined
         }
 
+        // delay thresholds have no effect any more but are kept as long as the Management API has them
         Double valTH1 = reader.read(CONG_CONTROL_DELAY_THRESHOLD_1, Double.class);
         Double valTH2 = reader.read(CONG_CONTROL_DELAY_THRESHOLD_2, Double.class);
         Double valTH3 = reader.read(CONG_CONTROL_DELAY_THRESHOLD_3, Double.class);
@@ -1374,6 +2288,26 @@ public class NettySctpManagementImpl implements Management {
             this.congControl_BackToNormalDelayThreshold[2] = valTB3;
         }
 
+        Integer valHWM = reader.read(TX_HIGH_WATER_MARK, Integer.class);
+        if (valHWM != null)
+            this.txHighWaterMark = valHWM;
+        Double valQH1 = reader.read(CONG_CONTROL_QUEUE_THRESHOLD_1, Double.class);
+        Double valQH2 = reader.read(CONG_CONTROL_QUEUE_THRESHOLD_2, Double.class);
+        Double valQH3 = reader.read(CONG_CONTROL_QUEUE_THRESHOLD_3, Double.class);
+        Double valQB1 = reader.read(CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_1, Double.class);
+        Double valQB2 = reader.read(CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_2, Double.class);
+        Double valQB3 = reader.read(CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_3, Double.class);
+        if (valQH1 != null && valQH2 != null && valQH3 != null && valQB1 != null && valQB2 != null && valQB3 != null) {
+            this.congControl_QueueThreshold = new double[3];
+            this.congControl_QueueThreshold[0] = valQH1;
+            this.congControl_QueueThreshold[1] = valQH2;
+            this.congControl_QueueThreshold[2] = valQH3;
+            this.congControl_BackToNormalQueueThreshold = new double[3];
+            this.congControl_BackToNormalQueueThreshold[0] = valQB1;
+            this.congControl_BackToNormalQueueThreshold[1] = valQB2;
+            this.congControl_BackToNormalQueueThreshold[2] = valQB3;
+        }
+
         // TODO: add storing of parameters
 //        Boolean valB = reader.read(OPTION_SCTP_DISABLE_FRAGMENTS, Boolean.class);
 //        if (valB != null)
@@ -1404,20 +2338,15 @@ public class NettySctpManagementImpl implements Management {
         for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
             Server serverTemp = n.getValue();
             ((NettyServerImpl) serverTemp).setManagement(this);
-            if (serverTemp.isStarted()) {
-                try {
-                    ((NettyServerImpl) serverTemp).start();
-                } catch (Exception e) {
-                    logger.error(String.format("Error while initiating Server=%s", serverTemp.getName()), e);
-                }
-            }
         }
 
         this.associations = reader.read(ASSOCIATIONS, NettyAssociationMap.class);
+        this.associationIndex.clear();
         for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n
                 .getNext()) != end;) {
             NettyAssociationImpl associationTemp = (NettyAssociationImpl) n.getValue();
             associationTemp.setManagement(this);
+            this.associationIndex.put(associationTemp);
         }
     }
 
@@ -1430,19 +2359,28 @@ public class NettySctpManagementImpl implements Management {
             writer.setIndentation(TAB_INDENT);
 
             writer.write(this.connectDelay, CONNECT_DELAY_PROP, Integer.class);
-            // writer.write(this.workerThreads, WORKER_THREADS_PROP, Integer.class);
+            writer.write(this.workerThreads, WORKER_THREADS_PROP, Integer.class);
+            writer.write(this.bossThreads, BOSS_THREADS_PROP, Integer.class);
+            writer.write(this.affinityThreads, AFFINITY_THREADS_PROP, Integer.class);
+            writer.write(this.listenerThreads, LISTENER_THREADS_PROP, Integer.class);
             // writer.write(this.singleThread, SINGLE_THREAD_PROP, Boolean.class);
 
-            if (this.congControl_DelayThreshold != null && this.congControl_DelayThreshold.length == 3) {
-                writer.write(this.congControl_DelayThreshold[0], CONG_CONTROL_DELAY_THRESHOLD_1, Double.class);
-                writer.write(this.congControl_DelayThreshold[1], CONG_CONTROL_DELAY_THRESHOLD_2, Double.class);
-                writer.write(this.congControl_DelayThreshold[2], CONG_CONTROL_DELAY_THRESHOLD_3, Double.class);
-            }
-            if (this.congControl_BackToNormalDelayThreshold != null && this.congControl_BackToNormalDelayThreshold.length == 3) {
-                writer.write(this.congControl_BackToNormalDelayThreshold[0], CONG_CONTROL_BACK_TO_NORMAL_DELAY_THRESHOLD_1, Double.class);
-                writer.write(this.congControl_BackToNormalDelayThreshold[1], CONG_CONTROL_BACK_TO_NORMAL_DELAY_THRESHOLD_2, Double.class);
-                writer.write(this.congControl_BackToNormalDelayThreshold[2], CONG_CONTROL_BACK_TO_NORMAL_DELAY_THRESHOLD_3, Double.class);
-            }
+            writer.write(this.congControl_DelayThreshold[0], CONG_CONTROL_DELAY_THRESHOLD_1, Double.class);
+            writer.write(this.congControl_DelayThreshold[1], CONG_CONTROL_DELAY_THRESHOLD_2, Double.class);
+            writer.write(this.congControl_DelayThreshold[2], CONG_CONTROL_DELAY_THRESHOLD_3, Double.class);
+            writer.write(this.congControl_BackToNormalDelayThreshold[0], CONG_CONTROL_BACK_TO_NORMAL_DELAY_THRESHOLD_1, Double.class);
+            writer.write(this.congControl_BackToNormalDelayThreshold[1], CONG_CONTROL_BACK_TO_NORMAL_DELAY_THRESHOLD_2, Double.class);
+            writer.write(this.congControl_BackToNormalDelayThreshold[2], CONG_CONTROL_BACK_TO_NORMAL_DELAY_THRESHOLD_3, Double.class);
+
+            double[] threshold = this.congControl_QueueThreshold;
+            double[] backToNormalThreshold = this.congControl_BackToNormalQueueThreshold;
+            writer.write(this.txHighWaterMark, TX_HIGH_WATER_MARK, Integer.class);
+            writer.write(threshold[0], CONG_CONTROL_QUEUE_THRESHOLD_1, Double.class);
+            writer.write(threshold[1], CONG_CONTROL_QUEUE_THRESHOLD_2, Double.class);
+            writer.write(threshold[2], CONG_CONTROL_QUEUE_THRESHOLD_3, Double.class);
+            writer.write(backToNormalThreshold[0], CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_1, Double.class);
+            writer.write(backToNormalThreshold[1], CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_2, Double.class);
+            writer.write(backToNormalThreshold[2], CONG_CONTROL_BACK_TO_NORMAL_QUEUE_THRESHOLD_3, Double.class);
 
             // TODO: add storing of parameters
 //            if (this.optionSctpDisableFragments != null) {
@@ -1571,75 +2509,82 @@ public class NettySctpManagementImpl implements Management {
 				throw new Exception(String.format("No Association found for name=%s", assocName));
 			}
 
-			for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n.getNext()) != end;) {
-				Association associationTemp = n.getValue();
-				if(assocName.equals(associationTemp.getName()))
-                    continue;
-
-				if (peerAddress != null && peerAddress.equals(associationTemp.getPeerAddress()) && associationTemp.getPeerPort() == peerPort) {
-					throw new Exception(String.format("Already has association=%s with same peer address=%s and port=%d", associationTemp.getName(),
-							peerAddress, peerPort));
+			// peer address, port and server may all change, so reindex when
+			// done (also if only part of the changes got applied)
+			this.associationIndex.remove(association);
+			try {
+				for (FastMap.Entry<String, Association> n = this.associations.head(), end = this.associations.tail(); (n = n.getNext()) != end;) {
+					Association associationTemp = n.getValue();
+					if(assocName.equals(associationTemp.getName()))
+	                    continue;
+
+					if (peerAddress != null && peerAddress.equals(associationTemp.getPeerAddress()) && associationTemp.getPeerPort() == peerPort) {
+						throw new Exception(String.format("Already has association=%s with same peer address=%s and port=%d", associationTemp.getName(),
+								peerAddress, peerPort));
+					}
 				}
-			}
 
-			if(peerAddress!=null)
-				association.setPeerAddress(peerAddress);
-			if(peerPort!= null)
-				association.setPeerPort(peerPort);
+				if(peerAddress!=null)
+					association.setPeerAddress(peerAddress);
+				if(peerPort!= null)
+					association.setPeerPort(peerPort);
 
-			if(serverName!=null && !serverName.equals(association.getServerName()))
-			{
-				Server newServer = null;
+				if(serverName!=null && !serverName.equals(association.getServerName()))
+				{
+					Server newServer = null;
 
-				for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
-					Server serverTemp = n.getValue();
-					if (serverTemp.getName().equals(serverName)) {
-						newServer = serverTemp;
+					for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
+						Server serverTemp = n.getValue();
+						if (serverTemp.getName().equals(serverName)) {
+							newServer = serverTemp;
+						}
 					}
-				}
-
-				if (newServer == null) {
-					throw new Exception(String.format("No Server found for name=%s", serverName));
-				}
 
-				if ((ipChannelType!=null && newServer.getIpChannelType() != ipChannelType)||(ipChannelType==null && newServer.getIpChannelType() != association.getIpChannelType()))
-					throw new Exception(String.format("Server and Accociation has different IP channel type"));
-
-				//remove association from current server
-				for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
-					Server serverTemp = n.getValue();
-					if (serverTemp.getName().equals(association.getServerName())) {
-						FastList<String> newAssociations2 = new FastList<String>();
-						newAssociations2.addAll(((NettyServerImpl) serverTemp).associations);
-						newAssociations2.remove(assocName);
-						((NettyServerImpl) serverTemp).associations = newAssociations2;
-						break;
+					if (newServer == null) {
+						throw new Exception(String.format("No Server found for name=%s", serverName));
 					}
-				}
 
-				//add association name to server
-				FastList<String> newAssociations2 = new FastList<String>();
-				newAssociations2.addAll(((NettyServerImpl) newServer).associations);
-				newAssociations2.add(assocName);
-				((NettyServerImpl) newServer).associations = newAssociations2;
+					if ((ipChannelType!=null && newServer.getIpChannelType() != ipChannelType)||(ipChannelType==null && newServer.getIpChannelType() != association.getIpChannelType()))
+						throw new Exception(String.format("Server and Accociation has different IP channel type"));
 
-				association.setServerName(serverName);
-			}
-			else
-			{
-				if(ipChannelType!=null)
-				{
+					//remove association from current server
 					for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
 						Server serverTemp = n.getValue();
 						if (serverTemp.getName().equals(association.getServerName())) {
-							if (serverTemp.getIpChannelType() != ipChannelType)
-								throw new Exception(String.format("Server and Accociation has different IP channel type"));
+							FastList<String> newAssociations2 = new FastList<String>();
+							newAssociations2.addAll(((NettyServerImpl) serverTemp).associations);
+							newAssociations2.remove(assocName);
+							((NettyServerImpl) serverTemp).associations = newAssociations2;
+							break;
 						}
 					}
 
-					association.setIpChannelType(ipChannelType);
+					//add association name to server
+					FastList<String> newAssociations2 = new FastList<String>();
+					newAssociations2.addAll(((NettyServerImpl) newServer).associations);
+					newAssociations2.add(assocName);
+					((NettyServerImpl) newServer).associations = newAssociations2;
+
+					association.setServerName(serverName);
 				}
+				else
+				{
+					if(ipChannelType!=null)
+					{
+						for (FastList.Node<Server> n = this.servers.head(), end = this.servers.tail(); (n = n.getNext()) != end;) {
+							Server serverTemp = n.getValue();
+							if (serverTemp.getName().equals(association.getServerName())) {
+								if (serverTemp.getIpChannelType() != ipChannelType)
+									throw new Exception(String.format("Server and Accociation has different IP channel type"));
+							}
+						}
+
+						association.setIpChannelType(ipChannelType);
+					}
 
+				}
+			} finally {
+				this.associationIndex.put(association);
 			}
 
 			this.store();
@@ -1735,6 +2680,8 @@ public class NettySctpManagementImpl implements Management {
 				association.start();
 			}
 
+			this.captureAddresses(association);
+
 			this.store();
 
 			for (ManagementEventListener lstr : managementEventListeners) {
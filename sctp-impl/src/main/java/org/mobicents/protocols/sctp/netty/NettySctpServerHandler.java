@@ -25,11 +25,7 @@ import io.netty.channel.ChannelHandlerContext;
 
 import java.net.InetSocketAddress;
 
-import javolution.util.FastMap;
-
 import org.apache.log4j.Logger;
-import org.mobicents.protocols.api.Association;
-import org.mobicents.protocols.api.AssociationType;
 import org.mobicents.protocols.api.IpChannelType;
 
 /**
@@ -76,46 +72,37 @@ public class NettySctpServerHandler extends NettySctpChannelInboundHandlerAdapte
             logger.debug(String.format("Received connect request from peer host=%s port=%d", host, port));
         }
 
-        // Iterate through all corresponding associate to
         // check if incoming connection request matches with any provisioned
-        // ip:port
-        FastMap<String, Association> associations = this.managementImpl.associations;
-        for (FastMap.Entry<String, Association> n = associations.head(), end = associations.tail(); (n = n.getNext()) != end
-                && !provisioned;) {
-            NettyAssociationImpl association = (NettyAssociationImpl) n.getValue();
-
-            // check if an association binds to the found server
-            if (serverImpl.getName().equals(association.getServerName())
-                    && association.getAssociationType() == AssociationType.SERVER) {
-                // compare port and ip of remote with provisioned
-                if ((port == association.getPeerPort() || association.getPeerPort()==0) && (host.equals(association.getPeerAddress()))) {
-                    provisioned = true;
-
-                    if (!association.isStarted()) {
-                        logger.error(String.format(
-                                "Received connect request for Association=%s but not started yet. Droping the connection!",
-                                association.getName()));
-                        channel.close();
-                        return;
-                    }
-
-                    this.association = association;
-                    this.channel = channel;
-                    this.ctx = ctx;
-                    this.association.setChannelHandler(this);
-
-                    if (logger.isInfoEnabled()) {
-                        logger.info(String.format("Connected %s", association));
-                    }
-
-                    if (association.getIpChannelType() == IpChannelType.TCP) {
-                        this.association.markAssociationUp(1, 1);
-                    }
-
-                    break;
-                }
+        // ip:port. Peer port 0 of an Association matches any port
+        NettyAssociationImpl association = (NettyAssociationImpl) this.managementImpl.associationIndex.get(
+                serverImpl.getName(), host, port);
+        if (association == null) {
+            association = (NettyAssociationImpl) this.managementImpl.associationIndex.get(serverImpl.getName(), host, 0);
+        }
+        if (association != null) {
+            provisioned = true;
+
+            if (!association.isStarted()) {
+                logger.error(String.format(
+                        "Received connect request for Association=%s but not started yet. Droping the connection!",
+                        association.getName()));
+                channel.close();
+                return;
+            }
+
+            this.association = association;
+            this.channel = channel;
+            this.ctx = ctx;
+            this.association.setChannelHandler(this);
+
+            if (logger.isInfoEnabled()) {
+                logger.info(String.format("Connected %s", association));
+            }
+
+            if (association.getIpChannelType() == IpChannelType.TCP) {
+                this.association.markAssociationUp(1, 1);
             }
-        }// for loop
+        }
 
         if (!provisioned && serverImpl.isAcceptAnonymousConnections() && this.managementImpl.getServerListener() != null) {
             // the server accepts anonymous connections
@@ -161,7 +148,7 @@ public class NettySctpServerHandler extends NettySctpChannelInboundHandlerAdapte
                 logger.info(String.format("Accepted anonymous %s", anonymAssociation));
             }
 
-            if (association.getIpChannelType() == IpChannelType.TCP) {
+            if (this.association.getIpChannelType() == IpChannelType.TCP) {
                 this.association.markAssociationUp(1, 1);
             }
         }
@@ -23,11 +23,13 @@ package org.mobicents.protocols.sctp.netty;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
 import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.sctp.SctpChannelOption;
 import io.netty.channel.sctp.SctpServerChannel;
 import io.netty.channel.sctp.nio.NioSctpServerChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.ServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 
@@ -35,6 +37,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.Map;
 
 import javolution.util.FastList;
 import javolution.xml.XMLFormat;
@@ -44,6 +47,7 @@ import org.apache.log4j.Logger;
 import org.mobicents.protocols.api.Association;
 import org.mobicents.protocols.api.IpChannelType;
 import org.mobicents.protocols.api.Server;
+import org.mobicents.protocols.api.TcpFrameDecoder;
 
 /**
  * @author <a href="mailto:amit.bhayani@telestax.com">Amit Bhayani</a>
@@ -67,6 +71,7 @@ public class NettyServerImpl implements Server {
     private static final String STARTED = "started";
 
     private static final String EXTRA_HOST_ADDRESS_SIZE = "extraHostAddresseSize";
+    private static final String EVENT_LOOP_AFFINITY = "eventLoopAffinity";
 
     private String name;
     private String hostAddress;
@@ -74,8 +79,12 @@ public class NettyServerImpl implements Server {
     private volatile boolean started = false;
     private IpChannelType ipChannelType;
     private boolean acceptAnonymousConnections;
+    // not persisted, set by the application at runtime
+    private volatile TcpFrameDecoder tcpFrameDecoder;
     private int maxConcurrentConnectionsCount;
     private String[] extraHostAddresses;
+    // index of the management affinity event loop accepted connections are served by, -1 for none
+    private int eventLoopAffinity = -1;
 
     private NettySctpManagementImpl management = null;
 
@@ -85,7 +94,7 @@ public class NettyServerImpl implements Server {
     // Netty declarations
     // The channel on which we'll accept connections
     private SctpServerChannel serverChannelSctp;
-    private NioServerSocketChannel serverChannelTcp;
+    private ServerSocketChannel serverChannelTcp;
 
     /**
      * 
@@ -243,6 +252,16 @@ public class NettyServerImpl implements Server {
         return this.anonymAssociations.unmodifiable();
     }
 
+    @Override
+    public TcpFrameDecoder getTcpFrameDecoder() {
+        return this.tcpFrameDecoder;
+    }
+
+    @Override
+    public void setTcpFrameDecoder(TcpFrameDecoder tcpFrameDecoder) {
+        this.tcpFrameDecoder = tcpFrameDecoder;
+    }
+
     protected ServerChannel getIpChannel() {
         if (this.ipChannelType == IpChannelType.SCTP)
             return this.serverChannelSctp;
@@ -257,6 +276,17 @@ public class NettyServerImpl implements Server {
         this.management = management;
     }
 
+    /**
+     * @return index of the management affinity event loop the Server is pinned to, -1 if not pinned
+     */
+    public int getEventLoopAffinity() {
+        return eventLoopAffinity;
+    }
+
+    protected void setEventLoopAffinity(int eventLoopAffinity) {
+        this.eventLoopAffinity = eventLoopAffinity;
+    }
+
     protected void start() throws Exception {
         this.initSocket();
         this.started = true;
@@ -303,17 +333,28 @@ public class NettyServerImpl implements Server {
 
     private void initSocket() throws Exception {
         ServerBootstrap b = new ServerBootstrap();
-        b.group(this.management.getBossGroup(), this.management.getWorkerGroup());
+        EventLoop affinityLoop = this.management.getAffinityEventLoop(this.ipChannelType, this.eventLoopAffinity);
         if (this.ipChannelType == IpChannelType.SCTP) {
+            b.group(this.management.getBossGroup(), affinityLoop != null ? affinityLoop : this.management.getWorkerGroup());
             b.channel(NioSctpServerChannel.class);
             b.option(ChannelOption.SO_BACKLOG, 100);
             b.childHandler(new NettySctpServerChannelInitializer(this, this.management));
             this.applySctpOptions(b);
         } else {
-            b.channel(NioServerSocketChannel.class);
+            b.group(this.management.getTcpBossGroup(), affinityLoop != null ? affinityLoop : this.management
+                    .getTcpWorkerGroup());
+            b.channel(this.management.getTcpServerChannelClass());
             b.option(ChannelOption.SO_BACKLOG, 100);
+            if (this.management.isTcpEpoll()) {
+                b.option(EpollChannelOption.EPOLL_MODE, this.management.getTcpEpollMode());
+                b.childOption(EpollChannelOption.EPOLL_MODE, this.management.getTcpEpollMode());
+            }
             b.childHandler(new NettyTcpServerChannelInitializer(this, this.management));
         }
+        for (Map.Entry<ChannelOption<Integer>, Integer> e : NettySctpManagementImpl.getWriteBufferWaterMarkOptions(
+                this.management.getWriteBufferWaterMarks()).entrySet()) {
+            b.childOption(e.getKey(), e.getValue());
+        }
         b.handler(new LoggingHandler(LogLevel.INFO));
 
         InetSocketAddress localAddress = new InetSocketAddress(this.hostAddress, this.hostport);
@@ -341,7 +382,7 @@ public class NettyServerImpl implements Server {
                 logger.info(String.format("SctpServerChannel bound to=%s ", this.serverChannelSctp.allLocalAddresses()));
             }
         } else {
-            this.serverChannelTcp = (NioServerSocketChannel) channelFuture.channel();
+            this.serverChannelTcp = (ServerSocketChannel) channelFuture.channel();
 
             if (logger.isInfoEnabled()) {
                 logger.info(String.format("ServerSocketChannel bound to=%s ", this.serverChannelTcp.localAddress()));
@@ -407,6 +448,7 @@ public class NettyServerImpl implements Server {
 
             server.acceptAnonymousConnections = xml.getAttribute(ACCEPT_ANONYMOUS_CONNECTIONS, false);
             server.maxConcurrentConnectionsCount = xml.getAttribute(MAX_CONCURRENT_CONNECTIONS_COUNT, 0);
+            server.eventLoopAffinity = xml.getAttribute(EVENT_LOOP_AFFINITY, -1);
 
             int extraHostAddressesSize = xml.getAttribute(EXTRA_HOST_ADDRESS_SIZE, 0);
             server.extraHostAddresses = new String[extraHostAddressesSize];
@@ -427,6 +469,7 @@ public class NettyServerImpl implements Server {
             xml.setAttribute(IPCHANNEL_TYPE, server.ipChannelType.getCode());
             xml.setAttribute(ACCEPT_ANONYMOUS_CONNECTIONS, server.acceptAnonymousConnections);
             xml.setAttribute(MAX_CONCURRENT_CONNECTIONS_COUNT, server.maxConcurrentConnectionsCount);
+            xml.setAttribute(EVENT_LOOP_AFFINITY, server.eventLoopAffinity);
 
             xml.setAttribute(EXTRA_HOST_ADDRESS_SIZE, server.extraHostAddresses != null ? server.extraHostAddresses.length : 0);
             if (server.extraHostAddresses != null) {
@@ -0,0 +1,96 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.mobicents.protocols.api.IpChannelType;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the lookups of {@link AssociationIndex} as SERVER Associations are
+ * added, modified and removed
+ *
+ */
+public class AssociationIndexTest {
+
+	private static final String HOST = "127.0.0.1";
+
+	@Test(groups = { "functional" })
+	public void testLookup() throws Exception {
+		AssociationIndex index = new AssociationIndex();
+		AssociationImpl association = new AssociationImpl(HOST, 2000, "server1", "association1", IpChannelType.TCP);
+		index.put(association);
+
+		assertSame(association, index.get("server1", HOST, 2000));
+		assertNull(index.get("server1", HOST, 2001));
+		assertNull(index.get("server1", "127.0.0.2", 2000));
+		assertNull(index.get("server2", HOST, 2000));
+
+		// only SERVER Associations are looked up
+		AssociationImpl client = new AssociationImpl(HOST, 3000, HOST, 2002, "client1", IpChannelType.TCP, null);
+		client.setServerName("server1");
+		index.put(client);
+		assertNull(index.get("server1", HOST, 2002));
+
+		index.remove(association);
+		assertNull(index.get("server1", HOST, 2000));
+	}
+
+	@Test(groups = { "functional" })
+	public void testModify() throws Exception {
+		AssociationIndex index = new AssociationIndex();
+		AssociationImpl association = new AssociationImpl(HOST, 2000, "server1", "association1", IpChannelType.TCP);
+		index.put(association);
+
+		// indexed again after a modification, the old key is gone
+		association.setPeerPort(2001);
+		association.setServerName("server2");
+		index.put(association);
+		assertNull(index.get("server1", HOST, 2000));
+		assertSame(association, index.get("server2", HOST, 2001));
+
+		// removing works with the key it was indexed under
+		association.setPeerPort(2002);
+		index.remove(association);
+		assertNull(index.get("server2", HOST, 2001));
+		assertNull(index.get("server2", HOST, 2002));
+	}
+
+	@Test(groups = { "functional" })
+	public void testSameKey() throws Exception {
+		AssociationIndex index = new AssociationIndex();
+		AssociationImpl first = new AssociationImpl(HOST, 2000, "server1", "association1", IpChannelType.TCP);
+		AssociationImpl second = new AssociationImpl(HOST, 2000, "server1", "association2", IpChannelType.TCP);
+		index.put(first);
+		index.put(second);
+		assertSame(second, index.get("server1", HOST, 2000));
+
+		// removing the Association which lost the key leaves the other one
+		index.remove(first);
+		assertSame(second, index.get("server1", HOST, 2000));
+
+		index.clear();
+		assertNull(index.get("server1", HOST, 2000));
+	}
+}
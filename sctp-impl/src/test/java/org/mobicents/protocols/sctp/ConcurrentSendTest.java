@@ -0,0 +1,122 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.PayloadData;
+import org.testng.annotations.Test;
+
+/**
+ * Threads sending in short bursts keep the outbound queue going from empty
+ * to not empty, so the write interest of the Association is dropped and set
+ * again all the time. No message may be stranded in the queue and every
+ * sender's messages reach the peer in order
+ *
+ */
+public class ConcurrentSendTest {
+
+	private static final int SERVER_PORT = 2386;
+	private static final int PEER_PORT = 2387;
+
+	private static final int SENDERS = 4;
+	private static final int MESSAGES = 2000;
+	private static final int MESSAGE_SIZE = 64;
+
+	private boolean directSend = false;
+
+	@Test(groups = { "functional", "tcp" })
+	public void testConcurrentSendTcp() throws Exception {
+		this.directSend = false;
+		this.testConcurrentSend();
+	}
+
+	/**
+	 * Same as testConcurrentSendTcp but senders write themselves whenever
+	 * they get the send lock
+	 */
+	@Test(groups = { "functional", "tcp" })
+	public void testConcurrentSendTcpDirectSend() throws Exception {
+		this.directSend = true;
+		this.testConcurrentSend();
+	}
+
+	private void testConcurrentSend() throws Exception {
+		TcpPeer peer = new TcpPeer("ConcurrentSendTest", SERVER_PORT, PEER_PORT);
+		peer.getManagement().setDirectSend(this.directSend);
+		peer.start();
+		peer.addServerAssociation();
+		peer.connect();
+		final Association association = peer.getAssociation();
+
+		final AtomicInteger failures = new AtomicInteger();
+		Thread[] senders = new Thread[SENDERS];
+		for (int i = 0; i < SENDERS; i++) {
+			final int sender = i;
+			senders[i] = new Thread() {
+				public void run() {
+					for (int seq = 0; seq < MESSAGES; seq++) {
+						byte[] data = new byte[MESSAGE_SIZE];
+						ByteBuffer.wrap(data).putInt(sender).putInt(seq);
+						try {
+							association.send(new PayloadData(MESSAGE_SIZE, data, true, false, 0, 0));
+							if (seq % 100 == 99)
+								Thread.sleep(1);
+						} catch (Exception e) {
+							failures.incrementAndGet();
+							return;
+						}
+					}
+				}
+			};
+			senders[i].start();
+		}
+
+		byte[] data = new byte[SENDERS * MESSAGES * MESSAGE_SIZE];
+		peer.readFully(data);
+		for (Thread sender : senders) {
+			sender.join(10000);
+		}
+		assertEquals(0, failures.get());
+
+		ByteBuffer received = ByteBuffer.wrap(data);
+		int[] next = new int[SENDERS];
+		for (int i = 0; i < SENDERS * MESSAGES; i++) {
+			int sender = received.getInt(i * MESSAGE_SIZE);
+			int seq = received.getInt(i * MESSAGE_SIZE + 4);
+			assertTrue(sender >= 0 && sender < SENDERS);
+			assertEquals(next[sender], seq);
+			next[sender]++;
+		}
+		for (int i = 0; i < 50 && association.getOutboundStreamBacklog(0) > 0; i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(0, association.getOutboundStreamBacklog(0));
+
+		peer.close();
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.CongestionListener;
+import org.mobicents.protocols.api.PayloadData;
+import org.testng.annotations.Test;
+
+/**
+ * A TCP peer which does not read fills the bounded outbound queue of a NIO
+ * client Association, raising its congestion level until send() throws, and
+ * reading it all brings the level back to 0
+ *
+ */
+public class CongestionTest implements CongestionListener {
+
+	private static final int CLIENT_PORT = 2370;
+	private static final int PEER_PORT = 2371;
+
+	private static final int MESSAGE_SIZE = 64 * 1024;
+	private static final int MAX_MESSAGES = 200;
+	private static final int SENDERS = 4;
+
+	private final List<int[]> levelChanges = new ArrayList<int[]>();
+
+	@Test(groups = { "functional", "tcp" })
+	public void testCongestionTcp() throws Exception {
+		TcpPeer peer = new TcpPeer("CongestionTest", CLIENT_PORT, PEER_PORT);
+		peer.start();
+		final ManagementImpl management = peer.getManagement();
+		management.setTxHighWaterMark(0);
+		management.setTxQueueMaxMessages(MAX_MESSAGES);
+		management.addCongestionListener(this);
+
+		peer.acceptClientAssociation(16 * 1024);
+		final Association association = peer.getAssociation();
+
+		// concurrent senders go on until the queue turns them away
+		final AtomicInteger accepted = new AtomicInteger();
+		final AtomicInteger rejected = new AtomicInteger();
+		Thread[] senders = new Thread[SENDERS];
+		for (int i = 0; i < SENDERS; i++) {
+			senders[i] = new Thread() {
+				public void run() {
+					byte[] data = new byte[MESSAGE_SIZE];
+					for (int j = 0; j < 100000; j++) {
+						try {
+							association.send(new PayloadData(data.length, data, true, false, 0, 0));
+							accepted.incrementAndGet();
+						} catch (Exception e) {
+							rejected.incrementAndGet();
+							return;
+						}
+					}
+				}
+			};
+			senders[i].start();
+		}
+		for (Thread sender : senders) {
+			sender.join(10000);
+		}
+		assertEquals(SENDERS, rejected.get());
+
+		// the queue never takes more than TxQueueMaxMessages
+		assertTrue(association.getOutboundStreamBacklog(0) <= MAX_MESSAGES);
+		try {
+			association.send(new PayloadData(MESSAGE_SIZE, new byte[MESSAGE_SIZE], true, false, 0, 0));
+			fail("Queue is full, send must throw");
+		} catch (Exception e) {
+		}
+
+		for (int i = 0; i < 50 && association.getCongestionLevel() != 3; i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(3, association.getCongestionLevel());
+		List<Boolean> writabilityChanges = peer.getWritabilityChanges();
+		assertFalse(writabilityChanges.isEmpty());
+		assertFalse(writabilityChanges.get(writabilityChanges.size() - 1));
+
+		// nothing accepted is lost
+		assertEquals((long) MESSAGE_SIZE * accepted.get(), peer.read((long) MESSAGE_SIZE * accepted.get()));
+		for (int i = 0; i < 50 && association.getCongestionLevel() != 0; i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(0, association.getCongestionLevel());
+		assertEquals(0, association.getOutboundStreamBacklog(0));
+
+		// listeners are told about real changes only, in the order they happen
+		boolean writable = true;
+		for (Boolean change : peer.getWritabilityChanges()) {
+			assertTrue(change != writable);
+			writable = change;
+		}
+		assertTrue(writable);
+
+		synchronized (this) {
+			assertTrue(this.levelChanges.size() >= 2);
+			int level = 0;
+			for (int[] change : this.levelChanges) {
+				assertEquals(level, change[0]);
+				assertTrue(change[0] != change[1]);
+				level = change[1];
+			}
+			assertEquals(0, level);
+		}
+
+		peer.disconnect();
+		management.removeCongestionListener(this);
+		peer.close();
+	}
+
+	@Test(groups = { "functional" })
+	public void testQueueThresholds() throws Exception {
+		ManagementImpl management = new ManagementImpl("CongestionTestThresholds");
+		management.start();
+
+		// levels must rise with the fill
+		try {
+			management.setCongControl_QueueThreshold_2(45);
+			fail("CongControl_QueueThreshold_2 below CongControl_QueueThreshold_1 must be rejected");
+		} catch (Exception e) {
+		}
+		try {
+			management.setCongControl_BackToNormalQueueThreshold_3(60);
+			fail("CongControl_BackToNormalQueueThreshold_3 below CongControl_BackToNormalQueueThreshold_2 must be rejected");
+		} catch (Exception e) {
+		}
+		try {
+			management.setCongControl_BackToNormalQueueThreshold_1(50);
+			fail("CongControl_BackToNormalQueueThreshold_1 not below CongControl_QueueThreshold_1 must be rejected");
+		} catch (Exception e) {
+		}
+		assertEquals(75.0, management.getCongControl_QueueThreshold_2(), 0);
+		assertEquals(80.0, management.getCongControl_BackToNormalQueueThreshold_3(), 0);
+		assertEquals(40.0, management.getCongControl_BackToNormalQueueThreshold_1(), 0);
+
+		management.setCongControl_QueueThreshold_3(95);
+		management.setCongControl_QueueThreshold_2(85);
+		management.setTxHighWaterMark(1024 * 1024);
+		assertEquals(85.0, management.getCongControl_QueueThreshold_2(), 0);
+		assertEquals(95.0, management.getCongControl_QueueThreshold_3(), 0);
+		management.stop();
+
+		// settings are persisted and can be changed only while running
+		try {
+			management.setCongControl_QueueThreshold_1(55);
+			fail("CongControl_QueueThreshold_1 can not be set while stopped");
+		} catch (Exception e) {
+		}
+		management = new ManagementImpl("CongestionTestThresholds");
+		management.start();
+		assertEquals(85.0, management.getCongControl_QueueThreshold_2(), 0);
+		assertEquals(95.0, management.getCongControl_QueueThreshold_3(), 0);
+		assertEquals(1024 * 1024, management.getTxHighWaterMark());
+
+		management.setCongControl_QueueThreshold_2(75);
+		management.setCongControl_QueueThreshold_3(90);
+		management.setTxHighWaterMark(8 * 1024 * 1024);
+		management.stop();
+	}
+
+	@Override
+	public synchronized void onCongLevelChanged(Association association, int oldCongLevel, int newCongLevel) {
+		this.levelChanges.add(new int[] { oldCongLevel, newCongLevel });
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.mobicents.protocols.api.LatencyHistogram;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the percentiles of {@link LatencyHistogram}
+ *
+ */
+public class LatencyHistogramTest {
+
+	@Test(groups = { "functional" })
+	public void testPercentiles() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+
+		for (long value = 1; value <= 10000; value++) {
+			histogram.record(value);
+		}
+		assertEquals(10000, histogram.getCount());
+		assertEquals(10000, histogram.getMax());
+		assertEquals(5000.5, histogram.getMean(), 0.001);
+
+		// values are known within 1/32
+		long p50 = histogram.getValueAtPercentile(50);
+		assertTrue(p50 >= 5000 && p50 <= 5000 + 5000 / 32);
+		long p99 = histogram.getValueAtPercentile(99);
+		assertTrue(p99 >= 9900 && p99 <= 9900 + 9900 / 32);
+		assertEquals(10000, histogram.getValueAtPercentile(100));
+
+		// small values are exact, huge ones are capped
+		histogram.reset();
+		histogram.record(7);
+		histogram.record(LatencyHistogram.MAX_VALUE + 1000);
+		assertEquals(7, histogram.getValueAtPercentile(50));
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getValueAtPercentile(100));
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.CongestionListener;
+import org.mobicents.protocols.api.PayloadData;
+import org.testng.annotations.Test;
+
+/**
+ * A TCP peer with a small receive buffer which reads slowly makes the
+ * gathering writes of a CLIENT Association stop in the middle of messages.
+ * Every message must still arrive complete and in the order it was sent,
+ * the rest of a partly written message going out first
+ *
+ */
+public class PartialWriteTest implements CongestionListener {
+
+	private static final int CLIENT_PORT = 2380;
+	private static final int PEER_PORT = 2381;
+
+	private static final int MESSAGES = 2000;
+
+	private boolean directSend = false;
+	private volatile int maxCongestionLevel = 0;
+
+	@Test(groups = { "functional", "tcp" })
+	public void testPartialWritesTcp() throws Exception {
+		this.directSend = false;
+		this.testPartialWrites();
+	}
+
+	/**
+	 * Same as testPartialWritesTcp but messages are written from the sending
+	 * thread while the socket takes them
+	 */
+	@Test(groups = { "functional", "tcp" })
+	public void testPartialWritesTcpDirectSend() throws Exception {
+		this.directSend = true;
+		this.testPartialWrites();
+	}
+
+	private void testPartialWrites() throws Exception {
+		TcpPeer peer = new TcpPeer("PartialWriteTest", CLIENT_PORT, PEER_PORT);
+		peer.getManagement().setDirectSend(this.directSend);
+		peer.start();
+		peer.getManagement().addCongestionListener(this);
+		this.maxCongestionLevel = 0;
+		peer.acceptClientAssociation(4 * 1024);
+		final Association association = peer.getAssociation();
+
+		// a full queue turns send() down, the sender retries the same message
+		final AtomicInteger rejected = new AtomicInteger();
+		Thread sender = new Thread() {
+			public void run() {
+				for (int i = 0; i < MESSAGES; i++) {
+					byte[] data = message(i);
+					while (true) {
+						try {
+							association.send(new PayloadData(data.length, data, true, false, 0, 0));
+							break;
+						} catch (Exception e) {
+							rejected.incrementAndGet();
+							try {
+								Thread.sleep(10);
+							} catch (InterruptedException ie) {
+								return;
+							}
+						}
+					}
+				}
+			}
+		};
+		sender.start();
+
+		for (int i = 0; i < MESSAGES; i++) {
+			byte[] expected = message(i);
+			byte[] received = new byte[expected.length];
+			peer.readFully(received);
+			for (int j = 0; j < expected.length; j++) {
+				assertEquals(expected[j], received[j]);
+			}
+			// slow for the first half, so the socket buffer stays full
+			if (i < MESSAGES / 2 && i % 20 == 0)
+				Thread.sleep(5);
+		}
+		sender.join(10000);
+		// messages had to wait, the socket took only part of what was written
+		assertTrue(this.maxCongestionLevel > 0);
+		assertTrue(association.isConnected());
+		assertEquals(0, association.getOutboundStreamBacklog(0));
+
+		peer.getManagement().removeCongestionListener(this);
+		peer.close();
+	}
+
+	@Override
+	public void onCongLevelChanged(Association association, int oldCongLevel, int newCongLevel) {
+		if (newCongLevel > this.maxCongestionLevel)
+			this.maxCongestionLevel = newCongLevel;
+	}
+
+	/**
+	 * @return message i, its length not a multiple of anything the socket
+	 *         buffers use, starting with i and filled with a pattern of i
+	 */
+	private static byte[] message(int i) {
+		byte[] data = new byte[1000 + (i * 7919) % 9000];
+		data[0] = (byte) (i >> 24);
+		data[1] = (byte) (i >> 16);
+		data[2] = (byte) (i >> 8);
+		data[3] = (byte) i;
+		for (int j = 4; j < data.length; j++) {
+			data[j] = (byte) (i + j);
+		}
+		return data;
+	}
+}
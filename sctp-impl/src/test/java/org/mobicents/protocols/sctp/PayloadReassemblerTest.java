@@ -0,0 +1,132 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.mobicents.protocols.api.IpChannelType;
+import org.mobicents.protocols.api.PayloadData;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the rebuilding of SCTP messages read in parts by
+ * {@link PayloadReassembler}
+ *
+ */
+public class PayloadReassemblerTest {
+
+	private ManagementImpl management;
+	private PayloadReassembler reassembler;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		this.management = new ManagementImpl("PayloadReassemblerTest");
+		AssociationImpl association = new AssociationImpl("127.0.0.1", 2905, "127.0.0.2", 2906, "ASP1",
+				IpChannelType.SCTP, null);
+		this.reassembler = new PayloadReassembler(association);
+	}
+
+	private static PayloadData part(int length, int fill, boolean complete, int streamNumber) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) fill;
+		}
+		return PayloadData.newInstance(length, Unpooled.wrappedBuffer(data), complete, false, 3, streamNumber);
+	}
+
+	@Test(groups = { "functional", "sctp" })
+	public void testReassembly() throws Exception {
+		assertNull(this.reassembler.add(this.management, part(100, 1, false, 1)));
+		assertNull(this.reassembler.add(this.management, part(100, 2, false, 1)));
+
+		// a message of another stream is not held up
+		PayloadData other = part(10, 9, true, 2);
+		assertSame(other, this.reassembler.add(this.management, other));
+		assertEquals(200, this.management.getRxReassemblyBytes());
+
+		PayloadData message = this.reassembler.add(this.management, part(50, 3, true, 1));
+		assertEquals(250, message.getDataLength());
+		assertTrue(message.isComplete());
+		assertEquals(3, message.getPayloadProtocolId());
+		assertEquals(1, message.getStreamNumber());
+
+		// the parts are not copied
+		ByteBuf byteBuf = message.getByteBuf();
+		assertTrue(byteBuf instanceof CompositeByteBuf);
+		assertEquals(3, ((CompositeByteBuf) byteBuf).numComponents());
+		assertEquals(250, byteBuf.readableBytes());
+		assertEquals(1, byteBuf.getByte(99));
+		assertEquals(2, byteBuf.getByte(100));
+		assertEquals(3, byteBuf.getByte(249));
+		assertEquals(0, this.management.getRxReassemblyBytes());
+
+		message.release();
+		assertEquals(0, byteBuf.refCnt());
+	}
+
+	@Test(groups = { "functional", "sctp" })
+	public void testOversizedMessageDropped() throws Exception {
+		this.management.setRxReassemblyMaxBytes(150);
+
+		PayloadData first = part(100, 1, false, 1);
+		ByteBuf firstBuf = first.getByteBuf();
+		assertNull(this.reassembler.add(this.management, first));
+		assertNull(this.reassembler.add(this.management, part(100, 2, false, 1)));
+		assertEquals(0, firstBuf.refCnt());
+		assertEquals(1, this.reassembler.getDropped());
+		assertEquals(0, this.management.getRxReassemblyBytes());
+
+		// the rest of the dropped message is discarded
+		PayloadData last = part(10, 3, true, 1);
+		ByteBuf lastBuf = last.getByteBuf();
+		assertNull(this.reassembler.add(this.management, last));
+		assertEquals(0, lastBuf.refCnt());
+
+		// and the next message gets through
+		PayloadData next = part(10, 4, true, 1);
+		assertSame(next, this.reassembler.add(this.management, next));
+		assertEquals(1, this.reassembler.getDropped());
+		assertEquals(1, this.management.getRxReassemblyDropped());
+	}
+
+	@Test(groups = { "functional", "sctp" })
+	public void testClear() throws Exception {
+		PayloadData first = part(100, 1, false, 1);
+		ByteBuf firstBuf = first.getByteBuf();
+		assertNull(this.reassembler.add(this.management, first));
+		assertEquals(100, this.management.getRxReassemblyBytes());
+
+		this.reassembler.clear(this.management);
+		assertEquals(0, firstBuf.refCnt());
+		assertEquals(0, this.management.getRxReassemblyBytes());
+
+		PayloadData next = part(10, 2, true, 1);
+		assertSame(next, this.reassembler.add(this.management, next));
+	}
+}
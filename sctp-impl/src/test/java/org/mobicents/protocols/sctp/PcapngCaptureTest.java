@@ -0,0 +1,192 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.mobicents.protocols.api.IpChannelType;
+import org.mobicents.protocols.api.PayloadData;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the pcapng files written by {@link PcapngCapture}
+ *
+ */
+public class PcapngCaptureTest {
+
+	private File dir;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		this.dir = new File(System.getProperty("java.io.tmpdir"), "pcapng-capture-test");
+		this.dir.mkdirs();
+		this.cleanDir();
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		this.cleanDir();
+		this.dir.delete();
+	}
+
+	private void cleanDir() {
+		for (File f : this.dir.listFiles()) {
+			f.delete();
+		}
+	}
+
+	@Test(groups = { "functional", "capture" })
+	public void testCaptureRotateAndFilter() throws Exception {
+		AssociationImpl association1 = new AssociationImpl("127.0.0.1", 2905, "127.0.0.2", 2906, "ASP1",
+				IpChannelType.SCTP, null);
+		AssociationImpl association2 = new AssociationImpl("127.0.0.1", 2907, "127.0.0.2", 2908, "ASP2",
+				IpChannelType.SCTP, null);
+
+		PcapngCapture capture = new PcapngCapture(new File(this.dir, "test").getPath());
+		capture.setFileSize(1024 * 1024);
+		capture.setMaxFiles(2);
+		capture.addAssociationFilter("ASP1");
+		capture.start();
+
+		byte[] data = new byte[60000];
+		for (int i = 0; i < 40; i++) {
+			data[0] = (byte) i;
+			capture.capture(association1, (i & 1) == 0, new PayloadData(data.length, data, true, false, 3, 1));
+			capture.capture(association2, true, new PayloadData(data.length, data, true, false, 3, 1));
+			Thread.sleep(5);
+		}
+		capture.stop();
+
+		assertEquals(40, capture.getCaptured() + capture.getDropped());
+
+		// 40 * 60 KB does not fit in 2 files of 1 MB, so the first file is
+		// rotated away
+		File[] files = this.dir.listFiles();
+		assertEquals(2, files.length);
+		assertTrue(!new File(this.dir, "test_00001.pcapng").exists());
+		assertTrue(new File(this.dir, "test_00003.pcapng").exists());
+
+		int packets = 0;
+		for (File f : files) {
+			packets += this.checkFile(f, data.length);
+		}
+		assertTrue(packets > 0);
+	}
+
+	@Test(groups = { "functional", "capture" })
+	public void testCaptureLargePayload() throws Exception {
+		AssociationImpl association = new AssociationImpl("127.0.0.1", 2905, "127.0.0.2", 2906, "ASP1",
+				IpChannelType.SCTP, null);
+
+		PcapngCapture capture = new PcapngCapture(new File(this.dir, "large").getPath());
+		capture.addAssociation(association);
+		capture.start();
+
+		byte[] data = new byte[70000];
+		capture.capture(association, true, new PayloadData(data.length, data, true, false, 3, 1));
+		capture.stop();
+
+		assertEquals(1, capture.getCaptured());
+
+		// the data is cut so that the 16 bit lengths of the packet do not wrap
+		File[] files = this.dir.listFiles();
+		assertEquals(1, files.length);
+		assertEquals(1, this.checkFile(files[0], PcapngCapture.MAX_SNAP_LENGTH));
+	}
+
+	@Test(groups = { "functional", "capture" })
+	public void testCaptureRestart() throws Exception {
+		AssociationImpl association = new AssociationImpl("127.0.0.1", 2905, "127.0.0.2", 2906, "ASP1",
+				IpChannelType.SCTP, null);
+		// not a capture file of the prefix, left alone
+		File other = new File(this.dir, "restart_old.pcapng");
+		other.createNewFile();
+
+		byte[] data = new byte[100];
+		for (int i = 0; i < 3; i++) {
+			PcapngCapture capture = new PcapngCapture(new File(this.dir, "restart").getPath());
+			capture.setMaxFiles(2);
+			capture.addAssociation(association);
+			capture.start();
+			capture.capture(association, true, new PayloadData(data.length, data, true, false, 3, 1));
+			capture.stop();
+			assertEquals(1, capture.getCaptured());
+		}
+
+		// each start goes on after the files on disk, which count for
+		// MaxFiles
+		assertEquals(3, this.dir.listFiles().length);
+		assertTrue(other.exists());
+		assertTrue(!new File(this.dir, "restart_00001.pcapng").exists());
+		assertEquals(1, this.checkFile(new File(this.dir, "restart_00002.pcapng"), data.length));
+		assertEquals(1, this.checkFile(new File(this.dir, "restart_00003.pcapng"), data.length));
+	}
+
+	/**
+	 * @return number of Enhanced Packet Blocks in the file
+	 */
+	private int checkFile(File f, int dataLength) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		byte[] bytes = new byte[(int) raf.length()];
+		raf.readFully(bytes);
+		raf.close();
+
+		ByteBuffer b = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		// Section Header Block and Interface Description Block
+		assertEquals(0x0A0D0D0A, b.getInt(0));
+		assertEquals(0x1A2B3C4D, b.getInt(8));
+		assertEquals(1, b.getInt(28));
+		assertEquals(101, b.getShort(36));
+
+		int packets = 0;
+		int pos = 28 + 32;
+		while (pos < bytes.length) {
+			assertEquals(6, b.getInt(pos));
+			int blockLength = b.getInt(pos + 4);
+			assertEquals(blockLength, b.getInt(pos + blockLength - 4));
+
+			// IPv4 + SCTP DATA chunk with stream 1 and PPID 3
+			ByteBuffer packet = ByteBuffer.wrap(bytes, pos + 28, b.getInt(pos + 20)).slice();
+			assertEquals(0x45, packet.get(0));
+			assertEquals(132, packet.get(9) & 0xff);
+			// ports of ASP1 only, sent or received
+			assertEquals(2905 + 2906, packet.getShort(20) + packet.getShort(22));
+			assertEquals(0, packet.get(32));
+			assertEquals(1, packet.getShort(40));
+			assertEquals(3, packet.getInt(44));
+			assertEquals(dataLength, (packet.getShort(34) & 0xffff) - 16);
+			assertEquals(b.getInt(pos + 20), packet.getShort(2) & 0xffff);
+
+			packets++;
+			pos += blockLength;
+		}
+		return packets;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Data left in the socket when the read budget of a readable event is used
+ * up is read in the next select rounds, nothing is lost or reordered
+ *
+ */
+public class ReadBudgetTest {
+
+	private static final int SERVER_PORT = 2384;
+	private static final int PEER_PORT = 2385;
+
+	private static final int DATA_SIZE = 300 * 1000;
+
+	private int readBudgetMessages;
+	private int readBudgetBytes;
+
+	@Test(groups = { "functional", "tcp" })
+	public void testReadBudgetTcp() throws Exception {
+		// a single read of at most BufferSize per select round
+		this.readBudgetMessages = 1;
+		this.readBudgetBytes = 1;
+		this.testReadBudget();
+	}
+
+	@Test(groups = { "functional", "tcp" })
+	public void testDefaultReadBudgetTcp() throws Exception {
+		this.readBudgetMessages = 16;
+		this.readBudgetBytes = 65536;
+		this.testReadBudget();
+	}
+
+	@Test(groups = { "functional" })
+	public void testReadBudgetLimits() throws Exception {
+		ManagementImpl management = new ManagementImpl("ReadBudgetTest");
+		management.setReadBudgetMessages(0);
+		management.setReadBudgetBytes(-1);
+		assertEquals(1, management.getReadBudgetMessages());
+		assertEquals(1, management.getReadBudgetBytes());
+	}
+
+	private void testReadBudget() throws Exception {
+		TcpPeer peer = new TcpPeer("ReadBudgetTest", SERVER_PORT, PEER_PORT);
+		ManagementImpl management = peer.getManagement();
+		management.setBufferSize(1000);
+		management.setReadBudgetMessages(this.readBudgetMessages);
+		management.setReadBudgetBytes(this.readBudgetBytes);
+		peer.start();
+		peer.addServerAssociation();
+		peer.connect();
+
+		byte[] data = new byte[DATA_SIZE];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i % 251);
+		}
+		peer.write(data);
+
+		int received = 0;
+		List<byte[]> payloads = null;
+		for (int i = 0; i < 100 && received < DATA_SIZE; i++) {
+			Thread.sleep(100);
+			payloads = peer.awaitReceived(0);
+			received = 0;
+			for (byte[] payload : payloads) {
+				received += payload.length;
+			}
+		}
+		assertEquals(DATA_SIZE, received);
+
+		int offset = 0;
+		for (byte[] payload : payloads) {
+			for (byte b : payload) {
+				assertEquals((byte) (offset % 251), b);
+				offset++;
+			}
+		}
+
+		peer.close();
+	}
+}
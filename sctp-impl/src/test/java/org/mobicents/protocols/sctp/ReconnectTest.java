@@ -0,0 +1,204 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.AssociationListener;
+import org.mobicents.protocols.api.IpChannelType;
+import org.mobicents.protocols.api.PayloadData;
+import org.testng.annotations.Test;
+
+/**
+ * Reconnect delays back off exponentially up to MaxConnectDelay with a random
+ * part taken off, and a connect attempt which stays pending is aborted after
+ * ConnectTimeout and made again
+ *
+ */
+public class ReconnectTest {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int CLIENT_PORT = 2382;
+	private static final int PEER_PORT = 2383;
+
+	private volatile boolean up = false;
+
+	@Test(groups = { "functional" })
+	public void testReconnectDelay() throws Exception {
+		ManagementImpl management = new ManagementImpl("ReconnectTest");
+		management.start();
+		management.setConnectDelay(100);
+		management.setMaxConnectDelay(1000);
+		management.setConnectJitter(0);
+
+		long[] expected = { 100, 200, 400, 800, 1000, 1000 };
+		for (int attempt = 0; attempt < expected.length; attempt++) {
+			assertEquals(expected[attempt], management.getReconnectDelay(attempt));
+		}
+		assertEquals(1000, management.getReconnectDelay(Integer.MAX_VALUE));
+
+		// up to 25% is taken off, at random
+		management.setConnectJitter(25);
+		Set<Long> delays = new HashSet<Long>();
+		for (int i = 0; i < 1000; i++) {
+			long delay = management.getReconnectDelay(3);
+			assertTrue(delay >= 600 && delay <= 800);
+			delays.add(delay);
+		}
+		assertTrue(delays.size() > 10);
+
+		try {
+			management.setConnectJitter(101);
+			fail("ConnectJitter above 100 must be rejected");
+		} catch (Exception e) {
+		}
+		try {
+			management.setConnectTimeout(-1);
+			fail("Negative ConnectTimeout must be rejected");
+		} catch (Exception e) {
+		}
+
+		management.setConnectDelay(5000);
+		management.setConnectJitter(25);
+		management.stop();
+	}
+
+	/**
+	 * The peer's accept queue is full, so the kernel drops the SYNs of the
+	 * CLIENT Association and its connect stays pending. Every ConnectTimeout
+	 * the attempt is aborted and another one scheduled, once the queue is
+	 * emptied one goes through and the backoff starts over.
+	 */
+	@Test(groups = { "functional", "tcp" })
+	public void testConnectTimeoutTcp() throws Exception {
+		ManagementImpl management = new ManagementImpl("ReconnectTest");
+		management.start();
+		management.removeAllResourses();
+		management.setConnectDelay(100);
+		management.setMaxConnectDelay(200);
+		management.setConnectJitter(0);
+		management.setConnectTimeout(300);
+
+		ServerSocket peer = new ServerSocket();
+		peer.setReuseAddress(true);
+		peer.bind(new InetSocketAddress(HOST, PEER_PORT), 1);
+		List<Socket> fillers = new ArrayList<Socket>();
+		for (int i = 0; i < 5; i++) {
+			Socket filler = new Socket();
+			try {
+				filler.connect(new InetSocketAddress(HOST, PEER_PORT), 500);
+				fillers.add(filler);
+			} catch (SocketTimeoutException e) {
+				filler.close();
+				break;
+			}
+		}
+
+		this.up = false;
+		AssociationImpl association = (AssociationImpl) management.addAssociation(HOST, CLIENT_PORT, HOST, PEER_PORT, "testAssociation",
+				IpChannelType.TCP, null);
+		association.setAssociationListener(new UpListener());
+		management.startAssociation("testAssociation");
+		Thread.sleep(2000);
+		assertTrue(!this.up);
+		// each attempt takes ConnectTimeout and up to MaxConnectDelay
+		assertTrue(association.getConnectAttempts() >= 3);
+
+		// make room, the next attempt goes through
+		peer.setSoTimeout(100);
+		List<Socket> accepted = new ArrayList<Socket>();
+		try {
+			while (true) {
+				accepted.add(peer.accept());
+			}
+		} catch (SocketTimeoutException e) {
+		}
+		for (int i = 0; i < 30 && !this.up; i++) {
+			Thread.sleep(100);
+			try {
+				accepted.add(peer.accept());
+			} catch (SocketTimeoutException e) {
+			}
+		}
+		assertTrue(this.up);
+		assertEquals(0, association.getConnectAttempts());
+
+		for (Socket socket : fillers) {
+			socket.close();
+		}
+		for (Socket socket : accepted) {
+			socket.close();
+		}
+		peer.close();
+		Thread.sleep(200);
+
+		management.stopAssociation("testAssociation");
+		management.removeAssociation("testAssociation");
+		management.setConnectDelay(5000);
+		management.setConnectTimeout(10000);
+		management.setConnectJitter(25);
+		management.stop();
+	}
+
+	private class UpListener implements AssociationListener {
+
+		@Override
+		public void onCommunicationUp(Association association, int maxInboundStreams, int maxOutboundStreams) {
+			up = true;
+		}
+
+		@Override
+		public void onCommunicationShutdown(Association association) {
+			up = false;
+		}
+
+		@Override
+		public void onCommunicationLost(Association association) {
+			up = false;
+		}
+
+		@Override
+		public void onCommunicationRestart(Association association) {
+		}
+
+		@Override
+		public void onPayload(Association association, PayloadData payloadData) {
+			payloadData.release();
+		}
+
+		@Override
+		public void inValidStreamId(PayloadData payloadData) {
+		}
+	}
+}
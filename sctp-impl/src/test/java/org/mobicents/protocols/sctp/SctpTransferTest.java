@@ -70,6 +70,9 @@ public class SctpTransferTest {
 
 	private byte[] clientMessage;
 	private byte[] serverMessage;
+	// capacity and kind of the buffer the server message came in
+	private volatile int serverPayloadCapacity = 0;
+	private volatile boolean serverPayloadDirect = false;
 	
 	private volatile int clientMaxInboundStreams = 0;
 	private volatile int clientMaxOutboundStreams = 0;
@@ -77,6 +80,16 @@ public class SctpTransferTest {
 	private volatile int serverMaxInboundStreams = 0;
 	private volatile int serverMaxOutboundStreams = 0;
 
+	// management options for the current test, reset by tearDown
+	private int selectorThreads = 1;
+	private boolean singleThread = true;
+	private boolean zeroCopyReceive = false;
+	private boolean directSend = false;
+	private SelectorThreadPolicy selectorThreadPolicy = SelectorThreadPolicy.HASH;
+
+	private volatile SelectorThread clientSelectorThread = null;
+	private volatile SelectorThread serverSelectorThread = null;
+
 	@BeforeClass
 	public static void setUpClass() throws Exception {
 	}
@@ -99,7 +112,11 @@ public class SctpTransferTest {
 		this.serverMessage = null;
 
 		this.management = new ManagementImpl("server-management");
-		this.management.setSingleThread(true);
+		this.management.setSingleThread(this.singleThread);
+		this.management.setSelectorThreads(this.selectorThreads);
+		this.management.setSelectorThreadPolicy(this.selectorThreadPolicy);
+		this.management.setZeroCopyReceive(this.zeroCopyReceive);
+		this.management.setDirectSend(this.directSend);
 		this.management.start();
         this.management.setConnectDelay(10000);// Try connecting every 10 secs
 		this.management.removeAllResourses();
@@ -117,6 +134,12 @@ public class SctpTransferTest {
 		this.management.removeServer(SERVER_NAME);
 
 		this.management.stop();
+
+		this.selectorThreads = 1;
+		this.singleThread = true;
+		this.zeroCopyReceive = false;
+		this.directSend = false;
+		this.selectorThreadPolicy = SelectorThreadPolicy.HASH;
 	}
 
 	/**
@@ -144,6 +167,69 @@ public class SctpTransferTest {
 		this.testDataTransferByProtocol(IpChannelType.TCP);
 	}
 
+	/**
+	 * Same as testDataTransferTcp but received data is read straight into
+	 * pooled ByteBuf's. The short message does not keep a buffer of
+	 * BufferSize
+	 */
+	@Test(groups = { "functional", "tcp" })
+	public void testDataTransferTcpZeroCopy() throws Exception {
+
+		this.zeroCopyReceive = true;
+		this.testDataTransferByProtocol(IpChannelType.TCP);
+
+		assertTrue(this.serverPayloadDirect);
+		assertTrue(this.serverPayloadCapacity < this.management.getBufferSize() / 2);
+	}
+
+	/**
+	 * Same as testDataTransferTcp but messages are written from the sending
+	 * thread
+	 */
+	@Test(groups = { "functional", "tcp" })
+	public void testDataTransferTcpDirectSend() throws Exception {
+
+		this.directSend = true;
+		this.testDataTransferByProtocol(IpChannelType.TCP);
+	}
+
+	/**
+	 * Same as testDataTransferTcp but with a pool of SelectorThreads
+	 */
+	@Test(groups = { "functional", "tcp" })
+	public void testDataTransferTcpMultiSelector() throws Exception {
+
+		this.selectorThreads = 2;
+		this.testDataTransferByProtocol(IpChannelType.TCP);
+	}
+
+	/**
+	 * Same as testDataTransferTcpMultiSelector but with SelectorThreads
+	 * assigned by load, so client and server Associations are served by
+	 * different SelectorThreads
+	 */
+	@Test(groups = { "functional", "tcp" })
+	public void testDataTransferTcpLeastLoad() throws Exception {
+
+		this.selectorThreads = 2;
+		this.selectorThreadPolicy = SelectorThreadPolicy.LEAST_LOAD;
+		this.testDataTransferByProtocol(IpChannelType.TCP);
+
+		assertTrue(this.clientSelectorThread != this.serverSelectorThread);
+	}
+
+	/**
+	 * Same as testDataTransferTcpMultiSelector but payloads are delivered by
+	 * worker threads
+	 */
+	@Test(groups = { "functional", "tcp" })
+	public void testDataTransferTcpWorkerThreads() throws Exception {
+
+		this.selectorThreads = 2;
+		this.singleThread = false;
+		this.testDataTransferByProtocol(IpChannelType.TCP);
+	}
+
 	private void testDataTransferByProtocol(IpChannelType ipChannelType) throws Exception {
 
 		this.setUp(ipChannelType);
@@ -221,6 +307,7 @@ public class SctpTransferTest {
 			clientMaxInboundStreams = maxInboundStreams;
 			clientMaxOutboundStreams = maxOutboundStreams;
 			clientAssocUp = true;
+			clientSelectorThread = ((AssociationImpl) association).getSelectorThread();
 
 			PayloadData payloadData = new PayloadData(CLIENT_MESSAGE.length, Unpooled.copiedBuffer(CLIENT_MESSAGE), true, false, 3, 1);
 
@@ -280,6 +367,7 @@ public class SctpTransferTest {
 		public void onPayload(Association association, PayloadData payloadData) {
 			clientMessage = new byte[payloadData.getDataLength()];
 			payloadData.getByteBuf().readBytes(clientMessage);
+			payloadData.releaseBuffer();
 			logger.debug("CLIENT received " + new String(clientMessage));
 		}
 
@@ -312,6 +400,7 @@ public class SctpTransferTest {
 			serverAssocUp = true;
 			serverMaxInboundStreams = maxInboundStreams;
 			serverMaxOutboundStreams = maxOutboundStreams;
+			serverSelectorThread = ((AssociationImpl) association).getSelectorThread();
 					
 
 			PayloadData payloadData = new PayloadData(SERVER_MESSAGE.length, Unpooled.copiedBuffer(SERVER_MESSAGE), true, false, 3, 1);
@@ -371,7 +460,10 @@ public class SctpTransferTest {
 		@Override
 		public void onPayload(Association association, PayloadData payloadData) {
 			serverMessage = new byte[payloadData.getDataLength()];
+			serverPayloadCapacity = payloadData.getByteBuf().capacity();
+			serverPayloadDirect = payloadData.getByteBuf().isDirect();
 			payloadData.getByteBuf().readBytes(serverMessage);
+			payloadData.releaseBuffer();
 			logger.debug("SERVER received " + new String(serverMessage));
 		}
 
@@ -0,0 +1,87 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.channels.Selector;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.PayloadData;
+import org.testng.annotations.Test;
+
+/**
+ * Wakeups of a SelectorThread are coalesced until it goes over its pending
+ * changes again, and none is lost: a message sent to an idle Association is
+ * written without waiting for the select timeout
+ *
+ */
+public class SelectorWakeupTest {
+
+	private static final int SERVER_PORT = 2388;
+	private static final int PEER_PORT = 2389;
+
+	private static final int ROUNDS = 100;
+	// well below the 500 ms select timeout
+	private static final long MAX_ROUND_MILLIS = 400;
+
+	@Test(groups = { "functional" })
+	public void testWakeupCoalescing() throws Exception {
+		ManagementImpl management = new ManagementImpl("SelectorWakeupTest");
+		Selector selector = Selector.open();
+		// not running, so nothing resets the pending wakeup
+		SelectorThread selectorThread = new SelectorThread(selector, management, 0);
+		for (int i = 0; i < 100; i++) {
+			selectorThread.wakeup();
+		}
+		assertEquals(1, selectorThread.getWakeupCount());
+		selector.close();
+	}
+
+	@Test(groups = { "functional", "tcp" })
+	public void testNoLostWakeupTcp() throws Exception {
+		TcpPeer peer = new TcpPeer("SelectorWakeupTest", SERVER_PORT, PEER_PORT);
+		// every message goes through the SelectorThread
+		peer.getManagement().setDirectSend(false);
+		peer.start();
+		peer.addServerAssociation();
+		peer.connect();
+		Association association = peer.getAssociation();
+
+		byte[] data = new byte[100];
+		byte[] received = new byte[data.length];
+		long slowest = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			// let the SelectorThread go back to select
+			Thread.sleep(5);
+			long start = System.currentTimeMillis();
+			association.send(new PayloadData(data.length, data, true, false, 0, 0));
+			peer.readFully(received);
+			slowest = Math.max(slowest, System.currentTimeMillis() - start);
+		}
+		assertTrue("slowest round took " + slowest + " ms", slowest < MAX_ROUND_MILLIS);
+		assertTrue(peer.getManagement().getSelectorWakeups() > 0);
+
+		peer.close();
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.StreamScheduler;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the key to outbound stream mapping of {@link StreamScheduler}
+ *
+ */
+public class StreamSchedulerTest {
+
+	private static final int STREAMS = 16;
+
+	private final int[] backlog = new int[STREAMS];
+
+	/**
+	 * @return an Association which only tells the backlog of its streams
+	 */
+	private Association association() {
+		return (Association) Proxy.newProxyInstance(Association.class.getClassLoader(),
+				new Class<?>[] { Association.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("getOutboundStreamBacklog"))
+							return backlog[(Integer) args[0]];
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	@Test(groups = { "functional" })
+	public void testConsistentHash() throws Exception {
+		Association association = this.association();
+		StreamScheduler scheduler = StreamScheduler.DEFAULT;
+
+		assertEquals(0, scheduler.selectStream(5, 1, association));
+
+		int[] keysPerStream = new int[STREAMS];
+		for (long key = 0; key < 4096; key++) {
+			int stream = scheduler.selectStream(key, STREAMS, association);
+			assertEquals(stream, scheduler.selectStream(key, STREAMS, association));
+			keysPerStream[stream]++;
+		}
+		// every stream gets a fair share of the keys
+		for (int i = 0; i < STREAMS; i++) {
+			assertTrue(keysPerStream[i] > 4096 / STREAMS / 3);
+		}
+
+		// one stream more moves about 1/17 of the keys only
+		int moved = 0;
+		for (long key = 0; key < 4096; key++) {
+			if (scheduler.selectStream(key, STREAMS, association) != scheduler.selectStream(key, STREAMS + 1,
+					association))
+				moved++;
+		}
+		assertTrue(moved > 0);
+		assertTrue(moved < 4096 / 8);
+	}
+
+	@Test(groups = { "functional" })
+	public void testBacklogAware() throws Exception {
+		Association association = this.association();
+		StreamScheduler scheduler = new StreamScheduler(10, 2);
+
+		long key = 1234;
+		int home = StreamScheduler.DEFAULT.selectStream(key, STREAMS, association);
+
+		// the stream of the key is backed up, a new key goes elsewhere
+		this.backlog[home] = 10;
+		int stream = scheduler.selectStream(key, STREAMS, association);
+		assertTrue(stream != home);
+		assertEquals(1, scheduler.getKeyCount());
+
+		// and stays there, to keep its messages in order
+		this.backlog[home] = 0;
+		assertEquals(stream, scheduler.selectStream(key, STREAMS, association));
+
+		scheduler.releaseKey(key);
+		assertEquals(0, scheduler.getKeyCount());
+		assertEquals(home, scheduler.selectStream(key, STREAMS, association));
+
+		// all streams backed up, the least loaded one is taken
+		for (int i = 0; i < STREAMS; i++) {
+			this.backlog[i] = 20 + i;
+		}
+		this.backlog[3] = 15;
+		scheduler.clear();
+		assertEquals(3, scheduler.selectStream(key, STREAMS, association));
+
+		// no more than maxKeys keys are remembered
+		scheduler.selectStream(key + 1, STREAMS, association);
+		scheduler.selectStream(key + 2, STREAMS, association);
+		assertEquals(2, scheduler.getKeyCount());
+	}
+
+	@Test(groups = { "functional" })
+	public void testFullKeyMap() throws Exception {
+		Association association = this.association();
+		StreamScheduler scheduler = new StreamScheduler(10, 1);
+		Arrays.fill(this.backlog, 0);
+
+		// keys on their ring stream take no entry
+		for (long key = 0; key < 8; key++) {
+			assertEquals(StreamScheduler.DEFAULT.selectStream(key, STREAMS, association),
+					scheduler.selectStream(key, STREAMS, association));
+		}
+		assertEquals(0, scheduler.getKeyCount());
+
+		long steered = 1234;
+		int steeredHome = StreamScheduler.DEFAULT.selectStream(steered, STREAMS, association);
+		this.backlog[steeredHome] = 10;
+		assertTrue(scheduler.selectStream(steered, STREAMS, association) != steeredHome);
+		assertEquals(1, scheduler.getKeyCount());
+		this.backlog[steeredHome] = 0;
+
+		// the map is full, a new key whose ring stream is backed up is not
+		// steered, so it stays on one stream once the backlog drains
+		long key = 4321;
+		int home = StreamScheduler.DEFAULT.selectStream(key, STREAMS, association);
+		this.backlog[home] = 10;
+		assertEquals(home, scheduler.selectStream(key, STREAMS, association));
+		assertEquals(1, scheduler.getKeyCount());
+		this.backlog[home] = 0;
+		assertEquals(home, scheduler.selectStream(key, STREAMS, association));
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mobicents.protocols.api.LengthFieldTcpFrameDecoder;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the cutting of TCP data into PDUs by {@link TcpFrameAccumulator}
+ * with {@link LengthFieldTcpFrameDecoder}
+ *
+ */
+public class TcpFrameAccumulatorTest {
+
+	/**
+	 * @return an M3UA like PDU: 8 bytes header with the PDU length at offset 4
+	 */
+	private static byte[] pdu(int length, int fill) {
+		ByteBuf buf = Unpooled.buffer(length);
+		buf.writeInt(0x01000101);
+		buf.writeInt(length);
+		while (buf.isWritable()) {
+			buf.writeByte(fill);
+		}
+		return buf.array();
+	}
+
+	@Test(groups = { "functional", "tcp" })
+	public void testFrames() throws Exception {
+		TcpFrameAccumulator accumulator = new TcpFrameAccumulator(LengthFieldTcpFrameDecoder.m3ua(1024));
+		List<ByteBuf> frames = new ArrayList<ByteBuf>();
+
+		ByteBuf stream = Unpooled.buffer();
+		stream.writeBytes(pdu(20, 1));
+		stream.writeBytes(pdu(30, 2));
+		stream.writeBytes(pdu(100, 3));
+		stream.writeBytes(pdu(8, 4));
+
+		// two PDUs and the first 5 bytes of the third, the header is not
+		// complete yet
+		ByteBuf read1 = stream.readBytes(55);
+		accumulator.add(read1, frames);
+		assertEquals(2, frames.size());
+		assertEquals(20, frames.get(0).readableBytes());
+		assertEquals(1, frames.get(0).getByte(19));
+		assertEquals(30, frames.get(1).readableBytes());
+		assertEquals(2, frames.get(1).getByte(29));
+		assertEquals(5, accumulator.getPendingBytes());
+		frames.get(0).release();
+		// the second PDU still holds the read buffer
+		assertTrue(read1.refCnt() > 0);
+		frames.get(1).release();
+		frames.clear();
+
+		// the rest of the third PDU in two reads
+		accumulator.add(stream.readBytes(50), frames);
+		assertEquals(0, frames.size());
+		assertEquals(55, accumulator.getPendingBytes());
+		accumulator.add(stream.readBytes(50), frames);
+		assertEquals(1, frames.size());
+		ByteBuf third = frames.get(0);
+		assertEquals(100, third.readableBytes());
+		assertEquals(100, third.getInt(4));
+		assertEquals(3, third.getByte(99));
+		assertEquals(5, accumulator.getPendingBytes());
+		third.release();
+		frames.clear();
+
+		accumulator.add(stream.readBytes(3), frames);
+		assertEquals(1, frames.size());
+		assertEquals(8, frames.get(0).readableBytes());
+		assertEquals(0, accumulator.getPendingBytes());
+		frames.get(0).release();
+		assertEquals(0, read1.refCnt());
+	}
+
+	@Test(groups = { "functional", "tcp" })
+	public void testBadLength() throws Exception {
+		TcpFrameAccumulator accumulator = new TcpFrameAccumulator(LengthFieldTcpFrameDecoder.m3ua(1024));
+		List<ByteBuf> frames = new ArrayList<ByteBuf>();
+
+		ByteBuf read = Unpooled.buffer();
+		read.writeBytes(pdu(20, 1));
+		read.writeInt(0x01000101);
+		read.writeInt(4096);
+		try {
+			accumulator.add(read, frames);
+			assertTrue(false);
+		} catch (Exception e) {
+			// expected, the connection is to be closed
+		}
+		// the PDU before the bad one is passed up
+		assertEquals(1, frames.size());
+		frames.get(0).release();
+		assertEquals(0, read.refCnt());
+		assertEquals(0, accumulator.getPendingBytes());
+	}
+}
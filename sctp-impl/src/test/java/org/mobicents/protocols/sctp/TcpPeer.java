@@ -0,0 +1,274 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.AssociationWritabilityListener;
+import org.mobicents.protocols.api.IpChannelType;
+import org.mobicents.protocols.api.PayloadData;
+import org.mobicents.protocols.api.Server;
+
+/**
+ * A plain socket peer of one TCP Association of a started ManagementImpl,
+ * connecting to a SERVER Association or accepting a CLIENT Association. It
+ * is the listener of the Association and records the payloads and
+ * writability changes passed up.
+ *
+ */
+public class TcpPeer implements AssociationWritabilityListener {
+
+	public static final String SERVER_NAME = "testserver";
+	public static final String HOST = "127.0.0.1";
+	public static final String ASSOCIATION_NAME = "testAssociation";
+
+	private final ManagementImpl management;
+	// port of the Server or the CLIENT Association, and of the peer socket
+	private final int localPort;
+	private final int peerPort;
+
+	private Server server;
+	private Association association;
+	private ServerSocket serverSocket;
+	private Socket socket;
+
+	private final List<byte[]> received = new ArrayList<byte[]>();
+	private final List<Boolean> writabilityChanges = new ArrayList<Boolean>();
+	private volatile boolean up = false;
+
+	/**
+	 * Creates a management, not started so the caller can configure it
+	 * first
+	 */
+	public TcpPeer(String managementName, int localPort, int peerPort) throws Exception {
+		this.management = new ManagementImpl(managementName);
+		this.localPort = localPort;
+		this.peerPort = peerPort;
+	}
+
+	/**
+	 * Starts the management without any resources left from earlier runs
+	 */
+	public void start() throws Exception {
+		this.management.start();
+		this.management.setConnectDelay(1000);
+		this.management.removeAllResourses();
+	}
+
+	public ManagementImpl getManagement() {
+		return management;
+	}
+
+	public Association getAssociation() {
+		return association;
+	}
+
+	/**
+	 * Adds a Server and a SERVER Association for the peer, both not started
+	 */
+	public Server addServerAssociation() throws Exception {
+		this.server = this.management.addServer(SERVER_NAME, HOST, this.localPort, IpChannelType.TCP, false, 0, null);
+		this.association = this.management.addServerAssociation(HOST, this.peerPort, SERVER_NAME, ASSOCIATION_NAME,
+				IpChannelType.TCP);
+		this.association.setAssociationListener(this);
+		return this.server;
+	}
+
+	/**
+	 * Starts the Server and the SERVER Association and connects the peer
+	 */
+	public void connect() throws Exception {
+		this.management.startServer(SERVER_NAME);
+		this.management.startAssociation(ASSOCIATION_NAME);
+
+		this.socket = new Socket();
+		this.socket.setReuseAddress(true);
+		this.socket.setTcpNoDelay(true);
+		this.socket.bind(new InetSocketAddress(HOST, this.peerPort));
+		this.socket.connect(new InetSocketAddress(HOST, this.localPort));
+		this.socket.setSoTimeout(10000);
+		this.awaitUp();
+	}
+
+	/**
+	 * Adds and starts a CLIENT Association and accepts its connection
+	 *
+	 * @param receiveBufferSize
+	 *            socket receive buffer of the peer
+	 */
+	public void acceptClientAssociation(int receiveBufferSize) throws Exception {
+		this.serverSocket = new ServerSocket();
+		this.serverSocket.setReuseAddress(true);
+		this.serverSocket.setReceiveBufferSize(receiveBufferSize);
+		this.serverSocket.bind(new InetSocketAddress(HOST, this.peerPort));
+		this.serverSocket.setSoTimeout(10000);
+
+		this.association = this.management.addAssociation(HOST, this.localPort, HOST, this.peerPort,
+				ASSOCIATION_NAME, IpChannelType.TCP, null);
+		this.association.setAssociationListener(this);
+		this.management.startAssociation(ASSOCIATION_NAME);
+
+		this.socket = this.serverSocket.accept();
+		this.socket.setSoTimeout(10000);
+		this.awaitUp();
+	}
+
+	private void awaitUp() throws InterruptedException {
+		for (int i = 0; i < 50 && !this.up; i++) {
+			Thread.sleep(100);
+		}
+		assertTrue(this.up);
+	}
+
+	public void write(byte[] bytes) throws IOException {
+		OutputStream out = this.socket.getOutputStream();
+		out.write(bytes);
+		out.flush();
+	}
+
+	/**
+	 * @return the number of bytes read, less than length only if the
+	 *         Association closed the connection
+	 */
+	public long read(long length) throws IOException {
+		InputStream in = this.socket.getInputStream();
+		byte[] buf = new byte[64 * 1024];
+		long read = 0;
+		while (read < length) {
+			int n = in.read(buf, 0, (int) Math.min(buf.length, length - read));
+			if (n < 0)
+				break;
+			read += n;
+		}
+		return read;
+	}
+
+	/**
+	 * Reads exactly data.length bytes
+	 */
+	public void readFully(byte[] data) throws IOException {
+		new DataInputStream(this.socket.getInputStream()).readFully(data);
+	}
+
+	/**
+	 * Waits up to 5 seconds for count payloads
+	 *
+	 * @return the payloads received so far
+	 */
+	public List<byte[]> awaitReceived(int count) throws InterruptedException {
+		for (int i = 0; i < 50; i++) {
+			synchronized (this) {
+				if (this.received.size() >= count)
+					break;
+			}
+			Thread.sleep(100);
+		}
+		synchronized (this) {
+			return new ArrayList<byte[]>(this.received);
+		}
+	}
+
+	public synchronized List<Boolean> getWritabilityChanges() {
+		return new ArrayList<Boolean>(this.writabilityChanges);
+	}
+
+	/**
+	 * Closes the peer first, so that TIME_WAIT does not hold the port of a
+	 * CLIENT Association for the next run, then stops and removes the
+	 * Association and the Server
+	 */
+	public void disconnect() throws Exception {
+		if (this.association == null)
+			return;
+
+		if (this.socket != null)
+			this.socket.close();
+		if (this.serverSocket != null)
+			this.serverSocket.close();
+		Thread.sleep(200);
+
+		this.management.stopAssociation(ASSOCIATION_NAME);
+		if (this.server != null)
+			this.management.stopServer(SERVER_NAME);
+		this.management.removeAssociation(ASSOCIATION_NAME);
+		if (this.server != null)
+			this.management.removeServer(SERVER_NAME);
+		this.association = null;
+		this.server = null;
+	}
+
+	/**
+	 * Disconnects and stops the management
+	 */
+	public void close() throws Exception {
+		this.disconnect();
+		this.management.stop();
+	}
+
+	@Override
+	public void onCommunicationUp(Association association, int maxInboundStreams, int maxOutboundStreams) {
+		this.up = true;
+	}
+
+	@Override
+	public void onCommunicationShutdown(Association association) {
+		this.up = false;
+	}
+
+	@Override
+	public void onCommunicationLost(Association association) {
+	}
+
+	@Override
+	public void onCommunicationRestart(Association association) {
+	}
+
+	@Override
+	public void onPayload(Association association, PayloadData payloadData) {
+		byte[] data = new byte[payloadData.getDataLength()];
+		payloadData.getByteBuf().readBytes(data);
+		payloadData.release();
+		synchronized (this) {
+			this.received.add(data);
+		}
+	}
+
+	@Override
+	public void inValidStreamId(PayloadData payloadData) {
+	}
+
+	@Override
+	public synchronized void onWritabilityChanged(Association association, boolean writable) {
+		this.writabilityChanges.add(writable);
+	}
+}
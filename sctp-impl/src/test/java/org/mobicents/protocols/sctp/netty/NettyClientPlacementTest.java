@@ -0,0 +1,233 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.AssociationListener;
+import org.mobicents.protocols.api.IpChannelType;
+import org.mobicents.protocols.api.PayloadData;
+import org.testng.annotations.Test;
+
+/**
+ * CLIENT Associations are spread over the worker group event loops as per the
+ * placement policy, and give their loop back when they are stopped. A
+ * connected CLIENT Association is served by the loop it was placed on.
+ *
+ */
+public class NettyClientPlacementTest {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int CLIENT_PORT = 2390;
+    private static final int PEER_PORT = 2391;
+    private static final int WORKER_THREADS = 4;
+
+    @Test(groups = { "functional" })
+    public void testPlacementPolicies() throws Exception {
+        NettySctpManagementImpl management = this.startManagement("NettyClientPlacementTestPolicies");
+        try {
+            management.setClientPlacementPolicy(null);
+            fail("ClientPlacementPolicy can not be null");
+        } catch (Exception e) {
+        }
+
+        List<NettyAssociationImpl> associations = new ArrayList<NettyAssociationImpl>();
+        for (int i = 0; i < WORKER_THREADS; i++) {
+            associations.add((NettyAssociationImpl) management.addAssociation(HOST, CLIENT_PORT + 10 + i, HOST,
+                    PEER_PORT + 10 + i, "testAssociation" + i, IpChannelType.TCP, null));
+        }
+        Set<EventLoop> workerLoops = this.getEventLoops(management.getTcpWorkerGroup());
+        assertEquals(WORKER_THREADS, workerLoops.size());
+
+        // ROUND_ROBIN takes the loops in turn
+        management.setClientPlacementPolicy(NettyClientPlacementPolicy.ROUND_ROBIN);
+        List<EventLoop> loops = this.assign(management, associations);
+        assertEquals(WORKER_THREADS, this.distinct(loops).size());
+        assertTrue(workerLoops.containsAll(loops));
+        this.release(management, loops);
+
+        // LEAST_ASSOCIATIONS refills the loop given back, so loads have returned to 0 above
+        management.setClientPlacementPolicy(NettyClientPlacementPolicy.LEAST_ASSOCIATIONS);
+        loops = this.assign(management, associations);
+        assertEquals(WORKER_THREADS, this.distinct(loops).size());
+        management.releaseClientEventLoop(loops.get(2));
+        assertSame(loops.get(2), management.assignClientEventLoop(associations.get(0)));
+        management.releaseClientEventLoop(loops.get(2));
+        this.release(management, loops.subList(0, 2));
+        this.release(management, loops.subList(3, loops.size()));
+
+        // PINNED always lands an Association on the same loop
+        management.setClientPlacementPolicy(NettyClientPlacementPolicy.PINNED);
+        for (NettyAssociationImpl association : associations) {
+            EventLoop loop = management.assignClientEventLoop(association);
+            assertSame(loop, management.assignClientEventLoop(association));
+            assertTrue(workerLoops.contains(loop));
+            management.releaseClientEventLoop(loop);
+            management.releaseClientEventLoop(loop);
+        }
+
+        management.setClientPlacementPolicy(NettyClientPlacementPolicy.ROUND_ROBIN);
+        management.removeAllResourses();
+        management.stop();
+
+        // nothing is placed while the stack is stopped
+        assertNull(management.assignClientEventLoop(associations.get(0)));
+    }
+
+    @Test(groups = { "functional", "tcp" })
+    public void testClientPlacementTcp() throws Exception {
+        NettySctpManagementImpl management = this.startManagement("NettyClientPlacementTestTcp");
+        management.setClientPlacementPolicy(NettyClientPlacementPolicy.LEAST_ASSOCIATIONS);
+
+        ServerSocket peer = new ServerSocket();
+        peer.setReuseAddress(true);
+        peer.bind(new InetSocketAddress(HOST, PEER_PORT));
+        peer.setSoTimeout(10000);
+
+        NettyAssociationImpl association = (NettyAssociationImpl) management.addAssociation(HOST, CLIENT_PORT, HOST,
+                PEER_PORT, "testAssociation", IpChannelType.TCP, null);
+        association.setAssociationListener(new ClientListener());
+        assertNull(association.getClientEventLoop());
+        management.startAssociation("testAssociation");
+        Socket socket = peer.accept();
+        for (int i = 0; i < 50 && !association.isConnected(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(association.isConnected());
+
+        // the connection is served by a worker loop, not by the boss group
+        EventLoop loop = association.getClientEventLoop();
+        assertNotNull(loop);
+        assertTrue(this.getEventLoops(management.getTcpWorkerGroup()).contains(loop));
+        assertFalse(this.getEventLoops(management.getTcpBossGroup()).contains(loop));
+
+        // the loop is taken, so the next placement goes elsewhere
+        EventLoop other = management.assignClientEventLoop(association);
+        assertTrue(other != loop);
+        management.releaseClientEventLoop(other);
+
+        management.stopAssociation("testAssociation");
+        assertNull(association.getClientEventLoop());
+
+        // with the loop given back all loads are equal again
+        List<NettyAssociationImpl> associations = new ArrayList<NettyAssociationImpl>();
+        for (int i = 0; i < WORKER_THREADS; i++) {
+            associations.add(association);
+        }
+        List<EventLoop> loops = this.assign(management, associations);
+        assertEquals(WORKER_THREADS, this.distinct(loops).size());
+        this.release(management, loops);
+
+        socket.close();
+        peer.close();
+        management.setClientPlacementPolicy(NettyClientPlacementPolicy.ROUND_ROBIN);
+        management.removeAllResourses();
+        management.stop();
+    }
+
+    private NettySctpManagementImpl startManagement(String name) throws Exception {
+        NettySctpManagementImpl management = new NettySctpManagementImpl(name);
+        management.setWorkerThreads(WORKER_THREADS);
+        management.start();
+        management.setConnectDelay(1000);
+        management.removeAllResourses();
+        return management;
+    }
+
+    private List<EventLoop> assign(NettySctpManagementImpl management, List<NettyAssociationImpl> associations) {
+        List<EventLoop> loops = new ArrayList<EventLoop>();
+        for (NettyAssociationImpl association : associations) {
+            EventLoop loop = management.assignClientEventLoop(association);
+            assertNotNull(loop);
+            loops.add(loop);
+        }
+        return loops;
+    }
+
+    private void release(NettySctpManagementImpl management, List<EventLoop> loops) {
+        for (EventLoop loop : loops) {
+            management.releaseClientEventLoop(loop);
+        }
+    }
+
+    private Set<EventLoop> distinct(List<EventLoop> loops) {
+        Set<EventLoop> set = Collections.newSetFromMap(new IdentityHashMap<EventLoop, Boolean>());
+        set.addAll(loops);
+        return set;
+    }
+
+    private Set<EventLoop> getEventLoops(EventLoopGroup group) {
+        List<EventLoop> loops = new ArrayList<EventLoop>();
+        for (Iterator<?> it = group.iterator(); it.hasNext();) {
+            loops.add((EventLoop) it.next());
+        }
+        return this.distinct(loops);
+    }
+
+    private static class ClientListener implements AssociationListener {
+
+        @Override
+        public void onCommunicationUp(Association association, int maxInboundStreams, int maxOutboundStreams) {
+        }
+
+        @Override
+        public void onCommunicationShutdown(Association association) {
+        }
+
+        @Override
+        public void onCommunicationLost(Association association) {
+        }
+
+        @Override
+        public void onCommunicationRestart(Association association) {
+        }
+
+        @Override
+        public void onPayload(Association association, PayloadData payloadData) {
+            payloadData.release();
+        }
+
+        @Override
+        public void inValidStreamId(PayloadData payloadData) {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.CongestionListener;
+import org.mobicents.protocols.api.PayloadData;
+import org.testng.annotations.Test;
+
+/**
+ * A TCP peer which does not read makes the outbound queue of a client
+ * Association grow, raising its congestion level, and reading it all brings
+ * the level back to 0
+ *
+ */
+public class NettyCongestionTest implements CongestionListener {
+
+    private static final int CLIENT_PORT = 2356;
+    private static final int PEER_PORT = 2355;
+
+    private static final int MESSAGE_SIZE = 64 * 1024;
+    private static final int MESSAGE_COUNT = 100;
+
+    private final List<int[]> levelChanges = new ArrayList<int[]>();
+
+    @Test(groups = { "functional", "tcp" })
+    public void testCongestionTcp() throws Exception {
+        NettyTcpPeer peer = new NettyTcpPeer("NettyCongestionTest", CLIENT_PORT, PEER_PORT);
+        NettySctpManagementImpl management = peer.getManagement();
+        management.setConnectDelay(1000);
+        management.setTxHighWaterMark(1024 * 1024);
+        management.addCongestionListener(this);
+
+        peer.acceptClientAssociation(16 * 1024);
+        Association association = peer.getAssociation();
+
+        byte[] data = new byte[MESSAGE_SIZE];
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            association.send(new PayloadData(data.length, data, true, false, 0, 0));
+        }
+
+        // far more than the 1 MB TxHighWaterMark waits for the peer
+        for (int i = 0; i < 50 && (association.getCongestionLevel() != 3 || peer.getWritabilityChanges().isEmpty()); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(3, association.getCongestionLevel());
+        List<Boolean> writabilityChanges = peer.getWritabilityChanges();
+        assertFalse(writabilityChanges.isEmpty());
+        assertFalse(writabilityChanges.get(writabilityChanges.size() - 1));
+
+        assertEquals((long) MESSAGE_SIZE * MESSAGE_COUNT, peer.read((long) MESSAGE_SIZE * MESSAGE_COUNT));
+        for (int i = 0; i < 50 && association.getCongestionLevel() != 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, association.getCongestionLevel());
+
+        // listeners are told about real changes only, in the order they happen
+        boolean writable = true;
+        for (Boolean change : peer.getWritabilityChanges()) {
+            assertTrue(change != writable);
+            writable = change;
+        }
+        assertTrue(writable);
+
+        synchronized (this) {
+            assertTrue(this.levelChanges.size() >= 2);
+            int level = 0;
+            for (int[] change : this.levelChanges) {
+                assertEquals(level, change[0]);
+                assertTrue(change[0] != change[1]);
+                level = change[1];
+            }
+            assertEquals(0, level);
+        }
+
+        peer.disconnect();
+        management.removeCongestionListener(this);
+        peer.close();
+    }
+
+    @Override
+    public synchronized void onCongLevelChanged(Association association, int oldCongLevel, int newCongLevel) {
+        this.levelChanges.add(new int[] { oldCongLevel, newCongLevel });
+    }
+}
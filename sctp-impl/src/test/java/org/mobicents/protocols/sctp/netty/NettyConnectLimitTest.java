@@ -0,0 +1,152 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.AssociationListener;
+import org.mobicents.protocols.api.IpChannelType;
+import org.mobicents.protocols.api.PayloadData;
+import org.testng.annotations.Test;
+
+/**
+ * With a single connect permit, a CLIENT Association whose connects keep
+ * failing gives the permit back every time, so the other queued CLIENT
+ * Associations come up one after another. Stopping the stack drops whatever
+ * still waits for a permit.
+ *
+ */
+public class NettyConnectLimitTest {
+
+    private static final String HOST = "127.0.0.1";
+    // the first peer port has no listener
+    private static final int[] CLIENT_PORTS = { 2374, 2375, 2376 };
+    private static final int[] PEER_PORTS = { 2377, 2378, 2379 };
+
+    @Test(groups = { "functional", "tcp" })
+    public void testConnectLimitTcp() throws Exception {
+        NettySctpManagementImpl management = new NettySctpManagementImpl("NettyConnectLimitTest");
+        management.start();
+        management.setConnectDelay(1000);
+        management.removeAllResourses();
+
+        try {
+            management.setMaxConcurrentConnects(0);
+            fail("MaxConcurrentConnects must be positive");
+        } catch (Exception e) {
+        }
+        management.setMaxConcurrentConnects(1);
+        assertEquals(1, management.getMaxConcurrentConnects());
+
+        List<ServerSocket> peers = new ArrayList<ServerSocket>();
+        List<Socket> sockets = new ArrayList<Socket>();
+        for (int i = 1; i < PEER_PORTS.length; i++) {
+            ServerSocket peer = new ServerSocket();
+            peer.setReuseAddress(true);
+            peer.bind(new InetSocketAddress(HOST, PEER_PORTS[i]));
+            peer.setSoTimeout(10000);
+            peers.add(peer);
+        }
+
+        UpListener listener = new UpListener();
+        List<Association> associations = new ArrayList<Association>();
+        for (int i = 0; i < CLIENT_PORTS.length; i++) {
+            String name = "testAssociation" + i;
+            Association association = management.addAssociation(HOST, CLIENT_PORTS[i], HOST, PEER_PORTS[i], name,
+                    IpChannelType.TCP, null);
+            association.setAssociationListener(listener);
+            associations.add(association);
+            management.startAssociation(name);
+        }
+        for (ServerSocket peer : peers) {
+            sockets.add(peer.accept());
+        }
+
+        for (int i = 0; i < 50 && listener.getUp() < 2; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(2, listener.getUp());
+        assertFalse(associations.get(0).isConnected());
+        assertTrue(associations.get(1).isConnected());
+        assertTrue(associations.get(2).isConnected());
+        assertTrue(management.getPendingConnects() <= 1);
+
+        management.stop();
+        assertEquals(0, management.getPendingConnects());
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        for (ServerSocket peer : peers) {
+            peer.close();
+        }
+
+        management.start();
+        management.removeAllResourses();
+        management.stop();
+    }
+
+    private static class UpListener implements AssociationListener {
+        private int up = 0;
+
+        private synchronized int getUp() {
+            return this.up;
+        }
+
+        @Override
+        public synchronized void onCommunicationUp(Association association, int maxInboundStreams,
+                int maxOutboundStreams) {
+            this.up++;
+        }
+
+        @Override
+        public void onCommunicationShutdown(Association association) {
+        }
+
+        @Override
+        public void onCommunicationLost(Association association) {
+        }
+
+        @Override
+        public void onCommunicationRestart(Association association) {
+        }
+
+        @Override
+        public void onPayload(Association association, PayloadData payloadData) {
+            payloadData.release();
+        }
+
+        @Override
+        public void inValidStreamId(PayloadData payloadData) {
+        }
+    }
+}
@@ -147,6 +147,94 @@ public class NettyManagementTest {
 
     }
 
+    /**
+     * Thread counts and event loop affinities are persisted and the pinned
+     * Server is started again on its affinity loop
+     *
+     * @throws Exception
+     */
+    @Test(groups = { "functional", "tcp" })
+    public void testThreadCountsAndAffinityTcp() throws Exception {
+        NettySctpManagementImpl management = new NettySctpManagementImpl("ManagementTestThreads");
+        management.setBossThreads(1);
+        management.setWorkerThreads(3);
+        management.setAffinityThreads(2);
+        management.start();
+        management.removeAllResourses();
+
+        management.addServer(SERVER_NAME, SERVER_HOST, SERVER_PORT, IpChannelType.TCP, false, 0, null);
+        management.addAssociation(CLIENT_HOST, CLIENT_PORT, SERVER_HOST, SERVER_PORT, CLIENT_ASSOCIATION_NAME,
+                IpChannelType.TCP, null);
+        management.setEventLoopAffinity(SERVER_NAME, 1);
+        management.setEventLoopAffinity(CLIENT_ASSOCIATION_NAME, 0);
+        try {
+            management.setEventLoopAffinity("unknown", 0);
+            fail("Expected Exception");
+        } catch (Exception e) {
+            assertEquals("No Association or Server found for name=unknown", e.getMessage());
+        }
+        management.startServer(SERVER_NAME);
+
+        try {
+            management.setWorkerThreads(4);
+            fail("Expected Exception");
+        } catch (Exception e) {
+            assertEquals("WorkerThreads parameter can be updated only when SCTP stack is NOT running", e.getMessage());
+        }
+
+        management.stop();
+
+        management = new NettySctpManagementImpl("ManagementTestThreads");
+        management.start();
+
+        assertEquals(1, management.getBossThreads());
+        assertEquals(3, management.getWorkerThreads());
+        assertEquals(2, management.getAffinityThreads());
+
+        NettyServerImpl server = (NettyServerImpl) management.getServers().get(0);
+        assertTrue(server.isStarted());
+        assertEquals(1, server.getEventLoopAffinity());
+        NettyAssociationImpl association = (NettyAssociationImpl) management.getAssociation(CLIENT_ASSOCIATION_NAME);
+        assertEquals(0, association.getEventLoopAffinity());
+
+        management.stopServer(SERVER_NAME);
+        management.removeAllResourses();
+        management.stop();
+    }
+
+    /**
+     * Setting one thread count before a restart keeps the other persisted
+     * counts
+     *
+     * @throws Exception
+     */
+    @Test(groups = { "functional", "tcp" })
+    public void testSingleThreadCountKeepsPersistedCounts() throws Exception {
+        NettySctpManagementImpl management = new NettySctpManagementImpl("ManagementTestThreadCounts");
+        management.setBossThreads(2);
+        management.setWorkerThreads(3);
+        management.setAffinityThreads(1);
+        management.setListenerThreads(2);
+        management.start();
+        management.removeAllResourses();
+        management.stop();
+
+        management = new NettySctpManagementImpl("ManagementTestThreadCounts");
+        management.setAffinityThreads(2);
+        management.start();
+        management.stop();
+
+        management = new NettySctpManagementImpl("ManagementTestThreadCounts");
+        management.start();
+
+        assertEquals(2, management.getBossThreads());
+        assertEquals(3, management.getWorkerThreads());
+        assertEquals(2, management.getAffinityThreads());
+        assertEquals(2, management.getListenerThreads());
+
+        management.stop();
+    }
+
     @Test(groups = { "functional", "sctp" })
     public void testAssociationSctp() throws Exception {
         
@@ -341,6 +429,41 @@ public class NettyManagementTest {
         }
     }
 
+    /**
+     * The outbound queue settings driving the congestion levels are
+     * persisted, as well as the deprecated delay thresholds
+     *
+     * @throws Exception
+     */
+    @Test(groups = { "functional", "tcp" })
+    public void testCongestionParameters() throws Exception {
+        NettySctpManagementImpl management = new NettySctpManagementImpl("ManagementTestCongestion");
+        management.start();
+        management.removeAllResourses();
+
+        management.setTxHighWaterMark(1024 * 1024);
+        management.setCongControl_QueueThreshold_1(60);
+        management.setCongControl_BackToNormalQueueThreshold_3(70);
+        management.setCongControl_DelayThreshold_1(3.5);
+        management.stop();
+
+        management = new NettySctpManagementImpl("ManagementTestCongestion");
+        management.start();
+
+        assertEquals(1024 * 1024, management.getTxHighWaterMark());
+        assertEquals(60.0, management.getCongControl_QueueThreshold_1(), 0);
+        assertEquals(75.0, management.getCongControl_QueueThreshold_2(), 0);
+        assertEquals(70.0, management.getCongControl_BackToNormalQueueThreshold_3(), 0);
+        assertEquals(3.5, management.getCongControl_DelayThreshold_1(), 0);
+        assertEquals(8.0, management.getCongControl_DelayThreshold_2(), 0);
+
+        management.setTxHighWaterMark(8 * 1024 * 1024);
+        management.setCongControl_QueueThreshold_1(50);
+        management.setCongControl_BackToNormalQueueThreshold_3(80);
+        management.setCongControl_DelayThreshold_1(2.5);
+        management.stop();
+    }
+
     @Test(groups = { "functional", "sctp" })
     public void testSctpStackParameters() throws Exception {
 
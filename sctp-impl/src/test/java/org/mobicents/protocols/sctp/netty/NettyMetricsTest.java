@@ -0,0 +1,103 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.AssociationMetrics;
+import org.mobicents.protocols.api.PayloadData;
+import org.mobicents.protocols.sctp.JmxMetricsExporter;
+import org.testng.annotations.Test;
+
+/**
+ * Traffic between a TCP peer and a SERVER Association shows up in the
+ * Association metrics and in its MBean
+ *
+ */
+public class NettyMetricsTest {
+
+    private static final int SERVER_PORT = 2359;
+    private static final int PEER_PORT = 2360;
+
+    @Test(groups = { "functional", "tcp" })
+    public void testMetricsTcp() throws Exception {
+        NettyTcpPeer peer = new NettyTcpPeer("NettyMetricsTest", SERVER_PORT, PEER_PORT);
+        NettySctpManagementImpl management = peer.getManagement();
+
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        JmxMetricsExporter exporter = new JmxMetricsExporter(mbeanServer);
+        management.addMetricsExporter(exporter);
+
+        peer.addServerAssociation();
+        Association association = peer.getAssociation();
+        ObjectName objectName = JmxMetricsExporter.getObjectName(management, association);
+        assertTrue(mbeanServer.isRegistered(objectName));
+
+        peer.connect();
+
+        AssociationMetrics metrics = association.getMetrics();
+        for (int i = 0; i < 3; i++) {
+            peer.write(new byte[100]);
+            Thread.sleep(100);
+        }
+        assertEquals(3, peer.awaitReceived(3).size());
+        assertEquals(3, metrics.getRxMessages());
+        assertEquals(300, metrics.getRxBytes());
+        assertEquals(3, metrics.getRxStreamMessages()[0]);
+        assertEquals(3, metrics.getDispatchDelay().getCount());
+        assertEquals(3, metrics.getStreamDispatchDelay(0).getCount());
+
+        for (int i = 0; i < 5; i++) {
+            association.send(new PayloadData(50, new byte[50], true, false, 0, 0));
+        }
+        assertEquals(250, peer.read(250));
+        for (int i = 0; i < 50 && metrics.getTxMessages() < 5; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(5, metrics.getTxMessages());
+        assertEquals(250, metrics.getTxBytes());
+        assertEquals(5, metrics.getSendDelay().getCount());
+        assertEquals(5, metrics.getStreamSendDelay(0).getCount());
+        assertNull(metrics.getStreamSendDelay(1));
+        assertEquals(0, metrics.getTxDropped());
+        assertEquals(0, association.getOutboundStreamBacklog(0));
+
+        assertEquals(3L, mbeanServer.getAttribute(objectName, "RxMessages"));
+        assertEquals(5L, mbeanServer.getAttribute(objectName, "TxMessages"));
+        assertEquals(0L, mbeanServer.getAttribute(objectName, "TxQueueDepth"));
+        assertEquals(1, ((long[]) mbeanServer.getAttribute(objectName, "StreamSendDelayP99")).length);
+
+        peer.disconnect();
+        assertFalse(mbeanServer.isRegistered(objectName));
+        management.removeMetricsExporter(exporter);
+        peer.close();
+    }
+}
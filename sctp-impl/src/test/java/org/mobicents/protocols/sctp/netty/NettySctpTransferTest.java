@@ -22,6 +22,7 @@ package org.mobicents.protocols.sctp.netty;
 
 import static org.junit.Assert.assertTrue;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.epoll.Epoll;
 
 import java.util.Arrays;
 
@@ -30,6 +31,7 @@ import org.mobicents.protocols.api.Association;
 import org.mobicents.protocols.api.AssociationListener;
 import org.mobicents.protocols.api.IpChannelType;
 import org.mobicents.protocols.api.PayloadData;
+import org.testng.SkipException;
 import org.testng.annotations.*;
 
 import com.sun.nio.sctp.SctpChannel;
@@ -68,6 +70,7 @@ public class NettySctpTransferTest {
 
 	private byte[] clientMessage;
 	private byte[] serverMessage;
+	private volatile String clientPayloadThread;
 	
 	private volatile int clientMaxInboundStreams = 0;
 	private volatile int clientMaxOutboundStreams = 0;
@@ -75,6 +78,13 @@ public class NettySctpTransferTest {
 	private volatile int serverMaxInboundStreams = 0;
 	private volatile int serverMaxOutboundStreams = 0;
 
+	// management options for the current test, reset by tearDown
+	private boolean optionTcpEpoll = false;
+	private int listenerThreads = 0;
+	// server sends and releases pooled PayloadData
+	private boolean pooledPayload = false;
+	private volatile boolean serverPayloadPooled = false;
+
 	@BeforeClass
 	public static void setUpClass() throws Exception {
 	}
@@ -95,9 +105,13 @@ public class NettySctpTransferTest {
 
 		this.clientMessage = null;
 		this.serverMessage = null;
+		this.clientPayloadThread = null;
+		this.serverPayloadPooled = false;
 
 		this.management = new NettySctpManagementImpl("netty-server-management");
 //		this.management.setSingleThread(true);
+		this.management.setOptionTcpEpoll(this.optionTcpEpoll);
+		this.management.setListenerThreads(this.listenerThreads);
 		this.management.start();
         this.management.setConnectDelay(10000);// Try connecting every 10 secs
 		this.management.removeAllResourses();
@@ -115,6 +129,10 @@ public class NettySctpTransferTest {
 		this.management.removeServer(SERVER_NAME);
 
 		this.management.stop();
+
+		this.optionTcpEpoll = false;
+		this.listenerThreads = 0;
+		this.pooledPayload = false;
 	}
 
 	/**
@@ -137,9 +155,47 @@ public class NettySctpTransferTest {
         this.testDataTransferByProtocol(IpChannelType.TCP);
     }
 
+	/**
+	 * Same as testDataTransferTcp but with the native epoll transport. Skipped
+	 * where epoll is not available, rather than passing on the NIO fallback
+	 */
+	@Test(groups = { "functional", "tcp" })
+	public void testDataTransferTcpEpoll() throws Exception {
+		if (!Epoll.isAvailable())
+			throw new SkipException("Native epoll transport is not available");
+
+		this.optionTcpEpoll = true;
+		this.testDataTransferByProtocol(IpChannelType.TCP);
+	}
+
+	/**
+	 * Same as testDataTransferTcp, with the listeners called from listener
+	 * threads instead of the event loops
+	 */
+	@Test(groups = { "functional", "tcp" })
+	public void testDataTransferTcpListenerThreads() throws Exception {
+		this.listenerThreads = 2;
+		this.testDataTransferByProtocol(IpChannelType.TCP);
+	}
+
+	/**
+	 * Same as testDataTransferTcp, with the server sending a PayloadData taken
+	 * from the pool and releasing the pooled PayloadData it receives
+	 */
+	@Test(groups = { "functional", "tcp" })
+	public void testDataTransferTcpPooledPayload() throws Exception {
+		this.pooledPayload = true;
+		this.testDataTransferByProtocol(IpChannelType.TCP);
+	}
+
 	private void testDataTransferByProtocol(IpChannelType ipChannelType) throws Exception {
 
 		this.setUp(ipChannelType);
+		if (this.optionTcpEpoll && !this.management.isTcpEpoll()) {
+			// the native library loads but its event loops can not be created
+			this.tearDown();
+			throw new SkipException("Native epoll transport can not be used");
+		}
 
         this.management.startServer(SERVER_NAME);
 
@@ -181,6 +237,11 @@ public class NettySctpTransferTest {
 		assertTrue(this.serverMaxInboundStreams> 0 );
 		assertTrue(this.serverMaxOutboundStreams > 0);
 
+		if (this.listenerThreads > 0)
+			assertTrue(this.clientPayloadThread.startsWith("Sctp-ListenerGroup-"));
+		if (this.pooledPayload)
+			assertTrue(this.serverPayloadPooled);
+
 		this.tearDown();
 	}
 
@@ -272,6 +333,7 @@ public class NettySctpTransferTest {
 		 */
 		@Override
 		public void onPayload(Association association, PayloadData payloadData) {
+			clientPayloadThread = Thread.currentThread().getName();
 			clientMessage = new byte[payloadData.getDataLength()];
 			payloadData.getByteBuf().readBytes(clientMessage);
 			logger.debug("CLIENT received " + new String(clientMessage));
@@ -308,7 +370,11 @@ public class NettySctpTransferTest {
 			serverMaxOutboundStreams = maxOutboundStreams;
 					
 
-			PayloadData payloadData = new PayloadData(SERVER_MESSAGE.length, Unpooled.copiedBuffer(SERVER_MESSAGE), true, false, 3, 1);
+			PayloadData payloadData;
+			if (pooledPayload)
+				payloadData = PayloadData.newInstance(SERVER_MESSAGE.length, Unpooled.copiedBuffer(SERVER_MESSAGE), true, false, 3, 1);
+			else
+				payloadData = new PayloadData(SERVER_MESSAGE.length, Unpooled.copiedBuffer(SERVER_MESSAGE), true, false, 3, 1);
 
 			try {
 				association.send(payloadData);
@@ -366,6 +432,10 @@ public class NettySctpTransferTest {
 		public void onPayload(Association association, PayloadData payloadData) {
 			serverMessage = new byte[payloadData.getDataLength()];
 			payloadData.getByteBuf().readBytes(serverMessage);
+			if (pooledPayload) {
+				serverPayloadPooled = payloadData.isPooled();
+				payloadData.release();
+			}
 			logger.debug("SERVER received " + new String(serverMessage));
 		}
 
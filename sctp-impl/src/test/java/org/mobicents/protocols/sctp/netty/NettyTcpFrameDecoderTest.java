@@ -0,0 +1,75 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.mobicents.protocols.sctp.netty.NettyTcpPeer.pdu;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.List;
+
+import org.mobicents.protocols.api.LengthFieldTcpFrameDecoder;
+import org.testng.annotations.Test;
+
+/**
+ * A TCP peer sends M3UA like PDUs cut at random places, the SERVER Association
+ * passes up one PayloadData per PDU with the TcpFrameDecoder of its Server
+ *
+ */
+public class NettyTcpFrameDecoderTest {
+
+    private static final int SERVER_PORT = 2357;
+    private static final int PEER_PORT = 2358;
+
+    @Test(groups = { "functional", "tcp" })
+    public void testFramesTcp() throws Exception {
+        NettyTcpPeer peer = new NettyTcpPeer("NettyTcpFrameDecoderTest", SERVER_PORT, PEER_PORT);
+        peer.addServerAssociation().setTcpFrameDecoder(LengthFieldTcpFrameDecoder.m3ua(1024));
+        peer.connect();
+
+        ByteBuf stream = Unpooled.buffer();
+        int[] lengths = new int[] { 20, 30, 100, 8, 600, 12 };
+        for (int i = 0; i < lengths.length; i++) {
+            stream.writeBytes(pdu(lengths[i], i));
+        }
+        // cut inside a header, inside a body and on a PDU boundary
+        for (int cut : new int[] { 55, 50, 50, 3, 300, 312 }) {
+            byte[] bytes = new byte[cut];
+            stream.readBytes(bytes);
+            peer.write(bytes);
+            Thread.sleep(100);
+        }
+
+        List<byte[]> received = peer.awaitReceived(lengths.length);
+        assertEquals(lengths.length, received.size());
+        for (int i = 0; i < lengths.length; i++) {
+            byte[] data = received.get(i);
+            assertEquals(lengths[i], data.length);
+            assertEquals(lengths[i], Unpooled.wrappedBuffer(data).getInt(4));
+            if (lengths[i] > 8)
+                assertEquals(i, data[data.length - 1]);
+        }
+
+        peer.close();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * TeleStax, Open Source Cloud Communications  Copyright 2012.
+ * and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.protocols.sctp.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mobicents.protocols.api.Association;
+import org.mobicents.protocols.api.AssociationMetrics;
+import org.mobicents.protocols.api.PayloadData;
+import org.testng.annotations.Test;
+
+/**
+ * Messages sent by concurrent threads through the batched write path reach a
+ * TCP peer complete and, per sending thread, in the order they were sent, and
+ * every write is accounted for once it is done
+ *
+ */
+public class NettyWriteOrderTest {
+
+    private static final int SERVER_PORT = 2372;
+    private static final int PEER_PORT = 2373;
+
+    private static final int SENDERS = 4;
+    private static final int MESSAGES = 2000;
+    private static final int MESSAGE_SIZE = 64;
+
+    @Test(groups = { "functional", "tcp" })
+    public void testWriteOrderTcp() throws Exception {
+        NettyTcpPeer peer = new NettyTcpPeer("NettyWriteOrderTest", SERVER_PORT, PEER_PORT);
+        peer.addServerAssociation();
+        peer.connect();
+        final Association association = peer.getAssociation();
+
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] senders = new Thread[SENDERS];
+        for (int i = 0; i < SENDERS; i++) {
+            final int sender = i;
+            senders[i] = new Thread() {
+                public void run() {
+                    for (int seq = 0; seq < MESSAGES; seq++) {
+                        ByteBuf buf = Unpooled.buffer(MESSAGE_SIZE);
+                        buf.writeInt(sender);
+                        buf.writeInt(seq);
+                        buf.writerIndex(MESSAGE_SIZE);
+                        try {
+                            association.send(new PayloadData(MESSAGE_SIZE, buf.array(), true, false, 0, 0));
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                            return;
+                        }
+                    }
+                }
+            };
+            senders[i].start();
+        }
+
+        byte[] data = new byte[SENDERS * MESSAGES * MESSAGE_SIZE];
+        peer.readFully(data);
+        for (Thread sender : senders) {
+            sender.join(10000);
+        }
+        assertEquals(0, failures.get());
+
+        ByteBuf received = Unpooled.wrappedBuffer(data);
+        int[] next = new int[SENDERS];
+        while (received.isReadable()) {
+            int sender = received.getInt(received.readerIndex());
+            int seq = received.getInt(received.readerIndex() + 4);
+            assertTrue(sender >= 0 && sender < SENDERS);
+            assertEquals(next[sender], seq);
+            next[sender]++;
+            received.skipBytes(MESSAGE_SIZE);
+        }
+        for (int i = 0; i < SENDERS; i++) {
+            assertEquals(MESSAGES, next[i]);
+        }
+
+        AssociationMetrics metrics = association.getMetrics();
+        for (int i = 0; i < 50 && metrics.getTxMessages() < SENDERS * MESSAGES; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(SENDERS * MESSAGES, metrics.getTxMessages());
+        assertEquals(0, metrics.getTxDropped());
+        assertEquals(0, association.getOutboundStreamBacklog(0));
+
+        peer.disconnect();
+        peer.close();
+    }
+}